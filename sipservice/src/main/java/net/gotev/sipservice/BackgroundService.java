@@ -3,20 +3,42 @@ package net.gotev.sipservice;
 import android.app.Service;
 import android.content.Intent;
 import android.os.*;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
 
 /**
  * Service with a background worker thread.
+ * <p>
+ * Threading contract:
+ * <ul>
+ *     <li>every job enqueued with {@link #enqueueJob(Runnable)} or
+ *     {@link #enqueueDelayedJob(Runnable, long)} runs sequentially on a single, dedicated,
+ *     high priority worker thread and never on the main thread. The PJSIP stack is created on
+ *     this thread, so it is implicitly registered with the library and can invoke any pjsua2
+ *     API.</li>
+ *     <li>pjsua2 callbacks (registration, incoming call, call state, media and transport
+ *     events) are delivered on PJSIP's own worker threads, or on the service worker thread when
+ *     they are triggered synchronously by an operation performed in a job.</li>
+ *     <li>broadcasts are sent from the thread which produced the event, so they can originate
+ *     both from the service worker thread and from PJSIP threads.</li>
+ * </ul>
  * @author gotev (Aleksandar Gotev)
  */
 class BackgroundService extends Service {
 
+    private HandlerThread mWorkerThread;
     private Handler mHandler;
+    private Executor mWorkerExecutor;
     private PowerManager.WakeLock mWakeLock;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mHandler = new Handler(Looper.getMainLooper());
+        mWorkerThread = new HandlerThread(getClass().getSimpleName(), Process.THREAD_PRIORITY_FOREGROUND);
+        mWorkerThread.start();
+        mHandler = new Handler(mWorkerThread.getLooper());
+        mWorkerExecutor = this::enqueueJob;
         acquireWakeLock();
     }
 
@@ -28,11 +50,18 @@ class BackgroundService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        // let the jobs already enqueued (e.g. the stack shutdown) complete before quitting
+        mWorkerThread.quitSafely();
         releaseWakeLock();
     }
 
-    protected void enqueueJob(Runnable job) {
-        mHandler.post(job);
+    /**
+     * Enqueues a job on the worker thread.
+     * @param job job to run
+     * @return false if the job has not been enqueued because the worker thread is quitting
+     */
+    protected boolean enqueueJob(Runnable job) {
+        return mHandler.post(job);
     }
 
     protected void enqueueDelayedJob(Runnable job, long delayMillis) {
@@ -43,6 +72,30 @@ class BackgroundService extends Service {
         mHandler.removeCallbacks(job);
     }
 
+    /**
+     * Gets the executor which runs jobs on the service worker thread.
+     * @return worker thread executor
+     */
+    protected Executor getWorkerExecutor() {
+        return mWorkerExecutor;
+    }
+
+    /**
+     * Gets the looper of the service worker thread.
+     * @return worker thread looper
+     */
+    protected Looper getWorkerLooper() {
+        return mWorkerThread.getLooper();
+    }
+
+    /**
+     * Checks if the caller is running on the service worker thread.
+     * @return true if the current thread is the service worker thread
+     */
+    protected boolean isWorkerThread() {
+        return Looper.myLooper() == mWorkerThread.getLooper();
+    }
+
     public void acquireWakeLock() {
         PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, getClass().getSimpleName());
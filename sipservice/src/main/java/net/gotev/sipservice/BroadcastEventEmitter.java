@@ -1,13 +1,21 @@
 package net.gotev.sipservice;
 
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.pjsip.pjsua2.pjsip_inv_state;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Emits the sip service broadcast intents.
@@ -17,7 +25,34 @@ public class BroadcastEventEmitter implements SipServiceConstants {
 
     public static String NAMESPACE = "com.voismart";
 
+    private static final String TAG = BroadcastEventEmitter.class.getSimpleName();
+
+    /**
+     * Global sequence of the emitted events. Events are stamped, broadcast and posted to the
+     * listeners while holding the emitter lock, so the sequence order is the emission order.
+     * The listeners are invoked after the lock has been released.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * The sequence restarts with the process, so the broadcasts carry the time at which the
+     * process has started emitting, to tell apart the sequences of different processes.
+     */
+    private static final long EPOCH = System.currentTimeMillis();
+
     private final Context mContext;
+    private final EventCoalescer mCoalescer;
+
+    /**
+     * Manifest receivers resolved for each action. Resolving them is an IPC to the system
+     * server, so it's done only once per action and repeated only when a package changes.
+     */
+    private final ConcurrentHashMap<String, List<ComponentName>> mReceiversCache = new ConcurrentHashMap<>();
+    private final AtomicLong mReceiversCacheHits = new AtomicLong();
+    private final AtomicLong mReceiversResolutions = new AtomicLong();
+    private final AtomicLong mReceiversResolutionNanos = new AtomicLong();
+    private final Object mPackageChangesLock = new Object();
+    private BroadcastReceiver mPackageChangesReceiver;
 
     /**
      * Enumeration of the broadcast actions
@@ -36,17 +71,48 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         CALL_STATS,
         CALL_RECONNECTION_STATE,
         SILENT_CALL_STATUS,
-        NOTIFY_TLS_VERIFY_STATUS_FAILED
+        NOTIFY_TLS_VERIFY_STATUS_FAILED,
+        BATCH_RESULT,
+        CALL_QUALITY
     }
 
     public BroadcastEventEmitter(Context context) {
+        this(context, Looper.getMainLooper());
+    }
+
+    /**
+     * @param context context used to send the broadcasts
+     * @param coalescingLooper looper on which the coalesced events are emitted
+     */
+    BroadcastEventEmitter(Context context, Looper coalescingLooper) {
         mContext = context;
+        mCoalescer = new EventCoalescer(coalescingLooper, this);
     }
 
     public static String getAction(BroadcastAction action) {
         return NAMESPACE + "." + action;
     }
 
+    /**
+     * Gets the broadcast action from the action of a received intent.
+     * @param action intent action
+     * @return the broadcast action or null if the intent has not been emitted by the sip service
+     */
+    public static BroadcastAction getBroadcastAction(String action) {
+        String namespace = NAMESPACE;
+        int prefixLength = namespace.length() + 1;
+        if (action == null || action.length() <= prefixLength
+                || !action.startsWith(namespace) || action.charAt(namespace.length()) != '.') {
+            return null;
+        }
+
+        try {
+            return BroadcastAction.valueOf(action.substring(prefixLength));
+        } catch (IllegalArgumentException exc) {
+            return null;
+        }
+    }
+
     /**
      * Emit an incoming call broadcast intent.
      * @param accountID call's account IdUri
@@ -56,17 +122,28 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param isVideo whether the call has video or not
      */
     public void incomingCall(String accountID, int callID, String displayName, String remoteUri, boolean isVideo) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.INCOMING_CALL));
-        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
-        intent.putExtra(PARAM_CALL_ID, callID);
-        intent.putExtra(PARAM_DISPLAY_NAME, displayName);
-        intent.putExtra(PARAM_REMOTE_URI, remoteUri);
-        intent.putExtra(PARAM_IS_VIDEO, isVideo);
-        intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
-
-        sendExplicitBroadcast(intent);
+        synchronized (this) {
+            mCoalescer.flushCall(callID);
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.IncomingCall(accountID, callID, displayName, remoteUri, isVideo).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.INCOMING_CALL));
+                intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+                intent.putExtra(PARAM_CALL_ID, callID);
+                intent.putExtra(PARAM_DISPLAY_NAME, displayName);
+                intent.putExtra(PARAM_REMOTE_URI, remoteUri);
+                intent.putExtra(PARAM_IS_VIDEO, isVideo);
+                intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     /**
@@ -75,13 +152,23 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param registrationStateCode SIP registration status code
      */
     public void registrationState(String accountID, int registrationStateCode) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.REGISTRATION));
-        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
-        intent.putExtra(PARAM_REGISTRATION_CODE, registrationStateCode);
-
-        mContext.sendBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.Registration(accountID, registrationStateCode).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.REGISTRATION));
+                intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+                intent.putExtra(PARAM_REGISTRATION_CODE, registrationStateCode);
+
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     /**
@@ -92,17 +179,36 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param callStateStatus SIP call state status
      * @param connectTimestamp call start timestamp
      */
-    public synchronized void callState(String accountID, int callID, int callStateCode, int callStateStatus, long connectTimestamp) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.CALL_STATE));
-        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
-        intent.putExtra(PARAM_CALL_ID, callID);
-        intent.putExtra(PARAM_CALL_STATE, callStateCode);
-        intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
-        intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
-
-        mContext.sendBroadcast(intent);
+    public void callState(String accountID, int callID, int callStateCode, int callStateStatus, long connectTimestamp) {
+        synchronized (this) {
+            // call states are never coalesced nor delayed, but whatever is pending
+            // for the call is emitted before them
+            if (callStateCode == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
+                mCoalescer.releaseCall(callID);
+                mCoalescer.releaseCall(-1);
+            } else {
+                mCoalescer.flushCall(callID);
+            }
+
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CallState(accountID, callID, callStateCode, callStateStatus, connectTimestamp).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.CALL_STATE));
+                intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+                intent.putExtra(PARAM_CALL_ID, callID);
+                intent.putExtra(PARAM_CALL_STATE, callStateCode);
+                intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
+                intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
+
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     /**
@@ -112,121 +218,391 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param state MediaState state updated
      * @param value call media state update value
      */
-    public synchronized void callMediaState(String accountID, int callID, MediaState state, boolean value) {
+    public void callMediaState(String accountID, int callID, MediaState state, boolean value) {
+        synchronized (this) {
+            mCoalescer.emit(EventCoalescer.key(BroadcastAction.CALL_MEDIA_STATE, callID, state.ordinal()),
+                    () -> emitCallMediaState(accountID, callID, state, value));
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+
+    private synchronized void emitCallMediaState(String accountID, int callID, MediaState state, boolean value) {
+        final long sequence = SEQUENCE.incrementAndGet();
+        final long timestamp = SystemClock.elapsedRealtimeNanos();
+        if (SipEventDispatcher.hasListeners()) {
+            SipEventDispatcher.post(new SipEvent.CallMediaState(accountID, callID, state, value).stamp(sequence, timestamp));
+        }
+        if (!SipEventDispatcher.isBroadcastsEnabled()) return;
+
         final Intent intent = new Intent()
             .setAction(getAction(BroadcastAction.CALL_MEDIA_STATE))
             .putExtra(PARAM_ACCOUNT_ID, accountID)
             .putExtra(PARAM_CALL_ID, callID)
             .putExtra(PARAM_MEDIA_STATE_KEY, state)
             .putExtra(PARAM_MEDIA_STATE_VALUE, value);
-        mContext.sendBroadcast(intent);
+        mContext.sendBroadcast(stamp(intent, sequence, timestamp));
     }
 
     public void outgoingCall(String accountID, int callID, String number, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
-        final Intent intent = new Intent()
-            .setAction(getAction(BroadcastAction.OUTGOING_CALL))
-            .putExtra(PARAM_ACCOUNT_ID, accountID)
-            .putExtra(PARAM_CALL_ID, callID)
-            .putExtra(PARAM_NUMBER, number)
-            .putExtra(PARAM_IS_VIDEO, isVideo)
-            .putExtra(PARAM_IS_VIDEO_CONF, isVideoConference)
-            .putExtra(PARAM_IS_TRANSFER, isTransfer);
-        sendExplicitBroadcast(intent);
+        synchronized (this) {
+            if (callID >= 0) mCoalescer.flushCall(callID);
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.OutgoingCall(accountID, callID, number, isVideo, isVideoConference, isTransfer).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent()
+                    .setAction(getAction(BroadcastAction.OUTGOING_CALL))
+                    .putExtra(PARAM_ACCOUNT_ID, accountID)
+                    .putExtra(PARAM_CALL_ID, callID)
+                    .putExtra(PARAM_NUMBER, number)
+                    .putExtra(PARAM_IS_VIDEO, isVideo)
+                    .putExtra(PARAM_IS_VIDEO_CONF, isVideoConference)
+                    .putExtra(PARAM_IS_TRANSFER, isTransfer);
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     public void stackStatus(boolean started) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.STACK_STATUS));
-        intent.putExtra(PARAM_STACK_STARTED, started);
-
-        mContext.sendBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.StackStatus(started).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.STACK_STATUS));
+                intent.putExtra(PARAM_STACK_STARTED, started);
+
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     public void codecPriorities(ArrayList<CodecPriority> codecPriorities) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES));
-        intent.putParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST, codecPriorities);
-
-        mContext.sendBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CodecPriorities(codecPriorities).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES));
+                intent.putParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST, codecPriorities);
+
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     public void codecPrioritiesSetStatus(boolean success) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES_SET_STATUS));
-        intent.putExtra(PARAM_SUCCESS, success);
-
-        mContext.sendBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CodecPrioritiesSetStatus(success).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES_SET_STATUS));
+                intent.putExtra(PARAM_SUCCESS, success);
+
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     void missedCall(String displayName, String uri) {
-        final Intent intent = new Intent();
-
-        intent.setAction(getAction(BroadcastAction.MISSED_CALL));
-        intent.putExtra(PARAM_DISPLAY_NAME, displayName);
-        intent.putExtra(PARAM_REMOTE_URI, uri);
-
-        sendExplicitBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.MissedCall(displayName, uri).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+
+                intent.setAction(getAction(BroadcastAction.MISSED_CALL));
+                intent.putExtra(PARAM_DISPLAY_NAME, displayName);
+                intent.putExtra(PARAM_REMOTE_URI, uri);
+
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     void videoSize(int width, int height) {
+        synchronized (this) {
+            mCoalescer.emit(EventCoalescer.key(BroadcastAction.VIDEO_SIZE, -1, 0),
+                    () -> emitVideoSize(width, height));
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+
+    private synchronized void emitVideoSize(int width, int height) {
+        final long sequence = SEQUENCE.incrementAndGet();
+        final long timestamp = SystemClock.elapsedRealtimeNanos();
+        if (SipEventDispatcher.hasListeners()) {
+            SipEventDispatcher.post(new SipEvent.VideoSize(width, height).stamp(sequence, timestamp));
+        }
+        if (!SipEventDispatcher.isBroadcastsEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.VIDEO_SIZE));
         intent.putExtra(PARAM_INCOMING_VIDEO_WIDTH, width);
         intent.putExtra(PARAM_INCOMING_VIDEO_HEIGHT, height);
 
-        mContext.sendBroadcast(intent);
+        mContext.sendBroadcast(stamp(intent, sequence, timestamp));
     }
 
-    void callStats(int callID, int duration, String audioCodec, int callStateStatus, RtpStreamStats rx, RtpStreamStats tx) {
-        final Intent intent = new Intent()
-            .setAction(getAction(BroadcastAction.CALL_STATS))
-            .putExtra(PARAM_CALL_ID, callID)
-            .putExtra(PARAM_CALL_STATS_DURATION, duration)
-            .putExtra(PARAM_CALL_STATS_AUDIO_CODEC, audioCodec)
-            .putExtra(PARAM_CALL_STATS_CALL_STATUS, callStateStatus)
-            .putExtra(PARAM_CALL_STATS_RX_STREAM, rx)
-            .putExtra(PARAM_CALL_STATS_TX_STREAM, tx);
-        mContext.sendBroadcast(intent);
+    void callStats(int callID, int duration, String audioCodec, int callStateStatus, RtpStreamStats rx, RtpStreamStats tx,
+                                String videoCodec, VideoStreamStats rxVideo, VideoStreamStats txVideo) {
+        synchronized (this) {
+            mCoalescer.flushCall(callID);
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CallStats(callID, duration, audioCodec, callStateStatus, rx, tx, videoCodec, rxVideo, txVideo).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent()
+                    .setAction(getAction(BroadcastAction.CALL_STATS))
+                    .putExtra(PARAM_CALL_ID, callID)
+                    .putExtra(PARAM_CALL_STATS_DURATION, duration)
+                    .putExtra(PARAM_CALL_STATS_AUDIO_CODEC, audioCodec)
+                    .putExtra(PARAM_CALL_STATS_CALL_STATUS, callStateStatus)
+                    .putExtra(PARAM_CALL_STATS_RX_STREAM, rx)
+                    .putExtra(PARAM_CALL_STATS_TX_STREAM, tx)
+                    .putExtra(PARAM_CALL_STATS_VIDEO_CODEC, videoCodec)
+                    .putExtra(PARAM_CALL_STATS_RX_VIDEO_STREAM, rxVideo)
+                    .putExtra(PARAM_CALL_STATS_TX_VIDEO_STREAM, txVideo);
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+
+    void callQuality(String accountID, int callID, CallQualitySample sample) {
+        synchronized (this) {
+            mCoalescer.flushCall(callID);
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CallQuality(accountID, callID, sample).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent()
+                    .setAction(getAction(BroadcastAction.CALL_QUALITY))
+                    .putExtra(PARAM_ACCOUNT_ID, accountID)
+                    .putExtra(PARAM_CALL_ID, callID)
+                    .putExtra(PARAM_CALL_QUALITY_SAMPLE, sample);
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     void callReconnectionState(CallReconnectionState state) {
-        final Intent intent = new Intent();
-        intent.setAction(getAction(BroadcastAction.CALL_RECONNECTION_STATE));
-        intent.putExtra(PARAM_CALL_RECONNECTION_STATE, state);
-        mContext.sendBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.CallReconnection(state).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+                intent.setAction(getAction(BroadcastAction.CALL_RECONNECTION_STATE));
+                intent.putExtra(PARAM_CALL_RECONNECTION_STATE, state);
+                mContext.sendBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     void silentCallStatus(boolean status, String number) {
-        final Intent intent = new Intent();
-        intent.setAction(getAction(BroadcastAction.SILENT_CALL_STATUS));
-        intent.putExtra(PARAM_SILENT_CALL_STATUS, status);
-        intent.putExtra(PARAM_NUMBER, number);
-        sendExplicitBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.SilentCallStatus(status, number).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+                intent.setAction(getAction(BroadcastAction.SILENT_CALL_STATUS));
+                intent.putExtra(PARAM_SILENT_CALL_STATUS, status);
+                intent.putExtra(PARAM_NUMBER, number);
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
     void notifyTlsVerifyStatusFailed() {
-        final Intent intent = new Intent();
-        intent.setAction(getAction(BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED));
-        sendExplicitBroadcast(intent);
+        synchronized (this) {
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.TlsVerifyStatusFailed().stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+                intent.setAction(getAction(BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED));
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+
+    /**
+     * Emit the result of a batch of commands.
+     * @param batchID ID of the batch
+     * @param size number of commands in the batch
+     * @param results outcome of each executed command, in execution order. It's shorter than
+     *                size if the batch has been stopped on the first failure
+     */
+    void batchResult(String batchID, int size, boolean[] results) {
+        synchronized (this) {
+            boolean success = results.length == size;
+            for (boolean result : results) {
+                success &= result;
+            }
+
+            final long sequence = SEQUENCE.incrementAndGet();
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            if (SipEventDispatcher.hasListeners()) {
+                SipEventDispatcher.post(new SipEvent.BatchResult(batchID, success, size, results).stamp(sequence, timestamp));
+            }
+            if (SipEventDispatcher.isBroadcastsEnabled()) {
+                final Intent intent = new Intent();
+                intent.setAction(getAction(BroadcastAction.BATCH_RESULT));
+                intent.putExtra(PARAM_BATCH_ID, batchID);
+                intent.putExtra(PARAM_BATCH_SIZE, size);
+                intent.putExtra(PARAM_BATCH_RESULTS, results);
+                intent.putExtra(PARAM_SUCCESS, success);
+                sendExplicitBroadcast(stamp(intent, sequence, timestamp));
+            }
+        }
+        SipEventDispatcher.deliverPosted();
     }
 
+    private static Intent stamp(Intent intent, long sequence, long timestamp) {
+        return intent.putExtra(PARAM_EVENT_EPOCH, EPOCH)
+                     .putExtra(PARAM_EVENT_SEQUENCE, sequence)
+                     .putExtra(PARAM_EVENT_TIMESTAMP, timestamp);
+    }
+
+    /**
+     * Sends the intent to every manifest receiver declared for its action or, if there
+     * aren't any, as implicit broadcast.
+     */
     private void sendExplicitBroadcast(Intent intent) {
-        PackageManager pm=mContext.getPackageManager();
-        List<ResolveInfo> matches=pm.queryBroadcastReceivers(intent, 0);
+        List<ComponentName> receivers = getReceivers(intent);
+
+        if (receivers.isEmpty()) {
+            mContext.sendBroadcast(intent);
+            return;
+        }
+
+        for (int i = 0, size = receivers.size(); i < size; i++) {
+            Intent explicitIntent = i == size - 1 ? intent : new Intent(intent);
+            explicitIntent.setComponent(receivers.get(i));
+            explicitIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            mContext.sendBroadcast(explicitIntent);
+        }
+    }
+
+    private List<ComponentName> getReceivers(Intent intent) {
+        String action = intent.getAction();
+        List<ComponentName> receivers = mReceiversCache.get(action);
+        if (receivers != null) {
+            mReceiversCacheHits.incrementAndGet();
+            return receivers;
+        }
+
+        registerPackageChangesReceiver();
 
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        PackageManager pm = mContext.getPackageManager();
+        List<ResolveInfo> matches = pm.queryBroadcastReceivers(intent, 0);
+        receivers = new ArrayList<>(matches.size());
         for (ResolveInfo resolveInfo : matches) {
-            ComponentName cn=
-                    new ComponentName(resolveInfo.activityInfo.applicationInfo.packageName,
-                            resolveInfo.activityInfo.name);
+            receivers.add(new ComponentName(resolveInfo.activityInfo.applicationInfo.packageName,
+                                            resolveInfo.activityInfo.name));
+        }
+        mReceiversResolutionNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - startedAt);
+        mReceiversResolutions.incrementAndGet();
 
-            intent.setComponent(cn);
-            intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+        mReceiversCache.put(action, receivers);
+        return receivers;
+    }
+
+    private void registerPackageChangesReceiver() {
+        synchronized (mPackageChangesLock) {
+            if (mPackageChangesReceiver != null) return;
+
+            mPackageChangesReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    Logger.debug(TAG, "Package changed, clearing receivers cache");
+                    mReceiversCache.clear();
+                }
+            };
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            // the application context outlives the service, which may be destroyed before
+            // the last events are emitted and the emitter is released
+            mContext.getApplicationContext().registerReceiver(mPackageChangesReceiver, filter);
         }
+    }
 
-        mContext.sendBroadcast(intent);
+    /**
+     * Releases the resources held by this emitter. It has to be called when the emitter is
+     * not going to be used anymore.
+     */
+    void release() {
+        mCoalescer.flushAll();
+        synchronized (mPackageChangesLock) {
+            if (mPackageChangesReceiver != null) {
+                try {
+                    mContext.getApplicationContext().unregisterReceiver(mPackageChangesReceiver);
+                } catch (IllegalArgumentException exc) {
+                    Logger.error(TAG, "Error while unregistering package changes receiver", exc);
+                }
+                mPackageChangesReceiver = null;
+            }
+        }
+        mReceiversCache.clear();
+        Logger.debug(TAG, "Receivers cache: " + getReceiversCacheStats());
+    }
+
+    /**
+     * @return receivers cache hits and resolutions, and the estimated time saved by the cache
+     */
+    String getReceiversCacheStats() {
+        long resolutions = mReceiversResolutions.get();
+        long hits = mReceiversCacheHits.get();
+        long averageNanos = resolutions == 0 ? 0 : mReceiversResolutionNanos.get() / resolutions;
+        return "Hits: " + hits
+                + " Resolutions: " + resolutions
+                + " AvgResolution: " + averageNanos / 1000 + "us"
+                + " EstimatedSaved: " + hits * averageNanos / 1000000 + "ms";
     }
 }
@@ -6,11 +6,19 @@ import android.content.Intent;
 import android.content.IntentFilter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import static net.gotev.sipservice.ObfuscationHelper.getValue;
 
 /**
  * Reference implementation to receive events emitted by the sip service.
+ * <p>
+ * Call and media state events older than the last one received for the same call are
+ * discarded, since broadcasts are not guaranteed to be delivered in emission order. This
+ * works only for receivers registered with {@link #register(Context)}: a receiver declared
+ * in the manifest is instantiated for each broadcast, so it has no memory of the previous
+ * events and should compare {@link #getEventEpoch()} and {@link #getEventSequence()} with
+ * the ones it has persisted, if it needs to.
  * @author gotev (Aleksandar Gotev)
  */
 public class BroadcastEventReceiver extends BroadcastReceiver implements SipServiceConstants{
@@ -18,6 +26,19 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
     private static final String LOG_TAG = "SipServiceBR";
 
     private Context receiverContext;
+    private long eventEpoch = -1;
+    private long eventSequence = -1;
+    private long eventTimestamp = -1;
+
+    /**
+     * Epoch of the sequence numbers in lastCallEventSequences.
+     */
+    private long lastEpoch = -1;
+
+    /**
+     * Sequence of the last call and media state received for each call.
+     */
+    private final HashMap<Long, Long> lastCallEventSequences = new HashMap<>();
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -27,79 +48,133 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
         //getReceiverContext method
         receiverContext = context;
 
-        String action = intent.getAction();
+        BroadcastEventEmitter.BroadcastAction action =
+                BroadcastEventEmitter.getBroadcastAction(intent.getAction());
+        if (action == null) return;
 
-        if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.REGISTRATION).equals(action)) {
-            int stateCode = intent.getIntExtra(PARAM_REGISTRATION_CODE, -1);
-            onRegistration(intent.getStringExtra(PARAM_ACCOUNT_ID), stateCode);
+        eventEpoch = intent.getLongExtra(PARAM_EVENT_EPOCH, -1);
+        eventSequence = intent.getLongExtra(PARAM_EVENT_SEQUENCE, -1);
+        eventTimestamp = intent.getLongExtra(PARAM_EVENT_TIMESTAMP, -1);
+        if (isStale(action, intent)) {
+            Logger.debug(LOG_TAG, "Discarding stale " + action + " event with sequence " + eventSequence);
+            return;
+        }
 
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.INCOMING_CALL).equals(action)) {
-            onIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
-                    intent.getIntExtra(PARAM_CALL_ID, -1),
-                    intent.getStringExtra(PARAM_DISPLAY_NAME),
-                    intent.getStringExtra(PARAM_REMOTE_URI),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_STATE).equals(action)) {
-            int callState = intent.getIntExtra(PARAM_CALL_STATE, -1);
-            int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
-            onCallState(intent.getStringExtra(PARAM_ACCOUNT_ID),
+        switch (action) {
+            case REGISTRATION:
+                int stateCode = intent.getIntExtra(PARAM_REGISTRATION_CODE, -1);
+                onRegistration(intent.getStringExtra(PARAM_ACCOUNT_ID), stateCode);
+                break;
+
+            case INCOMING_CALL:
+                onIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
                         intent.getIntExtra(PARAM_CALL_ID, -1),
-                        callState, callStatus,
-                        intent.getLongExtra(PARAM_CONNECT_TIMESTAMP, -1));
+                        intent.getStringExtra(PARAM_DISPLAY_NAME),
+                        intent.getStringExtra(PARAM_REMOTE_URI),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO, false));
+                break;
+
+            case CALL_STATE:
+                int callState = intent.getIntExtra(PARAM_CALL_STATE, -1);
+                int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
+                onCallState(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                            intent.getIntExtra(PARAM_CALL_ID, -1),
+                            callState, callStatus,
+                            intent.getLongExtra(PARAM_CONNECT_TIMESTAMP, -1));
+                break;
+
+            case CALL_MEDIA_STATE:
+                onCallMediaState(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        (MediaState) intent.getSerializableExtra(PARAM_MEDIA_STATE_KEY),
+                        intent.getBooleanExtra(PARAM_MEDIA_STATE_VALUE, false));
+                break;
 
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_MEDIA_STATE).equals(action)) {
-            onCallMediaState(intent.getStringExtra(PARAM_ACCOUNT_ID),
+            case OUTGOING_CALL:
+                onOutgoingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getStringExtra(PARAM_NUMBER),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO, false),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false),
+                        intent.getBooleanExtra(PARAM_IS_TRANSFER, false));
+                break;
+
+            case STACK_STATUS:
+                onStackStatus(intent.getBooleanExtra(PARAM_STACK_STARTED, false));
+                break;
+
+            case CODEC_PRIORITIES:
+                ArrayList<CodecPriority> codecList = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST);
+                onReceivedCodecPriorities(codecList);
+                break;
+
+            case CODEC_PRIORITIES_SET_STATUS:
+                onCodecPrioritiesSetStatus(intent.getBooleanExtra(PARAM_SUCCESS, false));
+                break;
+
+            case MISSED_CALL:
+                onMissedCall(intent.getStringExtra(PARAM_DISPLAY_NAME),
+                        intent.getStringExtra(PARAM_REMOTE_URI));
+                break;
+
+            case VIDEO_SIZE:
+                onVideoSize(intent.getIntExtra(PARAM_INCOMING_VIDEO_WIDTH, H264_DEF_WIDTH),
+                        intent.getIntExtra(PARAM_INCOMING_VIDEO_HEIGHT, H264_DEF_HEIGHT));
+                break;
+
+            case CALL_STATS:
+                onCallStats(
                     intent.getIntExtra(PARAM_CALL_ID, -1),
-                    (MediaState) intent.getSerializableExtra(PARAM_MEDIA_STATE_KEY),
-                    intent.getBooleanExtra(PARAM_MEDIA_STATE_VALUE, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.OUTGOING_CALL).equals(action)) {
-            onOutgoingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                    intent.getIntExtra(PARAM_CALL_STATS_DURATION, 0),
+                    intent.getStringExtra(PARAM_CALL_STATS_AUDIO_CODEC),
+                    intent.getIntExtra(PARAM_CALL_STATUS, -1),
+                    intent.getParcelableExtra(PARAM_CALL_STATS_RX_STREAM),
+                    intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM));
+                VideoStreamStats rxVideo = intent.getParcelableExtra(PARAM_CALL_STATS_RX_VIDEO_STREAM);
+                VideoStreamStats txVideo = intent.getParcelableExtra(PARAM_CALL_STATS_TX_VIDEO_STREAM);
+                if (rxVideo != null && txVideo != null) {
+                    onCallVideoStats(
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getStringExtra(PARAM_CALL_STATS_VIDEO_CODEC),
+                        rxVideo,
+                        txVideo);
+                }
+                break;
+
+            case CALL_QUALITY:
+                onCallQuality(
+                    intent.getStringExtra(PARAM_ACCOUNT_ID),
                     intent.getIntExtra(PARAM_CALL_ID, -1),
-                    intent.getStringExtra(PARAM_NUMBER),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO, false),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false),
-                    intent.getBooleanExtra(PARAM_IS_TRANSFER, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.STACK_STATUS).equals(action)) {
-            onStackStatus(intent.getBooleanExtra(PARAM_STACK_STARTED, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES).equals(action)) {
-            ArrayList<CodecPriority> codecList = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST);
-            onReceivedCodecPriorities(codecList);
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES_SET_STATUS).equals(action)) {
-            onCodecPrioritiesSetStatus(intent.getBooleanExtra(PARAM_SUCCESS, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.MISSED_CALL).equals(action)) {
-            onMissedCall(intent.getStringExtra(PARAM_DISPLAY_NAME),
-                    intent.getStringExtra(PARAM_REMOTE_URI));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.VIDEO_SIZE).equals(action)) {
-            onVideoSize(intent.getIntExtra(PARAM_INCOMING_VIDEO_WIDTH, H264_DEF_WIDTH),
-                    intent.getIntExtra(PARAM_INCOMING_VIDEO_HEIGHT, H264_DEF_HEIGHT));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_STATS).equals(action)) {
-            int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
-            onCallStats(
-                intent.getIntExtra(PARAM_CALL_ID, -1),
-                intent.getIntExtra(PARAM_CALL_STATS_DURATION, 0),
-                intent.getStringExtra(PARAM_CALL_STATS_AUDIO_CODEC), callStatus,
-                intent.getParcelableExtra(PARAM_CALL_STATS_RX_STREAM),
-                intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_RECONNECTION_STATE).equals(action)) {
-            onCallReconnectionState((CallReconnectionState) intent.getSerializableExtra(PARAM_CALL_RECONNECTION_STATE));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.SILENT_CALL_STATUS).equals(action)) {
-            onSilentCallStatus(
-                    intent.getBooleanExtra(PARAM_SILENT_CALL_STATUS, false),
-                    intent.getStringExtra(PARAM_NUMBER)
-            );
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED).equals(action)) {
-            onTlsVerifyStatusFailed();
+                    intent.getParcelableExtra(PARAM_CALL_QUALITY_SAMPLE));
+                break;
+
+            case CALL_RECONNECTION_STATE:
+                onCallReconnectionState((CallReconnectionState) intent.getSerializableExtra(PARAM_CALL_RECONNECTION_STATE));
+                break;
+
+            case SILENT_CALL_STATUS:
+                onSilentCallStatus(
+                        intent.getBooleanExtra(PARAM_SILENT_CALL_STATUS, false),
+                        intent.getStringExtra(PARAM_NUMBER)
+                );
+                break;
+
+            case NOTIFY_TLS_VERIFY_STATUS_FAILED:
+                onTlsVerifyStatusFailed();
+                break;
+
+            case BATCH_RESULT:
+                boolean[] results = intent.getBooleanArrayExtra(PARAM_BATCH_RESULTS);
+                onBatchResult(
+                        intent.getStringExtra(PARAM_BATCH_ID),
+                        intent.getBooleanExtra(PARAM_SUCCESS, false),
+                        intent.getIntExtra(PARAM_BATCH_SIZE, 0),
+                        results == null ? new boolean[0] : results
+                );
+                break;
+
+            default:
+                break;
         }
     }
 
@@ -107,6 +182,66 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
         return receiverContext;
     }
 
+    /**
+     * @return epoch of the sequence number of the event being processed, or -1 if not available.
+     * The sequence restarts whenever the sip service process is restarted, which happens with
+     * a higher epoch.
+     */
+    protected long getEventEpoch() {
+        return eventEpoch;
+    }
+
+    /**
+     * @return global sequence number of the event being processed, or -1 if not available.
+     * Events emitted later within the same epoch have a higher sequence number.
+     */
+    protected long getEventSequence() {
+        return eventSequence;
+    }
+
+    /**
+     * @return emission time of the event being processed in nanoseconds, from
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()}, or -1 if not available
+     */
+    protected long getEventTimestamp() {
+        return eventTimestamp;
+    }
+
+    /**
+     * Broadcasts are not guaranteed to be delivered in emission order, so a call or media state
+     * older than the last one received for the same call is stale and must not override it.
+     */
+    private boolean isStale(BroadcastEventEmitter.BroadcastAction action, Intent intent) {
+        if (eventSequence < 0 || eventEpoch < 0) return false;
+
+        int callID = intent.getIntExtra(PARAM_CALL_ID, -1);
+        long key;
+        if (action == BroadcastEventEmitter.BroadcastAction.CALL_STATE) {
+            key = EventCoalescer.key(action, callID, 0);
+        } else if (action == BroadcastEventEmitter.BroadcastAction.CALL_MEDIA_STATE) {
+            MediaState mediaState = (MediaState) intent.getSerializableExtra(PARAM_MEDIA_STATE_KEY);
+            if (mediaState == null) return false;
+            key = EventCoalescer.key(action, callID, mediaState.ordinal());
+        } else {
+            return false;
+        }
+
+        // the calls of a previous process are gone, and so are their sequence numbers
+        if (eventEpoch < lastEpoch) return true;
+        if (eventEpoch > lastEpoch) {
+            lastCallEventSequences.clear();
+            lastEpoch = eventEpoch;
+        }
+
+        // call IDs are reused by PJSIP, but a new call always has higher sequence numbers,
+        // so the entries can be kept, and they're bounded by the maximum number of calls
+        Long lastSequence = lastCallEventSequences.get(key);
+        if (lastSequence != null && lastSequence > eventSequence) return true;
+
+        lastCallEventSequences.put(key, eventSequence);
+        return false;
+    }
+
     /**
      * Register this broadcast receiver.
      * It's recommended to register the receiver in Activity's onResume method.
@@ -145,6 +280,10 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
                 BroadcastEventEmitter.BroadcastAction.SILENT_CALL_STATUS));
         intentFilter.addAction(BroadcastEventEmitter.getAction(
                 BroadcastEventEmitter.BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.BATCH_RESULT));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_QUALITY));
         context.registerReceiver(this, intentFilter);
     }
 
@@ -223,6 +362,29 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
         Logger.debug(LOG_TAG, "Call Stats sent "+duration+" "+audioCodec);
     }
 
+    /**
+     * Invoked right after {@link #onCallStats(int, int, String, int, RtpStreamStats, RtpStreamStats)}
+     * for the calls which had a video stream.
+     * @param callID call ID
+     * @param videoCodec video codec, e.g. h264_90000
+     * @param rx incoming video stream stats
+     * @param tx outgoing video stream stats
+     */
+    protected void onCallVideoStats(int callID, String videoCodec, VideoStreamStats rx, VideoStreamStats tx) {
+        Logger.debug(LOG_TAG, "Call Video Stats sent "+videoCodec);
+    }
+
+    /**
+     * Invoked periodically for each confirmed call, if call quality sampling is enabled with
+     * {@link SipServiceCommand#setCallQualitySamplingInterval(long)}.
+     * @param accountID call's account IdUri
+     * @param callID call ID
+     * @param sample audio quality over the last sampling interval
+     */
+    protected void onCallQuality(String accountID, int callID, CallQualitySample sample) {
+        Logger.debug(LOG_TAG, "Call " + callID + " quality " + sample);
+    }
+
     protected void onCallReconnectionState(CallReconnectionState state) {
         Logger.debug(LOG_TAG, "Call reconnection state " + state.name());
     }
@@ -234,4 +396,18 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
     protected void onTlsVerifyStatusFailed() {
         Logger.debug(LOG_TAG, "TlsVerifyStatusFailed");
     }
+
+    /**
+     * Invoked when a batch of commands sent with {@link SipServiceCommand.Batch} has been executed.
+     * @param batchID ID returned by {@link SipServiceCommand.Batch#send()}
+     * @param success true if all the commands have been executed successfully
+     * @param size number of commands in the batch
+     * @param results outcome of each executed command, in the order in which the commands
+     *                have been added to the batch. If the batch has been stopped on the first
+     *                failure, the commands after it are not executed and not reported
+     */
+    protected void onBatchResult(String batchID, boolean success, int size, boolean[] results) {
+        Logger.debug(LOG_TAG, "Batch " + batchID + " success: " + success
+                + " executed: " + results.length + "/" + size);
+    }
 }
@@ -0,0 +1,137 @@
+package net.gotev.sipservice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Call detail record, stored on the device for every call handled by the {@link SipService}.
+ * Query them with {@link SipServiceBinder#getCallDetailRecords(String, long, long)}.
+ */
+@SuppressWarnings("unused")
+public class CallDetailRecord {
+
+    private final String accountID;
+    private final int callID;
+    private final boolean incoming;
+    private final String remoteUri;
+    private final long startTimestamp;
+    private final long connectTimestamp;
+    private final long endTimestamp;
+    private final int duration;
+    private final int statusCode;
+    private final String audioCodec;
+    private final RtpStreamStats rx;
+    private final RtpStreamStats tx;
+
+    CallDetailRecord(String accountID, int callID, boolean incoming, String remoteUri,
+                     long startTimestamp, long connectTimestamp, long endTimestamp, int duration,
+                     int statusCode, String audioCodec, RtpStreamStats rx, RtpStreamStats tx) {
+        this.accountID = accountID;
+        this.callID = callID;
+        this.incoming = incoming;
+        this.remoteUri = remoteUri;
+        this.startTimestamp = startTimestamp;
+        this.connectTimestamp = connectTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.duration = duration;
+        this.statusCode = statusCode;
+        this.audioCodec = audioCodec;
+        this.rx = rx;
+        this.tx = tx;
+    }
+
+    /**
+     * @return account IdUri
+     */
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public int getCallID() {
+        return callID;
+    }
+
+    /**
+     * @return true for incoming calls, false for outgoing ones
+     */
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    /**
+     * @return remote party uri, e.g. alice@example.com
+     */
+    public String getRemoteUri() {
+        return remoteUri;
+    }
+
+    /**
+     * @return time at which the call has been created, in milliseconds since the epoch
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * @return time at which the call has been answered, in milliseconds since the epoch.
+     * 0 if it has never been answered
+     */
+    public long getConnectTimestamp() {
+        return connectTimestamp;
+    }
+
+    /**
+     * @return time at which the call has been disconnected, in milliseconds since the epoch
+     */
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    /**
+     * @return duration of the connected call, in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return last SIP status code of the call
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return audio codec, e.g. opus_48000. Empty if the call has never been connected
+     */
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    /**
+     * @return received audio stream stats, null if the call has never been connected
+     */
+    public RtpStreamStats getRx() {
+        return rx;
+    }
+
+    /**
+     * @return sent audio stream stats, null if the call has never been connected
+     */
+    public RtpStreamStats getTx() {
+        return tx;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return (incoming ? "Incoming" : "Outgoing") + " call " + callID
+                + " Account: " + accountID
+                + " Remote: " + remoteUri
+                + " Start: " + startTimestamp
+                + " Connect: " + connectTimestamp
+                + " End: " + endTimestamp
+                + " Duration: " + duration + "s"
+                + " Status: " + statusCode
+                + " Codec: " + audioCodec;
+    }
+}
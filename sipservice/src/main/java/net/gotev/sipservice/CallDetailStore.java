@@ -0,0 +1,361 @@
+package net.gotev.sipservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store of the {@link CallDetailRecord}s, kept in memory mapped files.
+ */
+final class CallDetailStore {
+
+    private static final String LOG_TAG = CallDetailStore.class.getSimpleName();
+
+    static final int DEFAULT_RECORDS_PER_FILE = 1024;
+    static final int DEFAULT_MAX_FILES = 4;
+
+    private static final String FILE_PREFIX = "cdr-";
+    private static final String FILE_SUFFIX = ".bin";
+
+    // file header
+    private static final int MAGIC = 0x43445231; // CDR1
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_COUNT = 4;
+    private static final int HEADER_MIN_START = 8;
+    private static final int HEADER_MAX_START = 16;
+    static final int HEADER_SIZE = 32;
+
+    // record
+    private static final int FLAG_COMMITTED = 1;
+    private static final int FLAG_INCOMING = 1 << 1;
+    private static final int FLAG_STATS = 1 << 2;
+
+    private static final int FLAGS = 0;
+    private static final int CALL_ID = 4;
+    private static final int START = 8;
+    private static final int CONNECT = 16;
+    private static final int END = 24;
+    private static final int DURATION = 32;
+    private static final int STATUS = 36;
+    private static final int ACCOUNT_HASH = 40;
+    private static final int RX_STATS = 48;
+    private static final int TX_STATS = 80;
+    private static final int RX_QUALITY = 112;
+    private static final int TX_QUALITY = 120;
+    private static final int ACCOUNT = 128;
+    private static final int ACCOUNT_SIZE = 96;
+    private static final int REMOTE_URI = ACCOUNT + ACCOUNT_SIZE;
+    private static final int REMOTE_URI_SIZE = 128;
+    private static final int CODEC = REMOTE_URI + REMOTE_URI_SIZE;
+    private static final int CODEC_SIZE = 32;
+    static final int RECORD_SIZE = CODEC + CODEC_SIZE;
+
+    private final File mDirectory;
+    private final int mRecordsPerFile;
+    private final int mMaxFiles;
+
+    private long mCurrentIndex = -1;
+    private MappedByteBuffer mCurrent;
+
+    CallDetailStore(File directory) {
+        this(directory, DEFAULT_RECORDS_PER_FILE, DEFAULT_MAX_FILES);
+    }
+
+    CallDetailStore(File directory, int recordsPerFile, int maxFiles) {
+        mDirectory = directory;
+        mRecordsPerFile = recordsPerFile;
+        mMaxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * Appends a record, rotating the files if the current one is full. The record is marked
+     * as committed after all its fields have been written, so a record which has been
+     * interrupted (e.g. the process has been killed) is ignored.
+     * @param record record to append
+     */
+    synchronized void append(CallDetailRecord record) {
+        try {
+            MappedByteBuffer buffer = getWritableFile();
+            int count = buffer.getInt(HEADER_COUNT);
+            int offset = HEADER_SIZE + count * RECORD_SIZE;
+
+            buffer.putInt(offset + FLAGS, 0);
+            buffer.putInt(offset + CALL_ID, record.getCallID());
+            buffer.putLong(offset + START, record.getStartTimestamp());
+            buffer.putLong(offset + CONNECT, record.getConnectTimestamp());
+            buffer.putLong(offset + END, record.getEndTimestamp());
+            buffer.putInt(offset + DURATION, record.getDuration());
+            buffer.putInt(offset + STATUS, record.getStatusCode());
+            buffer.putInt(offset + ACCOUNT_HASH, hash(record.getAccountID()));
+            boolean stats = record.getRx() != null && record.getTx() != null;
+            if (stats) {
+                writeStats(buffer, offset + RX_STATS, offset + RX_QUALITY, record.getRx());
+                writeStats(buffer, offset + TX_STATS, offset + TX_QUALITY, record.getTx());
+            }
+            writeString(buffer, offset + ACCOUNT, ACCOUNT_SIZE, record.getAccountID());
+            writeString(buffer, offset + REMOTE_URI, REMOTE_URI_SIZE, record.getRemoteUri());
+            writeString(buffer, offset + CODEC, CODEC_SIZE, record.getAudioCodec());
+
+            int flags = FLAG_COMMITTED;
+            if (record.isIncoming()) flags |= FLAG_INCOMING;
+            if (stats) flags |= FLAG_STATS;
+            buffer.putInt(offset + FLAGS, flags);
+
+            long start = record.getStartTimestamp();
+            if (count == 0 || start < buffer.getLong(HEADER_MIN_START)) {
+                buffer.putLong(HEADER_MIN_START, start);
+            }
+            if (count == 0 || start > buffer.getLong(HEADER_MAX_START)) {
+                buffer.putLong(HEADER_MAX_START, start);
+            }
+            buffer.putInt(HEADER_COUNT, count + 1);
+
+        } catch (IOException exc) {
+            Logger.error(LOG_TAG, "Unable to store call detail record " + record, exc);
+        }
+    }
+
+    /**
+     * Gets the stored records, from the oldest to the newest. The files whose range of start
+     * timestamps can't match are skipped, and only the matching records are decoded.
+     * @param accountID account IdUri, null for all the accounts
+     * @param fromTimestamp minimum call start timestamp, inclusive, in milliseconds since the epoch
+     * @param toTimestamp maximum call start timestamp, inclusive, in milliseconds since the epoch
+     * @return matching records
+     */
+    synchronized List<CallDetailRecord> query(String accountID, long fromTimestamp, long toTimestamp) {
+        ArrayList<CallDetailRecord> records = new ArrayList<>();
+        int accountHash = hash(accountID);
+        byte[] account = accountID == null ? null : truncate(accountID, ACCOUNT_SIZE);
+
+        for (long index : listFiles()) {
+            ByteBuffer buffer;
+            try {
+                buffer = index == mCurrentIndex ? mCurrent.duplicate() : map(index, false);
+            } catch (IOException exc) {
+                Logger.error(LOG_TAG, "Unable to read call detail records file " + index, exc);
+                continue;
+            }
+            if (buffer == null) continue;
+
+            int count = Math.min(buffer.getInt(HEADER_COUNT), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+            if (count <= 0
+                    || buffer.getLong(HEADER_MAX_START) < fromTimestamp
+                    || buffer.getLong(HEADER_MIN_START) > toTimestamp) {
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                if ((buffer.getInt(offset + FLAGS) & FLAG_COMMITTED) == 0) continue;
+
+                long start = buffer.getLong(offset + START);
+                if (start < fromTimestamp || start > toTimestamp) continue;
+
+                if (account != null) {
+                    if (buffer.getInt(offset + ACCOUNT_HASH) != accountHash) continue;
+                    if (!matches(buffer, offset + ACCOUNT, account)) continue;
+                }
+
+                records.add(readRecord(buffer, offset));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Releases the current file. It's opened again on the next append.
+     */
+    synchronized void close() {
+        if (mCurrent != null) {
+            mCurrent.force();
+        }
+        mCurrent = null;
+        mCurrentIndex = -1;
+    }
+
+    private MappedByteBuffer getWritableFile() throws IOException {
+        if (mCurrent == null) {
+            long[] files = listFiles();
+            mCurrentIndex = files.length == 0 ? 0 : files[files.length - 1];
+            mCurrent = map(mCurrentIndex, true);
+        }
+
+        if (mCurrent.getInt(HEADER_COUNT) >= mRecordsPerFile) {
+            mCurrent.force();
+            mCurrentIndex++;
+            mCurrent = map(mCurrentIndex, true);
+            deleteOldFiles();
+        }
+        return mCurrent;
+    }
+
+    private void deleteOldFiles() {
+        long[] files = listFiles();
+        for (int i = 0; i < files.length - mMaxFiles; i++) {
+            if (!getFile(files[i]).delete()) {
+                Logger.error(LOG_TAG, "Unable to delete call detail records file " + files[i]);
+            }
+        }
+    }
+
+    /**
+     * Maps a file in memory. The mapping stays valid after the file has been closed.
+     * @param index file index
+     * @param writable true to create the file if needed and map it for writing
+     * @return mapped file, or null if the file is not writable and it's not a valid store file
+     * @throws IOException if the file can't be mapped
+     */
+    private MappedByteBuffer map(long index, boolean writable) throws IOException {
+        long size = HEADER_SIZE + (long) mRecordsPerFile * RECORD_SIZE;
+        File file = getFile(index);
+
+        if (writable && !mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+             FileChannel channel = raf.getChannel()) {
+
+            if (writable) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+                if (buffer.getInt(HEADER_MAGIC) != MAGIC) {
+                    // new or corrupted file
+                    buffer.putInt(HEADER_COUNT, 0);
+                    buffer.putLong(HEADER_MIN_START, 0);
+                    buffer.putLong(HEADER_MAX_START, 0);
+                    buffer.putInt(HEADER_MAGIC, MAGIC);
+                }
+                return buffer;
+            }
+
+            if (channel.size() < HEADER_SIZE) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.getInt(HEADER_MAGIC) == MAGIC ? buffer : null;
+        }
+    }
+
+    private File getFile(long index) {
+        return new File(mDirectory, FILE_PREFIX + index + FILE_SUFFIX);
+    }
+
+    /**
+     * @return indexes of the store files, from the oldest to the newest
+     */
+    private long[] listFiles() {
+        String[] names = mDirectory.list();
+        if (names == null) return new long[0];
+
+        long[] indexes = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) continue;
+            try {
+                indexes[count++] = Long.parseLong(
+                        name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+            } catch (NumberFormatException exc) {
+                count--;
+            }
+        }
+        long[] files = Arrays.copyOf(indexes, count);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static CallDetailRecord readRecord(ByteBuffer buffer, int offset) {
+        int flags = buffer.getInt(offset + FLAGS);
+        boolean stats = (flags & FLAG_STATS) != 0;
+        return new CallDetailRecord(
+                readString(buffer, offset + ACCOUNT),
+                buffer.getInt(offset + CALL_ID),
+                (flags & FLAG_INCOMING) != 0,
+                readString(buffer, offset + REMOTE_URI),
+                buffer.getLong(offset + START),
+                buffer.getLong(offset + CONNECT),
+                buffer.getLong(offset + END),
+                buffer.getInt(offset + DURATION),
+                buffer.getInt(offset + STATUS),
+                readString(buffer, offset + CODEC),
+                stats ? readStats(buffer, offset + RX_STATS, offset + RX_QUALITY) : null,
+                stats ? readStats(buffer, offset + TX_STATS, offset + TX_QUALITY) : null
+        );
+    }
+
+    private static void writeStats(ByteBuffer buffer, int offset, int qualityOffset, RtpStreamStats stats) {
+        buffer.putInt(offset, stats.getPackets());
+        buffer.putInt(offset + 4, stats.getDiscard());
+        buffer.putInt(offset + 8, stats.getLoss());
+        buffer.putInt(offset + 12, stats.getReorder());
+        buffer.putInt(offset + 16, stats.getDup());
+        buffer.putInt(offset + 20, stats.getJitter().getMax());
+        buffer.putInt(offset + 24, stats.getJitter().getMean());
+        buffer.putInt(offset + 28, stats.getJitter().getMin());
+        buffer.putFloat(qualityOffset, stats.getRFactor());
+        buffer.putFloat(qualityOffset + 4, stats.getMos());
+    }
+
+    private static RtpStreamStats readStats(ByteBuffer buffer, int offset, int qualityOffset) {
+        return new RtpStreamStats(
+                buffer.getInt(offset),
+                buffer.getInt(offset + 4),
+                buffer.getInt(offset + 8),
+                buffer.getInt(offset + 12),
+                buffer.getInt(offset + 16),
+                new Jitter(buffer.getInt(offset + 20), buffer.getInt(offset + 24), buffer.getInt(offset + 28)),
+                buffer.getFloat(qualityOffset),
+                buffer.getFloat(qualityOffset + 4)
+        );
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes, truncated to the field size
+     * without splitting characters.
+     */
+    private static void writeString(ByteBuffer buffer, int offset, int size, String value) {
+        byte[] bytes = truncate(value, size);
+        buffer.put(offset, (byte) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 1 + i, bytes[i]);
+        }
+    }
+
+    private static byte[] truncate(String value, int size) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, size - 1);
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Compares a stored string with the given bytes, without decoding it.
+     */
+    private static boolean matches(ByteBuffer buffer, int offset, byte[] bytes) {
+        if ((buffer.get(offset) & 0xFF) != bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + 1 + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        int length = buffer.get(offset) & 0xFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int hash(String value) {
+        return value == null ? 0 : value.hashCode();
+    }
+}
@@ -0,0 +1,156 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.CallInfo;
+import org.pjsip.pjsua2.CallMediaInfo;
+import org.pjsip.pjsua2.CallMediaInfoVector;
+
+/**
+ * Immutable Java copy of a PJSUA2 {@link CallInfo}, taken when the call state or the call media
+ * state change. Reading it doesn't cross JNI, so it can be shared by all the readers of the
+ * call until the next state change.
+ */
+@SuppressWarnings("unused")
+public final class CallInfoSnapshot {
+
+    /**
+     * Immutable Java copy of a PJSUA2 {@link CallMediaInfo}.
+     */
+    public static final class Media {
+        private final int type;
+        private final int dir;
+        private final int status;
+        private final int audioConfSlot;
+        private final int videoIncomingWindowId;
+
+        private Media(CallMediaInfo info) {
+            type = info.getType();
+            dir = info.getDir();
+            status = info.getStatus();
+            audioConfSlot = info.getAudioConfSlot();
+            videoIncomingWindowId = info.getVideoIncomingWindowId();
+        }
+
+        /**
+         * @return one of {@link org.pjsip.pjsua2.pjmedia_type}
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return one of {@link org.pjsip.pjsua2.pjmedia_dir}
+         */
+        public int getDir() {
+            return dir;
+        }
+
+        /**
+         * @return one of {@link org.pjsip.pjsua2.pjsua_call_media_status}
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public int getAudioConfSlot() {
+            return audioConfSlot;
+        }
+
+        public int getVideoIncomingWindowId() {
+            return videoIncomingWindowId;
+        }
+    }
+
+    private final int id;
+    private final int role;
+    private final int state;
+    private final int lastStatusCode;
+    private final String lastReason;
+    private final String remoteUri;
+    private final String remoteContact;
+    private final boolean remOfferer;
+    private final long remAudioCount;
+    private final long remVideoCount;
+    private final int connectDuration;
+    private final Media[] media;
+
+    CallInfoSnapshot(CallInfo info) {
+        id = info.getId();
+        role = info.getRole();
+        state = info.getState();
+        lastStatusCode = info.getLastStatusCode();
+        lastReason = info.getLastReason();
+        remoteUri = info.getRemoteUri();
+        remoteContact = info.getRemoteContact();
+        remOfferer = info.getRemOfferer();
+        remAudioCount = info.getRemAudioCount();
+        remVideoCount = info.getRemVideoCount();
+        connectDuration = info.getConnectDuration().getSec();
+
+        CallMediaInfoVector mediaVector = info.getMedia();
+        media = new Media[mediaVector.size()];
+        for (int i = 0; i < media.length; i++) {
+            media[i] = new Media(mediaVector.get(i));
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return one of {@link org.pjsip.pjsua2.pjsip_role_e}
+     */
+    public int getRole() {
+        return role;
+    }
+
+    /**
+     * @return one of {@link org.pjsip.pjsua2.pjsip_inv_state}
+     */
+    public int getState() {
+        return state;
+    }
+
+    public int getLastStatusCode() {
+        return lastStatusCode;
+    }
+
+    public String getLastReason() {
+        return lastReason;
+    }
+
+    public String getRemoteUri() {
+        return remoteUri;
+    }
+
+    public String getRemoteContact() {
+        return remoteContact;
+    }
+
+    public boolean getRemOfferer() {
+        return remOfferer;
+    }
+
+    public long getRemAudioCount() {
+        return remAudioCount;
+    }
+
+    public long getRemVideoCount() {
+        return remVideoCount;
+    }
+
+    /**
+     * @return connect duration in seconds, at the time the snapshot has been taken
+     */
+    public int getConnectDuration() {
+        return connectDuration;
+    }
+
+    public int getMediaCount() {
+        return media.length;
+    }
+
+    public Media getMedia(int index) {
+        return media[index];
+    }
+}
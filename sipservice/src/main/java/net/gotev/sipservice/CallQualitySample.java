@@ -0,0 +1,204 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Audio quality of an active call over the last sampling interval, received from the remote party.
+ * Sampling is enabled with {@link SipServiceCommand#setCallQualitySamplingInterval(long)}.
+ */
+@SuppressWarnings("unused")
+public class CallQualitySample implements Parcelable {
+
+    private final String audioCodec;
+    private final int intervalMillis;
+    private final int rxPackets;
+    private final int rxLost;
+    private final int rxDiscarded;
+    private final float lossPercent;
+    private final float averageLossPercent;
+    private final int jitterUsec;
+    private final int maxJitterUsec;
+    private final int rttUsec;
+    private final int jbufDelayMillis;
+    private final float rFactor;
+    private final float mos;
+
+    CallQualitySample(String audioCodec, int intervalMillis, int rxPackets, int rxLost, int rxDiscarded,
+                      float lossPercent, float averageLossPercent, int jitterUsec, int maxJitterUsec,
+                      int rttUsec, int jbufDelayMillis, float rFactor, float mos) {
+        this.audioCodec = audioCodec;
+        this.intervalMillis = intervalMillis;
+        this.rxPackets = rxPackets;
+        this.rxLost = rxLost;
+        this.rxDiscarded = rxDiscarded;
+        this.lossPercent = lossPercent;
+        this.averageLossPercent = averageLossPercent;
+        this.jitterUsec = jitterUsec;
+        this.maxJitterUsec = maxJitterUsec;
+        this.rttUsec = rttUsec;
+        this.jbufDelayMillis = jbufDelayMillis;
+        this.rFactor = rFactor;
+        this.mos = mos;
+    }
+
+    public static final Parcelable.Creator<CallQualitySample> CREATOR =
+            new Parcelable.Creator<CallQualitySample>() {
+                @Override
+                public CallQualitySample createFromParcel(final Parcel in) {
+                    return new CallQualitySample(in);
+                }
+
+                @Override
+                public CallQualitySample[] newArray(final int size) {
+                    return new CallQualitySample[size];
+                }
+            };
+
+    private CallQualitySample(Parcel in) {
+        this.audioCodec = in.readString();
+        this.intervalMillis = in.readInt();
+        this.rxPackets = in.readInt();
+        this.rxLost = in.readInt();
+        this.rxDiscarded = in.readInt();
+        this.lossPercent = in.readFloat();
+        this.averageLossPercent = in.readFloat();
+        this.jitterUsec = in.readInt();
+        this.maxJitterUsec = in.readInt();
+        this.rttUsec = in.readInt();
+        this.jbufDelayMillis = in.readInt();
+        this.rFactor = in.readFloat();
+        this.mos = in.readFloat();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeString(audioCodec);
+        parcel.writeInt(intervalMillis);
+        parcel.writeInt(rxPackets);
+        parcel.writeInt(rxLost);
+        parcel.writeInt(rxDiscarded);
+        parcel.writeFloat(lossPercent);
+        parcel.writeFloat(averageLossPercent);
+        parcel.writeInt(jitterUsec);
+        parcel.writeInt(maxJitterUsec);
+        parcel.writeInt(rttUsec);
+        parcel.writeInt(jbufDelayMillis);
+        parcel.writeFloat(rFactor);
+        parcel.writeFloat(mos);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * @return audio codec, e.g. opus_48000
+     */
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    /**
+     * @return duration of the sampling interval, in milliseconds
+     */
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return packets received in the interval
+     */
+    public int getRxPackets() {
+        return rxPackets;
+    }
+
+    /**
+     * @return packets lost in the interval
+     */
+    public int getRxLost() {
+        return rxLost;
+    }
+
+    /**
+     * @return packets discarded in the interval
+     */
+    public int getRxDiscarded() {
+        return rxDiscarded;
+    }
+
+    /**
+     * @return percentage of the expected packets lost in the interval
+     */
+    public float getLossPercent() {
+        return lossPercent;
+    }
+
+    /**
+     * @return percentage of the expected packets lost in the latest intervals of the call
+     */
+    public float getAverageLossPercent() {
+        return averageLossPercent;
+    }
+
+    /**
+     * @return last measured jitter, in microseconds
+     */
+    public int getJitterUsec() {
+        return jitterUsec;
+    }
+
+    /**
+     * @return maximum jitter in the latest intervals of the call, in microseconds
+     */
+    public int getMaxJitterUsec() {
+        return maxJitterUsec;
+    }
+
+    /**
+     * @return last measured round trip time, in microseconds. 0 if not available yet
+     */
+    public int getRttUsec() {
+        return rttUsec;
+    }
+
+    /**
+     * @return average jitter buffer delay, in milliseconds
+     */
+    public int getJbufDelayMillis() {
+        return jbufDelayMillis;
+    }
+
+    /**
+     * @return R-factor of the interval estimated with the ITU-T G.107 E-model,
+     * from 0 (worst) to 100 (best)
+     */
+    public float getRFactor() {
+        return rFactor;
+    }
+
+    /**
+     * @return MOS of the interval estimated with the ITU-T G.107 E-model,
+     * from 1 (bad) to 4.5 (best)
+     */
+    public float getMos() {
+        return mos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return audioCodec + " in " + intervalMillis + "ms"
+                + " Pkt: " + rxPackets
+                + " Lost: " + rxLost
+                + " Discard: " + rxDiscarded
+                + " Loss: " + lossPercent + "% (avg " + averageLossPercent + "%)"
+                + " Jitter: " + jitterUsec + "us (max " + maxJitterUsec + "us)"
+                + " RTT: " + rttUsec + "us"
+                + " Jbuf: " + jbufDelayMillis + "ms"
+                + " R: " + rFactor
+                + " MOS: " + mos;
+    }
+}
@@ -0,0 +1,198 @@
+package net.gotev.sipservice;
+
+import android.os.SystemClock;
+
+import org.pjsip.pjsua2.RtcpStat;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+import org.pjsip.pjsua2.pjmedia_type;
+import org.pjsip.pjsua2.pjsua_call_media_status;
+
+import java.util.ArrayList;
+
+/**
+ * Periodically samples the audio quality of the confirmed calls on the service worker thread,
+ * see {@link SipServiceCommand#setCallQualitySamplingInterval(long)}.
+ */
+final class CallQualitySampler {
+
+    private static final String LOG_TAG = CallQualitySampler.class.getSimpleName();
+
+    private static volatile long sIntervalMillis = 0;
+
+    private final SipService mService;
+    private final ConcurrentIntMap<SampledCall> mCalls = new ConcurrentIntMap<>();
+    private final Runnable mSampleJob = this::sample;
+    private boolean mScheduled = false;
+
+    CallQualitySampler(SipService service) {
+        mService = service;
+    }
+
+    static void setIntervalMillis(long intervalMillis) {
+        sIntervalMillis = Math.max(0, intervalMillis);
+    }
+
+    static long getIntervalMillis() {
+        return sIntervalMillis;
+    }
+
+    /**
+     * Starts sampling a call, e.g. when it's confirmed.
+     * @param call call to sample
+     */
+    synchronized void start(SipCall call) {
+        if (!mCalls.containsKey(call.getId())) {
+            mCalls.put(call.getId(), new SampledCall(call));
+        }
+        schedule();
+    }
+
+    /**
+     * Stops sampling a call, e.g. when it's disconnected. A sample which is already in
+     * progress keeps the call acquired, so that it's not deleted until the sample is over.
+     * It's invoked from the PJSUA callbacks, which already hold PJSUA locks, so PJSUA is
+     * never invoked while holding the sampler lock.
+     * @param call call to stop sampling
+     */
+    synchronized void stop(SipCall call) {
+        SampledCall sampledCall = mCalls.remove(call.getId());
+        if (sampledCall != null) sampledCall.removed = true;
+        if (mCalls.isEmpty()) cancel();
+    }
+
+    /**
+     * Stops sampling all the calls, e.g. when the SIP stack is stopped.
+     */
+    synchronized void reset() {
+        for (SampledCall sampledCall : mCalls.values()) {
+            sampledCall.removed = true;
+        }
+        mCalls.clear();
+        cancel();
+    }
+
+    private void schedule() {
+        long interval = sIntervalMillis;
+        if (mScheduled || interval == 0 || mCalls.isEmpty()) return;
+        mService.enqueueDelayedJob(mSampleJob, interval);
+        mScheduled = true;
+    }
+
+    private void cancel() {
+        if (!mScheduled) return;
+        mService.dequeueJob(mSampleJob);
+        mScheduled = false;
+    }
+
+    private void sample() {
+        ArrayList<SampledCall> calls;
+        synchronized (this) {
+            mScheduled = false;
+            calls = mCalls.values();
+            schedule();
+        }
+
+        // PJSUA and the listeners are invoked outside of the lock
+        BroadcastEventEmitter emitter = mService.getBroadcastEmitter();
+        for (SampledCall call : calls) {
+            if (call.sample()) {
+                emitter.callQuality(call.accountID, call.callID, call.lastSample);
+            }
+        }
+    }
+
+    private static final class SampledCall {
+        private final SipCall call;
+        private final String accountID;
+        private final int callID;
+        private final QualityHistory history = new QualityHistory();
+        private final EModel eModel = new EModel();
+        private int streamIndex = -1;
+        private String audioCodec;
+        private long lastSampleMillis;
+        private CallQualitySample lastSample;
+        private volatile boolean removed = false;
+
+        SampledCall(SipCall call) {
+            this.call = call;
+            this.accountID = call.getAccount().getData().getIdUri();
+            this.callID = call.getId();
+            this.lastSampleMillis = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * @return true if a new sample has been taken
+         */
+        boolean sample() {
+            // the call may have been disconnected after the calls have been copied
+            if (removed || !call.acquire()) return false;
+
+            try (NativeScope scope = new NativeScope()) {
+                int index = getActiveAudioStream(call.getInfoSnapshot());
+                if (index < 0) return false;
+
+                if (index != streamIndex) {
+                    StreamInfo info = scope.add(call.getStreamInfo(index), StreamInfo::delete);
+                    audioCodec = info.getCodecName().toLowerCase() + "_" + info.getCodecClockRate();
+                    eModel.setCodec(info.getCodecName());
+                    streamIndex = index;
+                    history.reset();
+                }
+
+                StreamStat stat = scope.add(call.getStreamStat(index), StreamStat::delete);
+                RtcpStat rtcp = stat.getRtcp();
+                RtcpStreamStat rx = rtcp.getRxStat();
+                history.add(rx.getPkt(), rx.getLoss(), rx.getDiscard(),
+                        rx.getJitterUsec().getLast(), rtcp.getRttUsec().getLast());
+
+                int packets = history.getRxPackets(0);
+                int lost = history.getRxLost(0);
+                int discarded = history.getRxDiscarded(0);
+                int jbufDelay = (int) stat.getJbuf().getAvgDelayMsec();
+                // late packets discarded by the jitter buffer are lost for the listener
+                eModel.update(QualityHistory.lossPercent(packets - discarded, lost + discarded),
+                        history.getJitterUsec(0), history.getRttUsec(0), jbufDelay);
+
+                long now = SystemClock.elapsedRealtime();
+                lastSample = new CallQualitySample(
+                        audioCodec,
+                        (int) (now - lastSampleMillis),
+                        packets,
+                        lost,
+                        discarded,
+                        QualityHistory.lossPercent(packets, lost),
+                        history.getLossPercent(QualityHistory.CAPACITY),
+                        history.getJitterUsec(0),
+                        history.getMaxJitterUsec(QualityHistory.CAPACITY),
+                        history.getRttUsec(0),
+                        jbufDelay,
+                        eModel.getRFactor(),
+                        eModel.getMos()
+                );
+                lastSampleMillis = now;
+                return true;
+
+            } catch (Exception exc) {
+                // the stream may be being recreated, e.g. on hold or re-INVITE
+                Logger.debug(LOG_TAG, "Unable to sample call " + callID + ": " + exc.getMessage());
+                return false;
+
+            } finally {
+                call.release();
+            }
+        }
+
+        private static int getActiveAudioStream(CallInfoSnapshot info) {
+            for (int i = 0; i < info.getMediaCount(); i++) {
+                CallInfoSnapshot.Media media = info.getMedia(i);
+                if (media.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
+                        && media.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
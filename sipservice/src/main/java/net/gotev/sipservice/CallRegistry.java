@@ -0,0 +1,73 @@
+package net.gotev.sipservice;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide accounting of the live calls of all the accounts, used for admission control.
+ * Every call tracked by a {@link SipAccount} is counted, from its creation until its removal,
+ * so the busy decision doesn't depend on the number of loaded accounts.
+ */
+final class CallRegistry {
+
+    static final int DEFAULT_MAX_CALLS = 1;
+
+    private static final AtomicInteger sLiveCalls = new AtomicInteger();
+    private static volatile int sMaxCalls = DEFAULT_MAX_CALLS;
+
+    private CallRegistry() { }
+
+    /**
+     * Sets the maximum number of concurrent calls. A transfer is allowed to exceed it by one,
+     * since the call being transferred is going to be closed.
+     * @param maxCalls maximum number of concurrent calls (at least 1)
+     */
+    static void setMaxCalls(int maxCalls) {
+        if (maxCalls < 1) {
+            throw new IllegalArgumentException("maxCalls MUST be at least 1");
+        }
+        sMaxCalls = maxCalls;
+    }
+
+    static int getMaxCalls() {
+        return sMaxCalls;
+    }
+
+    static int getLiveCalls() {
+        return sLiveCalls.get();
+    }
+
+    /**
+     * Counts a new outgoing call, if the limit allows it.
+     * @param isTransfer true if the call is going to replace an existing one
+     * @return true if the call is allowed and has been counted, false otherwise
+     */
+    static boolean tryAcquire(boolean isTransfer) {
+        int limit = sMaxCalls + (isTransfer ? 1 : 0);
+        while (true) {
+            int liveCalls = sLiveCalls.get();
+            if (liveCalls >= limit) return false;
+            if (sLiveCalls.compareAndSet(liveCalls, liveCalls + 1)) return true;
+        }
+    }
+
+    /**
+     * Counts a call which already exists (e.g. an incoming call), regardless of the limit.
+     * @return true if the call is within the limit, false if it has to be rejected
+     */
+    static boolean acquire() {
+        return sLiveCalls.incrementAndGet() <= sMaxCalls;
+    }
+
+    static void release() {
+        if (sLiveCalls.decrementAndGet() < 0) {
+            sLiveCalls.set(0);
+        }
+    }
+
+    /**
+     * Forgets all the calls, e.g. when the stack has been destroyed.
+     */
+    static void reset() {
+        sLiveCalls.set(0);
+    }
+}
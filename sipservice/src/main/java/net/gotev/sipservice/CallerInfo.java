@@ -2,43 +2,154 @@ package net.gotev.sipservice;
 
 import org.pjsip.pjsua2.CallInfo;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Obtains display name and remote uri from a CallInfo object.
+ * Obtains display name and remote uri from a CallInfo object or snapshot.
+ * <p>
+ * The remote info is parsed by hand, without regular expressions. It supports quoted
+ * (with escapes) and unquoted display names, name-addr and addr-spec forms, sip:, sips: and
+ * tel: URIs. URI parameters and headers are not part of the remote uri. Results are cached
+ * per remote info string, so repeated calls from the same party are not parsed again.
  * @author gotev (Aleksandar Gotev)
  */
 public class CallerInfo {
 
     private static final String UNKNOWN = "Unknown";
+    private static final CallerInfo UNKNOWN_CALLER = new CallerInfo(UNKNOWN, UNKNOWN);
+
+    private static final int CACHE_SIZE = 64;
+    private static final Map<String, CallerInfo> sCache =
+            new LinkedHashMap<String, CallerInfo>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CallerInfo> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
 
     private final String displayName;
     private final String remoteUri;
 
     public CallerInfo(final CallInfo callInfo) {
-        String temp = callInfo.getRemoteUri();
+        this(parse(callInfo.getRemoteUri()));
+    }
+
+    public CallerInfo(final CallInfoSnapshot callInfo) {
+        this(parse(callInfo.getRemoteUri()));
+    }
 
-        if (temp == null || temp.isEmpty()) {
-            displayName = remoteUri = UNKNOWN;
-            return;
+    private CallerInfo(final CallerInfo parsed) {
+        this(parsed.displayName, parsed.remoteUri);
+    }
+
+    private CallerInfo(final String displayName, final String remoteUri) {
+        this.displayName = displayName;
+        this.remoteUri = remoteUri;
+    }
+
+    /**
+     * Parses the remote info of a call, e.g. <code>"Alice" &lt;sip:alice@example.com;transport=tls&gt;</code>
+     * @param remoteInfo remote info, as reported by {@link CallInfo#getRemoteUri()}
+     * @return caller info, with display name and remote uri set to "Unknown" if the remote info
+     * can't be parsed. If there's no display name, the remote uri is used as display name
+     */
+    public static CallerInfo parse(final String remoteInfo) {
+        if (remoteInfo == null || remoteInfo.isEmpty()) return UNKNOWN_CALLER;
+
+        CallerInfo callerInfo;
+        synchronized (sCache) {
+            callerInfo = sCache.get(remoteInfo);
+        }
+        if (callerInfo != null) return callerInfo;
+
+        callerInfo = doParse(remoteInfo);
+        synchronized (sCache) {
+            sCache.put(remoteInfo, callerInfo);
         }
+        return callerInfo;
+    }
+
+    private static CallerInfo doParse(final String value) {
+        final int length = value.length();
+        int pos = skipWhitespace(value, 0, length);
+        String name = null;
+        int uriStart;
+        int uriEnd;
 
-        Pattern displayNameAndRemoteUriPattern = Pattern.compile("^\"([^\"]+).*?sip:(.*?)>$");
-        Matcher completeInfo = displayNameAndRemoteUriPattern.matcher(temp);
-        if (completeInfo.matches()) {
-            displayName = completeInfo.group(1);
-            remoteUri = completeInfo.group(2);
+        if (pos < length && value.charAt(pos) == '"') {
+            // quoted display name, which can contain escaped characters
+            StringBuilder quoted = null;
+            int start = ++pos;
+            while (pos < length && value.charAt(pos) != '"') {
+                if (value.charAt(pos) == '\\' && pos + 1 < length) {
+                    if (quoted == null) quoted = new StringBuilder();
+                    quoted.append(value, start, pos);
+                    start = ++pos;
+                }
+                pos++;
+            }
+            if (pos >= length) return UNKNOWN_CALLER;
+            name = quoted == null
+                    ? value.substring(start, pos)
+                    : quoted.append(value, start, pos).toString();
+
+            uriStart = value.indexOf('<', pos + 1);
+            if (uriStart < 0) return UNKNOWN_CALLER;
+            uriStart++;
+            uriEnd = value.indexOf('>', uriStart);
+            if (uriEnd < 0) return UNKNOWN_CALLER;
 
         } else {
-            Pattern remoteUriPattern = Pattern.compile("^.*?sip:(.*?)>$");
-            Matcher remoteUriInfo = remoteUriPattern.matcher(temp);
-            if (remoteUriInfo.matches()) {
-                displayName = remoteUri = remoteUriInfo.group(1);
+            int angle = value.indexOf('<', pos);
+            if (angle >= 0) {
+                // name-addr, with an optional unquoted display name
+                int nameEnd = angle;
+                while (nameEnd > pos && isWhitespace(value.charAt(nameEnd - 1))) nameEnd--;
+                if (nameEnd > pos) name = value.substring(pos, nameEnd);
+
+                uriStart = angle + 1;
+                uriEnd = value.indexOf('>', uriStart);
+                if (uriEnd < 0) return UNKNOWN_CALLER;
             } else {
-                displayName = remoteUri = UNKNOWN;
+                // addr-spec, whose parameters are header parameters
+                uriStart = pos;
+                uriEnd = length;
             }
         }
+
+        int userStart = skipScheme(value, skipWhitespace(value, uriStart, uriEnd));
+        if (userStart < 0) return UNKNOWN_CALLER;
+
+        int userEnd = userStart;
+        while (userEnd < uriEnd) {
+            char c = value.charAt(userEnd);
+            if (c == ';' || c == '?' || c == '>' || isWhitespace(c)) break;
+            userEnd++;
+        }
+        if (userEnd == userStart) return UNKNOWN_CALLER;
+
+        String uri = value.substring(userStart, userEnd);
+        return new CallerInfo(name == null || name.isEmpty() ? uri : name, uri);
+    }
+
+    /**
+     * @return position after the scheme, or -1 if the scheme is not sip, sips or tel
+     */
+    private static int skipScheme(final String value, final int pos) {
+        if (value.regionMatches(true, pos, "sip:", 0, 4)) return pos + 4;
+        if (value.regionMatches(true, pos, "sips:", 0, 5)) return pos + 5;
+        if (value.regionMatches(true, pos, "tel:", 0, 4)) return pos + 4;
+        return -1;
+    }
+
+    private static int skipWhitespace(final String value, int pos, final int end) {
+        while (pos < end && isWhitespace(value.charAt(pos))) pos++;
+        return pos;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t';
     }
 
     public String getDisplayName() {
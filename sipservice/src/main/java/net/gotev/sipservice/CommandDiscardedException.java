@@ -0,0 +1,16 @@
+package net.gotev.sipservice;
+
+/**
+ * Cause of the failure of a {@link SipServiceBinder} command which has not been executed,
+ * because it has been collapsed with another command or because the service has been destroyed.
+ * It's thrown by {@link java.util.concurrent.Future#get()} wrapped in an
+ * {@link java.util.concurrent.ExecutionException}.
+ */
+public class CommandDiscardedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    CommandDiscardedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,90 @@
+package net.gotev.sipservice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of the {@link SipService} command queue metrics.
+ */
+@SuppressWarnings("unused")
+public class CommandQueueStats {
+
+    private final int depth;
+    private final int maxDepth;
+    private final long enqueued;
+    private final long coalesced;
+    private final long executed;
+    private final long averageWaitMillis;
+    private final long maxWaitMillis;
+
+    CommandQueueStats(int depth, int maxDepth, long enqueued, long coalesced, long executed,
+                      long averageWaitMillis, long maxWaitMillis) {
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.enqueued = enqueued;
+        this.coalesced = coalesced;
+        this.executed = executed;
+        this.averageWaitMillis = averageWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return number of commands currently waiting to be executed
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return highest number of commands which have been waiting at the same time
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return total number of commands received
+     */
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return number of commands collapsed into an already pending one
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return number of commands executed
+     */
+    public long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * @return average time in milliseconds a command waited before being executed
+     */
+    public long getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    /**
+     * @return maximum time in milliseconds a command waited before being executed
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Depth: " + depth
+                + " MaxDepth: " + maxDepth
+                + " Enqueued: " + enqueued
+                + " Coalesced: " + coalesced
+                + " Executed: " + executed
+                + " AvgWait: " + averageWaitMillis + "ms"
+                + " MaxWait: " + maxWaitMillis + "ms";
+    }
+}
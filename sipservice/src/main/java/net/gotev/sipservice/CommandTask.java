@@ -0,0 +1,23 @@
+package net.gotev.sipservice;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Command submitted through the {@link SipServiceBinder}, which can be completed with a
+ * failure if it's not going to be executed.
+ */
+class CommandTask<T> extends FutureTask<T> {
+
+    CommandTask(Callable<T> command) {
+        super(command);
+    }
+
+    /**
+     * Completes the command with a {@link CommandDiscardedException}, unless it's already done.
+     * @param reason why the command is not going to be executed
+     */
+    void discard(String reason) {
+        setException(new CommandDiscardedException(reason));
+    }
+}
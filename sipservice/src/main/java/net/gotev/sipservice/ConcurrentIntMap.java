@@ -0,0 +1,134 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Thread safe map with primitive int keys, optimized for few entries which are read much more
+ * often than they are modified, like the calls of an account.
+ * <p>
+ * Keys and values are kept in sorted arrays, which are replaced on each modification
+ * (copy on write). Reads are lock free and never box the keys, and iterating over a
+ * {@link #keys()} or {@link #values()} snapshot is not affected by concurrent modifications.
+ */
+final class ConcurrentIntMap<V> {
+
+    private static final class Snapshot {
+        private final int[] keys;
+        private final Object[] values;
+
+        private Snapshot(int[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(new int[0], new Object[0]);
+
+    private volatile Snapshot mSnapshot = EMPTY;
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        Snapshot snapshot = mSnapshot;
+        int index = Arrays.binarySearch(snapshot.keys, key);
+        return index >= 0 ? (V) snapshot.values[index] : null;
+    }
+
+    boolean containsKey(int key) {
+        return Arrays.binarySearch(mSnapshot.keys, key) >= 0;
+    }
+
+    /**
+     * Associates a value to a key.
+     * @return the value previously associated to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V put(int key, V value) {
+        Snapshot snapshot = mSnapshot;
+        int index = Arrays.binarySearch(snapshot.keys, key);
+
+        if (index >= 0) {
+            Object[] values = snapshot.values.clone();
+            V previous = (V) values[index];
+            values[index] = value;
+            mSnapshot = new Snapshot(snapshot.keys, values);
+            return previous;
+        }
+
+        int insertion = -index - 1;
+        int size = snapshot.keys.length;
+        int[] keys = new int[size + 1];
+        Object[] values = new Object[size + 1];
+
+        System.arraycopy(snapshot.keys, 0, keys, 0, insertion);
+        System.arraycopy(snapshot.values, 0, values, 0, insertion);
+        keys[insertion] = key;
+        values[insertion] = value;
+        System.arraycopy(snapshot.keys, insertion, keys, insertion + 1, size - insertion);
+        System.arraycopy(snapshot.values, insertion, values, insertion + 1, size - insertion);
+
+        mSnapshot = new Snapshot(keys, values);
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     * @return the value which was associated to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V remove(int key) {
+        Snapshot snapshot = mSnapshot;
+        int index = Arrays.binarySearch(snapshot.keys, key);
+        if (index < 0) return null;
+
+        int size = snapshot.keys.length;
+        if (size == 1) {
+            mSnapshot = EMPTY;
+            return (V) snapshot.values[0];
+        }
+
+        int[] keys = new int[size - 1];
+        Object[] values = new Object[size - 1];
+
+        System.arraycopy(snapshot.keys, 0, keys, 0, index);
+        System.arraycopy(snapshot.values, 0, values, 0, index);
+        System.arraycopy(snapshot.keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(snapshot.values, index + 1, values, index, size - index - 1);
+
+        mSnapshot = new Snapshot(keys, values);
+        return (V) snapshot.values[index];
+    }
+
+    synchronized void clear() {
+        mSnapshot = EMPTY;
+    }
+
+    int size() {
+        return mSnapshot.keys.length;
+    }
+
+    boolean isEmpty() {
+        return mSnapshot.keys.length == 0;
+    }
+
+    /**
+     * @return snapshot of the keys, in ascending order
+     */
+    int[] keys() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot.keys.length == 0 ? snapshot.keys : snapshot.keys.clone();
+    }
+
+    /**
+     * @return snapshot of the values, in ascending key order
+     */
+    @SuppressWarnings("unchecked")
+    ArrayList<V> values() {
+        Object[] values = mSnapshot.values;
+        ArrayList<V> list = new ArrayList<>(values.length);
+        for (Object value : values) {
+            list.add((V) value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,134 @@
+package net.gotev.sipservice;
+
+/**
+ * Estimates the transmission rating factor (R) and the Mean Opinion Score (MOS) of an audio
+ * stream, using the simplified E-model of ITU-T G.107 with its default values for all the
+ * parameters which can't be measured on the device.
+ */
+final class EModel {
+
+    /**
+     * Basic signal-to-noise ratio minus the simultaneous impairments (R0 - Is),
+     * with the G.107 default values.
+     */
+    private static final float R0_MINUS_IS = 93.2f;
+
+    /**
+     * Advantage factor, 0 for wirebound and mobile communication systems.
+     */
+    private static final float ADVANTAGE = 0f;
+
+    /**
+     * Packet time assumed for the codec delay.
+     */
+    private static final float PTIME_MILLIS = 20f;
+
+    private float mIe;
+    private float mBpl;
+    private float mCodecDelayMillis;
+
+    private float mRFactor;
+    private float mMos;
+
+    EModel() {
+        setCodec(null);
+    }
+
+    /**
+     * Sets the codec of the stream, looking up its impairment (Ie), packet loss robustness
+     * (Bpl) and delay (ITU-T G.113 Appendix I) once, so that the updates don't allocate.
+     * @param codecName codec name as reported by PJSUA, e.g. PCMU, opus, G729. If null or
+     *                  unknown, a codec with the impairment of G.729 is assumed
+     */
+    void setCodec(String codecName) {
+        String codec = codecName == null ? "" : codecName.toLowerCase();
+        switch (codec) {
+            case "pcmu":
+            case "pcma":
+            case "g722":
+            case "l16":
+                // PLC is always enabled in PJMEDIA
+                setCodecParams(0f, 25.1f, 0f);
+                break;
+            case "opus":
+                setCodecParams(0f, 25.1f, 6.5f);
+                break;
+            case "silk":
+            case "speex":
+            case "amr-wb":
+                setCodecParams(6f, 20f, 5f);
+                break;
+            case "amr":
+                setCodecParams(5f, 10f, 5f);
+                break;
+            case "ilbc":
+                setCodecParams(11f, 32f, 10f);
+                break;
+            case "gsm":
+                setCodecParams(20f, 10f, 0f);
+                break;
+            case "g729":
+            default:
+                setCodecParams(11f, 19f, 5f);
+                break;
+        }
+    }
+
+    private void setCodecParams(float ie, float bpl, float lookaheadMillis) {
+        mIe = ie;
+        mBpl = bpl;
+        mCodecDelayMillis = PTIME_MILLIS + lookaheadMillis;
+    }
+
+    /**
+     * Updates the estimation.
+     * @param lossPercent percentage of the expected packets lost or discarded
+     * @param jitterUsec interarrival jitter, in microseconds
+     * @param rttUsec round trip time, in microseconds. 0 if not known
+     * @param jbufDelayMillis jitter buffer delay, in milliseconds. 0 if not known, in which case
+     *                        it's assumed to be twice the jitter
+     */
+    void update(float lossPercent, int jitterUsec, int rttUsec, int jbufDelayMillis) {
+        float jitterMillis = Math.max(0, jitterUsec) / 1000f;
+        float jbufMillis = jbufDelayMillis > 0 ? jbufDelayMillis : 2 * jitterMillis;
+        float delayMillis = Math.max(0, rttUsec) / 2000f + jbufMillis + mCodecDelayMillis;
+
+        // delay impairment
+        float id = 0.024f * delayMillis;
+        if (delayMillis > 177.3f) {
+            id += 0.11f * (delayMillis - 177.3f);
+        }
+
+        // equipment impairment, with random (BurstR = 1) packet loss
+        float ppl = Math.max(0f, Math.min(100f, lossPercent));
+        float ieEff = mIe + (95f - mIe) * ppl / (ppl + mBpl);
+
+        mRFactor = Math.max(0f, Math.min(100f, R0_MINUS_IS - id - ieEff + ADVANTAGE));
+        mMos = toMos(mRFactor);
+    }
+
+    /**
+     * @return R-factor of the last update, from 0 (worst) to 100 (best)
+     */
+    float getRFactor() {
+        return mRFactor;
+    }
+
+    /**
+     * @return MOS of the last update, from 1 (bad) to 4.5 (best)
+     */
+    float getMos() {
+        return mMos;
+    }
+
+    /**
+     * Converts R-factor to MOS, as defined in ITU-T G.107 Annex B.
+     * @param rFactor R-factor
+     * @return MOS
+     */
+    static float toMos(float rFactor) {
+        if (rFactor <= 0f) return 1f;
+        if (rFactor >= 100f) return 4.5f;
+        return 1f + 0.035f * rFactor + rFactor * (rFactor - 60f) * (100f - rFactor) * 7e-6f;
+    }
+}
@@ -0,0 +1,187 @@
+package net.gotev.sipservice;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Rate limits the emission of high frequency events, preserving their order within each call.
+ */
+class EventCoalescer {
+
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private static volatile long sWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private final Handler mHandler;
+    private final Object mEmissionLock;
+    private final HashMap<Long, Runnable> mPending = new HashMap<>();
+    private final HashMap<Long, Long> mLastEmittedAt = new HashMap<>();
+
+    /**
+     * @param looper looper on which the delayed events are emitted
+     * @param emissionLock lock held while emitting the events, the same one held by the callers
+     *                     of {@link #emit(long, Runnable)} and {@link #flushCall(int)}, so that a
+     *                     delayed event can't be emitted concurrently with a later one of its call
+     */
+    EventCoalescer(Looper looper, Object emissionLock) {
+        mHandler = new Handler(looper);
+        mEmissionLock = emissionLock;
+    }
+
+    /**
+     * Sets the coalescing window for all the emitters.
+     * @param windowMillis window in milliseconds, 0 to disable coalescing
+     */
+    static void setWindowMillis(long windowMillis) {
+        sWindowMillis = Math.max(0, windowMillis);
+    }
+
+    static long getWindowMillis() {
+        return sWindowMillis;
+    }
+
+    /**
+     * Generates the key which identifies a coalescable event.
+     * @param action event type
+     * @param callID call to which the event refers, or -1
+     * @param subType event sub type (e.g. the media state), or 0
+     * @return coalescing key
+     */
+    static long key(BroadcastEventEmitter.BroadcastAction action, int callID, int subType) {
+        return ((long) action.ordinal() << 56) | ((long) (subType & 0xffffff) << 32) | (callID & 0xffffffffL);
+    }
+
+    private static int callID(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Emits an event, or delays it if another event with the same key has been emitted within
+     * the coalescing window. A delayed event is replaced by any following event with the same key.
+     * The pending events of the same call with other keys are emitted first.
+     * It has to be called while holding the emission lock.
+     * @param key event key
+     * @param emission emits the event
+     */
+    void emit(long key, Runnable emission) {
+        long window = sWindowMillis;
+        if (window == 0) {
+            flushCall(callID(key));
+            emission.run();
+            return;
+        }
+
+        synchronized (this) {
+            if (mPending.containsKey(key)) {
+                mPending.put(key, emission);
+                return;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            Long lastEmittedAt = mLastEmittedAt.get(key);
+
+            if (lastEmittedAt != null && now - lastEmittedAt < window) {
+                mPending.put(key, emission);
+                mHandler.postAtTime(() -> flush(key), this, lastEmittedAt + window);
+                return;
+            }
+
+            mLastEmittedAt.put(key, now);
+        }
+
+        // the pending events of the call (with other keys) precede this one
+        flushCall(callID(key));
+        emission.run();
+    }
+
+    private void flush(long key) {
+        synchronized (mEmissionLock) {
+            Runnable emission;
+            synchronized (this) {
+                emission = mPending.remove(key);
+                if (emission == null) return;
+                mLastEmittedAt.put(key, SystemClock.uptimeMillis());
+            }
+            emission.run();
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+
+    /**
+     * Immediately emits the pending events of a call. It has to be called while holding the
+     * emission lock.
+     * @param callID call ID
+     */
+    void flushCall(int callID) {
+        flushCall(callID, false);
+    }
+
+    /**
+     * Immediately emits the pending events of a call, and forgets about it. It has to be
+     * called while holding the emission lock.
+     * @param callID call ID
+     */
+    void releaseCall(int callID) {
+        flushCall(callID, true);
+    }
+
+    private void flushCall(int callID, boolean release) {
+        ArrayList<Runnable> emissions = null;
+
+        synchronized (this) {
+            Iterator<Map.Entry<Long, Runnable>> pending = mPending.entrySet().iterator();
+            long now = SystemClock.uptimeMillis();
+            while (pending.hasNext()) {
+                Map.Entry<Long, Runnable> entry = pending.next();
+                if (callID(entry.getKey()) == callID) {
+                    if (emissions == null) emissions = new ArrayList<>();
+                    emissions.add(entry.getValue());
+                    mLastEmittedAt.put(entry.getKey(), now);
+                    pending.remove();
+                }
+            }
+
+            if (release) {
+                Iterator<Long> emitted = mLastEmittedAt.keySet().iterator();
+                while (emitted.hasNext()) {
+                    if (callID(emitted.next()) == callID) {
+                        emitted.remove();
+                    }
+                }
+            }
+        }
+
+        if (emissions == null) return;
+
+        for (Runnable emission : emissions) {
+            emission.run();
+        }
+    }
+
+    /**
+     * Immediately emits all the pending events.
+     */
+    void flushAll() {
+        synchronized (mEmissionLock) {
+            ArrayList<Runnable> emissions;
+
+            synchronized (this) {
+                mHandler.removeCallbacksAndMessages(this);
+                emissions = new ArrayList<>(mPending.values());
+                mPending.clear();
+                mLastEmittedAt.clear();
+            }
+
+            for (Runnable emission : emissions) {
+                emission.run();
+            }
+        }
+        SipEventDispatcher.deliverPosted();
+    }
+}
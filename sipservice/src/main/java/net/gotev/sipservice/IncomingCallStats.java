@@ -0,0 +1,60 @@
+package net.gotev.sipservice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of the time taken by the {@link SipService} to answer incoming calls with
+ * 180 Ringing, measured from the reception of the INVITE by the account.
+ */
+@SuppressWarnings("unused")
+public class IncomingCallStats {
+
+    private final long ringingCalls;
+    private final long lastMicros;
+    private final long averageMicros;
+    private final long maxMicros;
+
+    IncomingCallStats(long ringingCalls, long lastMicros, long averageMicros, long maxMicros) {
+        this.ringingCalls = ringingCalls;
+        this.lastMicros = lastMicros;
+        this.averageMicros = averageMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return number of incoming calls answered with 180 Ringing
+     */
+    public long getRingingCalls() {
+        return ringingCalls;
+    }
+
+    /**
+     * @return time to 180 Ringing of the last incoming call, in microseconds
+     */
+    public long getLastMicros() {
+        return lastMicros;
+    }
+
+    /**
+     * @return average time to 180 Ringing, in microseconds
+     */
+    public long getAverageMicros() {
+        return averageMicros;
+    }
+
+    /**
+     * @return maximum time to 180 Ringing, in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Ringing: " + ringingCalls
+                + " Last: " + lastMicros + "us"
+                + " Avg: " + averageMicros + "us"
+                + " Max: " + maxMicros + "us";
+    }
+}
@@ -9,5 +9,6 @@ package net.gotev.sipservice;
 public enum MediaState {
     LOCAL_HOLD,
     LOCAL_MUTE,
-    LOCAL_VIDEO_MUTE
+    LOCAL_VIDEO_MUTE,
+    CONFERENCE
 }
@@ -0,0 +1,148 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Deletes the native memory of the PJSUA2 (SWIG) objects added to it when it's closed,
+ * instead of leaving it to the finalizers. Use it with try-with-resources:
+ * <pre>
+ * try (NativeScope scope = new NativeScope()) {
+ *     CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
+ *     ...
+ * }
+ * </pre>
+ * Objects which outlive a single method can be tracked with {@link #track(Object)} and deleted
+ * with {@link #delete(Object, Deleter)}.
+ * <p>
+ * When leak tracking is enabled, the objects which have been tracked and not deleted yet are
+ * counted by type, see {@link #getLiveObjects()}. The objects tracked while leak tracking was
+ * disabled are not counted, nor is their deletion.
+ */
+final class NativeScope implements AutoCloseable {
+
+    /**
+     * Deletes the native memory of a SWIG object, e.g. {@code CallOpParam::delete}.
+     */
+    interface Deleter<T> {
+        void delete(T object);
+    }
+
+    private static final String LOG_TAG = NativeScope.class.getSimpleName();
+
+    /**
+     * Objects tracked while leak tracking is enabled, by identity.
+     */
+    private static final Map<Object, Boolean> sLiveObjects =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+    private static volatile boolean sLeakTracking = false;
+
+    private final ArrayList<Object> mObjects = new ArrayList<>(4);
+    private final ArrayList<Deleter<Object>> mDeleters = new ArrayList<>(4);
+
+    /**
+     * Adds an object to this scope, so it's deleted when the scope is closed.
+     * @param object SWIG object, can be null
+     * @param deleter deletes the object
+     * @return the same object
+     */
+    @SuppressWarnings("unchecked")
+    <T> T add(T object, Deleter<? super T> deleter) {
+        if (object != null) {
+            mObjects.add(track(object));
+            mDeleters.add((Deleter<Object>) deleter);
+        }
+        return object;
+    }
+
+    /**
+     * Deletes all the objects of this scope, in reverse order of addition.
+     */
+    @Override
+    public void close() {
+        for (int i = mObjects.size() - 1; i >= 0; i--) {
+            delete(mObjects.get(i), mDeleters.get(i));
+        }
+        mObjects.clear();
+        mDeleters.clear();
+    }
+
+    /**
+     * Tracks an object which is going to be deleted with {@link #delete(Object, Deleter)}.
+     * @param object SWIG object, can be null
+     * @return the same object
+     */
+    static <T> T track(T object) {
+        if (sLeakTracking && object != null) {
+            sLiveObjects.put(object, Boolean.TRUE);
+        }
+        return object;
+    }
+
+    /**
+     * Immediately deletes the native memory of an object. The object must not be used anymore.
+     * @param object SWIG object, can be null
+     * @param deleter deletes the object
+     */
+    static <T> void delete(T object, Deleter<? super T> deleter) {
+        if (object == null) return;
+
+        if (sLeakTracking) {
+            sLiveObjects.remove(object);
+        }
+
+        try {
+            deleter.delete(object);
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while deleting " + object.getClass().getSimpleName(), exc);
+        }
+    }
+
+    /**
+     * Enables or disables the counting of the live native objects. Meant for debugging,
+     * since it adds a small overhead to every tracked object, and it keeps the tracked
+     * objects reachable until they're deleted.
+     * @param enabled true to enable leak tracking
+     */
+    static void setLeakTracking(boolean enabled) {
+        sLeakTracking = enabled;
+        if (!enabled) sLiveObjects.clear();
+    }
+
+    static boolean isLeakTracking() {
+        return sLeakTracking;
+    }
+
+    /**
+     * @return number of the tracked objects which have not been deleted yet, by type name.
+     * Empty if leak tracking is disabled
+     */
+    static Map<String, Integer> getLiveObjects() {
+        HashMap<String, Integer> liveObjects = new HashMap<>();
+        synchronized (sLiveObjects) {
+            for (Object object : sLiveObjects.keySet()) {
+                String type = object.getClass().getSimpleName();
+                Integer count = liveObjects.get(type);
+                liveObjects.put(type, count == null ? 1 : count + 1);
+            }
+        }
+        return liveObjects;
+    }
+
+    /**
+     * Logs the tracked objects which have not been deleted yet, if leak tracking is enabled.
+     */
+    static void logLiveObjects() {
+        if (!sLeakTracking) return;
+
+        Map<String, Integer> liveObjects = getLiveObjects();
+        if (liveObjects.isEmpty()) {
+            Logger.debug(LOG_TAG, "No live native objects");
+        } else {
+            Logger.warning(LOG_TAG, "Live native objects: " + liveObjects);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package net.gotev.sipservice;
+
+/**
+ * Fixed size ring buffer of the audio quality samples of a call.
+ */
+final class QualityHistory {
+
+    static final int CAPACITY = 32;
+
+    private final int[] mRxPackets = new int[CAPACITY];
+    private final int[] mRxLost = new int[CAPACITY];
+    private final int[] mRxDiscarded = new int[CAPACITY];
+    private final int[] mJitterUsec = new int[CAPACITY];
+    private final int[] mRttUsec = new int[CAPACITY];
+
+    private int mNext = 0;
+    private int mSize = 0;
+
+    private long mLastPackets = 0;
+    private long mLastLost = 0;
+    private long mLastDiscarded = 0;
+
+    /**
+     * Adds a sample, evicting the oldest one if the buffer is full. The sample stores the
+     * difference with the previous counters, or the counters as they are if they went
+     * backwards (e.g. the stream has been recreated).
+     * @param packets cumulative number of received packets
+     * @param lost cumulative number of lost packets
+     * @param discarded cumulative number of discarded packets
+     * @param jitterUsec last measured jitter, in microseconds
+     * @param rttUsec last measured round trip time, in microseconds
+     */
+    void add(long packets, long lost, long discarded, int jitterUsec, int rttUsec) {
+        boolean restarted = packets < mLastPackets || lost < mLastLost || discarded < mLastDiscarded;
+        mRxPackets[mNext] = (int) (restarted ? packets : packets - mLastPackets);
+        mRxLost[mNext] = (int) (restarted ? lost : lost - mLastLost);
+        mRxDiscarded[mNext] = (int) (restarted ? discarded : discarded - mLastDiscarded);
+        mJitterUsec[mNext] = jitterUsec;
+        mRttUsec[mNext] = rttUsec;
+
+        mLastPackets = packets;
+        mLastLost = lost;
+        mLastDiscarded = discarded;
+
+        mNext = (mNext + 1) % CAPACITY;
+        if (mSize < CAPACITY) mSize++;
+    }
+
+    /**
+     * Removes all the samples and the previous counters, e.g. when the audio stream changes.
+     */
+    void reset() {
+        mNext = 0;
+        mSize = 0;
+        mLastPackets = 0;
+        mLastLost = 0;
+        mLastDiscarded = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @param age 0 for the latest sample, 1 for the one before, and so on
+     * @return index of the sample in the arrays
+     */
+    private int index(int age) {
+        if (age < 0 || age >= mSize) {
+            throw new IndexOutOfBoundsException("age: " + age + ", size: " + mSize);
+        }
+        return (mNext - 1 - age + CAPACITY) % CAPACITY;
+    }
+
+    int getRxPackets(int age) {
+        return mRxPackets[index(age)];
+    }
+
+    int getRxLost(int age) {
+        return mRxLost[index(age)];
+    }
+
+    int getRxDiscarded(int age) {
+        return mRxDiscarded[index(age)];
+    }
+
+    int getJitterUsec(int age) {
+        return mJitterUsec[index(age)];
+    }
+
+    int getRttUsec(int age) {
+        return mRttUsec[index(age)];
+    }
+
+    /**
+     * @param samples number of latest samples to consider
+     * @return percentage of the expected packets which have been lost in the latest samples
+     */
+    float getLossPercent(int samples) {
+        long packets = 0;
+        long lost = 0;
+        for (int age = 0; age < Math.min(samples, mSize); age++) {
+            int i = index(age);
+            packets += mRxPackets[i];
+            lost += mRxLost[i];
+        }
+        return lossPercent(packets, lost);
+    }
+
+    /**
+     * @param samples number of latest samples to consider
+     * @return maximum jitter of the latest samples, in microseconds
+     */
+    int getMaxJitterUsec(int samples) {
+        int max = 0;
+        for (int age = 0; age < Math.min(samples, mSize); age++) {
+            max = Math.max(max, mJitterUsec[index(age)]);
+        }
+        return max;
+    }
+
+    static float lossPercent(long packets, long lost) {
+        long expected = packets + lost;
+        return expected <= 0 ? 0f : lost * 100f / expected;
+    }
+}
@@ -0,0 +1,69 @@
+package net.gotev.sipservice;
+
+/**
+ * Regional ringback tones, played locally while an outgoing call is ringing.
+ * Each tone is a sequence of segments, repeated until the call is answered or ends.
+ * Set it with {@link SipServiceCommand#setRingbackCadence(android.content.Context, RingbackCadence)}.
+ */
+public enum RingbackCadence {
+
+    /**
+     * CEPT: 425 Hz, 1s on, 4s off. The default one.
+     */
+    EUROPE(new int[] {425, 0, 1000, 4000}),
+
+    /**
+     * ANSI: 440+480 Hz, 2s on, 4s off.
+     */
+    NORTH_AMERICA(new int[] {440, 480, 2000, 4000}),
+
+    /**
+     * 400+450 Hz, 0.4s on, 0.2s off, 0.4s on, 2s off.
+     */
+    UNITED_KINGDOM(new int[] {400, 450, 400, 200, 400, 450, 400, 2000}),
+
+    /**
+     * 440 Hz, 1.5s on, 3.5s off.
+     */
+    FRANCE(new int[] {440, 0, 1500, 3500}),
+
+    /**
+     * 425+400 Hz, 0.4s on, 0.2s off, 0.4s on, 2s off.
+     */
+    AUSTRALIA(new int[] {425, 400, 400, 200, 425, 400, 400, 2000}),
+
+    /**
+     * 400 Hz, 1s on, 2s off.
+     */
+    JAPAN(new int[] {400, 0, 1000, 2000});
+
+    /**
+     * Segments, each one made of: first frequency, second frequency (0 if none),
+     * on duration and off duration in milliseconds.
+     */
+    private final int[] segments;
+
+    RingbackCadence(int[] segments) {
+        this.segments = segments;
+    }
+
+    int getSegmentsCount() {
+        return segments.length / 4;
+    }
+
+    int getFrequency1(int segment) {
+        return segments[segment * 4];
+    }
+
+    int getFrequency2(int segment) {
+        return segments[segment * 4 + 1];
+    }
+
+    int getOnMillis(int segment) {
+        return segments[segment * 4 + 2];
+    }
+
+    int getOffMillis(int segment) {
+        return segments[segment * 4 + 3];
+    }
+}
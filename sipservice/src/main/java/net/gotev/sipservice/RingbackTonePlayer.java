@@ -0,0 +1,107 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AudDevManager;
+import org.pjsip.pjsua2.AudioMedia;
+import org.pjsip.pjsua2.ToneDesc;
+import org.pjsip.pjsua2.ToneDescVector;
+import org.pjsip.pjsua2.ToneGenerator;
+
+/**
+ * Plays the local ringback tone through the PJSUA conference bridge.
+ */
+final class RingbackTonePlayer {
+
+    private static final String LOG_TAG = RingbackTonePlayer.class.getSimpleName();
+
+    private final SipService mService;
+    private final ConcurrentIntMap<Boolean> mRingingCalls = new ConcurrentIntMap<>();
+
+    private ToneGenerator mToneGenerator;
+    private ToneDescVector mTones;
+    private RingbackCadence mCadence;
+    private boolean mPlaying = false;
+
+    RingbackTonePlayer(SipService service) {
+        mService = service;
+    }
+
+    /**
+     * Starts the ringback tone for a call, if it's not already playing, e.g. because of a
+     * previous 180 Ringing or another ringing call. The {@link ToneGenerator} is created the
+     * first time and reused until {@link #release()}.
+     * @param callID ID of the ringing call
+     */
+    synchronized void start(int callID) {
+        mRingingCalls.put(callID, Boolean.TRUE);
+        if (mPlaying) return;
+
+        try {
+            RingbackCadence cadence = mService.getRingbackCadence();
+            if (mToneGenerator == null) {
+                mToneGenerator = NativeScope.track(new ToneGenerator());
+                mToneGenerator.createToneGenerator();
+            }
+            if (mTones == null || cadence != mCadence) {
+                NativeScope.delete(mTones, ToneDescVector::delete);
+                mTones = NativeScope.track(buildTones(cadence));
+                mCadence = cadence;
+            }
+
+            mToneGenerator.play(mTones, true);
+            mToneGenerator.startTransmit(getPlaybackDevMedia());
+            mPlaying = true;
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while starting ringback tone", exc);
+        }
+    }
+
+    /**
+     * Stops the ringback tone for a call. The tone stops when no more calls are ringing.
+     * @param callID ID of the call which is not ringing anymore
+     */
+    synchronized void stop(int callID) {
+        if (mRingingCalls.remove(callID) == null || !mRingingCalls.isEmpty() || !mPlaying) return;
+
+        try {
+            mToneGenerator.stopTransmit(getPlaybackDevMedia());
+            mToneGenerator.stop();
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while stopping ringback tone", exc);
+        }
+        mPlaying = false;
+    }
+
+    /**
+     * Releases the tone generator. Must be called before destroying the SIP stack.
+     */
+    synchronized void release() {
+        mRingingCalls.clear();
+        mPlaying = false;
+        NativeScope.delete(mToneGenerator, ToneGenerator::delete);
+        NativeScope.delete(mTones, ToneDescVector::delete);
+        mToneGenerator = null;
+        mTones = null;
+        mCadence = null;
+    }
+
+    private AudioMedia getPlaybackDevMedia() throws Exception {
+        AudDevManager audDevManager = mService.getAudDevManager();
+        return audDevManager.getPlaybackDevMedia();
+    }
+
+    private static ToneDescVector buildTones(RingbackCadence cadence) {
+        ToneDescVector tones = new ToneDescVector();
+        for (int i = 0; i < cadence.getSegmentsCount(); i++) {
+            try (NativeScope scope = new NativeScope()) {
+                ToneDesc tone = scope.add(new ToneDesc(), ToneDesc::delete);
+                tone.setFreq1((short) cadence.getFrequency1(i));
+                tone.setFreq2((short) cadence.getFrequency2(i));
+                tone.setOn_msec((short) cadence.getOnMillis(i));
+                tone.setOff_msec((short) cadence.getOffMillis(i));
+                // the vector stores a copy of the tone
+                tones.add(tone);
+            }
+        }
+        return tones;
+    }
+}
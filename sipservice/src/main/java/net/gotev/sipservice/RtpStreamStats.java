@@ -20,14 +20,19 @@ public class RtpStreamStats implements Parcelable {
     private final int reorder;
     private final int dup;
     private final Jitter jitter;
+    private final float rFactor;
+    private final float mos;
 
-    RtpStreamStats(int pkt, int discard, int loss, int reorder, int dup, Jitter jitter) {
+    RtpStreamStats(int pkt, int discard, int loss, int reorder, int dup, Jitter jitter,
+                   float rFactor, float mos) {
         this.pkt = pkt;
         this.discard = discard;
         this.loss = loss;
         this.reorder = reorder;
         this.dup = dup;
         this.jitter = jitter;
+        this.rFactor = rFactor;
+        this.mos = mos;
     }
 
     // This is used to regenerate the object.
@@ -52,6 +57,8 @@ public class RtpStreamStats implements Parcelable {
         this.reorder = in.readInt();
         this.dup = in.readInt();
         this.jitter = in.readParcelable(Jitter.class.getClassLoader());
+        this.rFactor = in.readFloat();
+        this.mos = in.readFloat();
     }
 
     public void writeToParcel(Parcel parcel, int arg1) {
@@ -61,6 +68,8 @@ public class RtpStreamStats implements Parcelable {
         parcel.writeInt(reorder);
         parcel.writeInt(dup);
         parcel.writeParcelable(jitter, 0);
+        parcel.writeFloat(rFactor);
+        parcel.writeFloat(mos);
     }
 
     @Override
@@ -76,7 +85,9 @@ public class RtpStreamStats implements Parcelable {
                 +"Loss: "+loss+"\n"
                 +"Reorder: "+reorder+"\n"
                 +"Duplicate: "+dup+"\n"
-                +"Jitter: "+jitter.toString()+"\n";
+                +"Jitter: "+jitter.toString()+"\n"
+                +"R-factor: "+rFactor+"\n"
+                +"MOS: "+mos+"\n";
     }
 
     public int getPackets() {
@@ -102,4 +113,18 @@ public class RtpStreamStats implements Parcelable {
     public Jitter getJitter() {
         return jitter;
     }
+
+    /**
+     * @return R-factor estimated with the ITU-T G.107 E-model, from 0 (worst) to 100 (best)
+     */
+    public float getRFactor() {
+        return rFactor;
+    }
+
+    /**
+     * @return MOS estimated with the ITU-T G.107 E-model, from 1 (bad) to 4.5 (best)
+     */
+    public float getMos() {
+        return mos;
+    }
 }
@@ -36,6 +36,7 @@ public class SharedPreferencesHelper {
     private final String PREFS_KEY_KEYSTORE_ALIAS = "keystore_alias";
     private final String PREFS_KEY_OBFUSCATION_ENABLED = "obfuscation_enabled";
     private final String PREFS_KEY_VERIFY_SIP_SERVER_CERT = "sip_server_cert_verification_enabled";
+    private final String PREFS_KEY_RINGBACK_CADENCE = "ringback_cadence";
 
     private final SharedPreferences sharedPreferences;
     private final SharedPreferences encryptedSharedPreferences;
@@ -106,6 +107,20 @@ public class SharedPreferencesHelper {
         return sharedPreferences.getBoolean(PREFS_KEY_VERIFY_SIP_SERVER_CERT, false);
     }
 
+    void setRingbackCadence(RingbackCadence cadence) {
+        sharedPreferences.edit().putString(PREFS_KEY_RINGBACK_CADENCE, cadence.name()).apply();
+    }
+
+    RingbackCadence getRingbackCadence() {
+        String cadence = sharedPreferences.getString(PREFS_KEY_RINGBACK_CADENCE, null);
+        if (cadence == null) return RingbackCadence.EUROPE;
+        try {
+            return RingbackCadence.valueOf(cadence);
+        } catch (IllegalArgumentException exc) {
+            return RingbackCadence.EUROPE;
+        }
+    }
+
     /**
      * Helpers to decrypt retrieved encrypted data
      * @return decrypted accounts
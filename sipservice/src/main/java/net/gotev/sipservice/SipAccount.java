@@ -1,13 +1,15 @@
 package net.gotev.sipservice;
 
+import android.os.SystemClock;
+
 import org.pjsip.pjsua2.Account;
-import org.pjsip.pjsua2.CallInfo;
+import org.pjsip.pjsua2.AccountConfig;
 import org.pjsip.pjsua2.CallOpParam;
 import org.pjsip.pjsua2.OnIncomingCallParam;
 import org.pjsip.pjsua2.OnRegStateParam;
 import org.pjsip.pjsua2.pjsip_status_code;
 
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 
 import static net.gotev.sipservice.ObfuscationHelper.getValue;
@@ -20,7 +22,7 @@ public class SipAccount extends Account {
 
     private static final String LOG_TAG = SipAccount.class.getSimpleName();
 
-    private final HashMap<Integer, SipCall> activeCalls = new HashMap<>();
+    private final ConcurrentIntMap<SipCall> activeCalls = new ConcurrentIntMap<>();
     private final SipAccountData data;
     private final SipService service;
     private boolean isGuest = false;
@@ -40,20 +42,22 @@ public class SipAccount extends Account {
     }
 
     public void create() throws Exception {
-        create(data.getAccountConfig());
+        try (NativeScope scope = new NativeScope()) {
+            create(scope.add(data.getAccountConfig(), AccountConfig::delete));
+        }
     }
 
     public void createGuest() throws Exception {
         isGuest = true;
-        create(data.getGuestAccountConfig());
+        try (NativeScope scope = new NativeScope()) {
+            create(scope.add(data.getGuestAccountConfig(), AccountConfig::delete));
+        }
     }
 
     protected void removeCall(int callId) {
-        SipCall call = activeCalls.get(callId);
-
-        if (call != null) {
+        if (activeCalls.remove(callId) != null) {
             Logger.debug(LOG_TAG, "Removing call with ID: " + callId);
-            activeCalls.remove(callId);
+            CallRegistry.release();
         }
 
         if (isGuest) {
@@ -66,35 +70,86 @@ public class SipAccount extends Account {
         return activeCalls.get(callId);
     }
 
+    /**
+     * @return snapshot of the IDs of the active calls
+     * @deprecated boxes every ID, use {@link #getActiveCallIDs()} instead
+     */
+    @Deprecated
     public Set<Integer> getCallIDs() {
-        return activeCalls.keySet();
+        int[] callIDs = activeCalls.keys();
+        Set<Integer> set = new HashSet<>(callIDs.length * 2);
+        for (int callID : callIDs) {
+            set.add(callID);
+        }
+        return set;
     }
 
-    public SipCall addIncomingCall(int callId) {
+    /**
+     * @return snapshot of the IDs of the active calls, which can be safely iterated while
+     * calls are being added or removed
+     */
+    public int[] getActiveCallIDs() {
+        return activeCalls.keys();
+    }
+
+    public int getActiveCallsCount() {
+        return activeCalls.size();
+    }
 
+    public SipCall addIncomingCall(int callId) {
         SipCall call = new SipCall(this, callId);
-        activeCalls.put(callId, call);
+        trackIncomingCall(call);
+        logIncomingCall(callId);
+        return call;
+    }
+
+    /**
+     * Tracks an incoming call.
+     * @param call incoming call
+     * @return true if the call is within the concurrent calls limit
+     */
+    private boolean trackIncomingCall(SipCall call) {
+        boolean admitted = CallRegistry.acquire();
+        if (activeCalls.put(call.getId(), call) != null) {
+            // the call ID has been reused before the old call has been removed
+            CallRegistry.release();
+        }
+        return admitted;
+    }
+
+    private void logIncomingCall(int callId) {
         Logger.debug(LOG_TAG, "Added incoming call with ID " + callId
                 + " to " + getValue(service.getApplicationContext(), data.getIdUri())
         );
-        return call;
     }
 
     public SipCall addOutgoingCall(final String numberToDial, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
+        return addOutgoingCall(numberToDial, null, isVideo, isVideoConference, isTransfer);
+    }
 
-        // check if there's already an ongoing call
-        int totalCalls = 0;
-        for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
-        }
-
-        // allow calls only if there are no other ongoing calls
-        if (totalCalls <= (isTransfer ? 1 : 0)) {
+    /**
+     * Makes an outgoing call.
+     * @param numberToDial number or sip uri to call
+     * @param announcedNumber number announced by the outgoing call event, which is emitted before
+     *                        the first call state of the call. Null to not emit the event
+     * @param isVideo true for a video call
+     * @param isVideoConference true for a video conference
+     * @param isTransfer true for an attended transfer
+     * @return the call, or null if it could not be made
+     */
+    SipCall addOutgoingCall(final String numberToDial, String announcedNumber, boolean isVideo,
+                            boolean isVideoConference, boolean isTransfer) {
+
+        // allow calls only within the concurrent calls limit
+        if (CallRegistry.tryAcquire(isTransfer)) {
             SipCall call = new SipCall(this);
             call.setVideoParams(isVideo, isVideoConference);
+            if (announcedNumber != null) {
+                call.setOutgoingNumber(announcedNumber, isTransfer);
+            }
 
-            CallOpParam callOpParam = new CallOpParam();
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                CallOpParam callOpParam = scope.add(new CallOpParam(), CallOpParam::delete);
                 if (numberToDial.startsWith("sip:")) {
                     call.makeCall(numberToDial, callOpParam);
                 } else {
@@ -104,13 +159,16 @@ public class SipAccount extends Account {
                         call.makeCall("sip:" + numberToDial + "@" + data.getRealm(), callOpParam);
                     }
                 }
-                activeCalls.put(call.getId(), call);
+                if (activeCalls.put(call.getId(), call) != null) {
+                    CallRegistry.release();
+                }
                 Logger.debug(LOG_TAG, "New outgoing call with ID: " + call.getId());
 
                 return call;
 
             } catch (Exception exc) {
                 Logger.error(LOG_TAG, "Error while making outgoing call", exc);
+                CallRegistry.release();
                 return null;
             }
         }
@@ -143,70 +201,83 @@ public class SipAccount extends Account {
                 ", Reason: " + prm.getReason() + ", Exp: " + prm.getExpiration() + ", Status: " + prm.getStatus()
         );
         service.getBroadcastEmitter().registrationState(data.getIdUri(), prm.getCode());
+        service.onRegistrationState();
     }
 
+    /**
+     * Handles a new incoming call, keeping the work done before sending the first response
+     * to the minimum: the call is answered with 180 Ringing, or rejected with 603 Decline (DND)
+     * or 486 Busy Here (concurrent calls limit reached). The call info is read and the events
+     * are emitted once the response has been sent, still inline, so that INCOMING_CALL always
+     * precedes the call state events of the call. Only the logging happens on the service
+     * worker thread.
+     */
     @Override
     public void onIncomingCall(OnIncomingCallParam prm) {
+        long receivedAt = SystemClock.elapsedRealtimeNanos();
+        int callId = prm.getCallId();
 
-        SipCall call = addIncomingCall(prm.getCallId());
+        SipCall call = new SipCall(this, callId);
+        boolean admitted = trackIncomingCall(call);
 
-        // Send 603 Decline if in DND mode
+        int statusCode;
         if (service.isDND()) {
-            try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
-                service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
-                call.declineIncomingCall();
-                Logger.debug(LOG_TAG, "DND - Decline call with ID: " + prm.getCallId());
-            } catch(Exception ex) {
-                Logger.error(LOG_TAG, "Error while getting -missed because declined- call info", ex);
-            }
+            statusCode = pjsip_status_code.PJSIP_SC_DECLINE;
+        } else if (!admitted) {
+            statusCode = pjsip_status_code.PJSIP_SC_BUSY_HERE;
+        } else {
+            statusCode = pjsip_status_code.PJSIP_SC_RINGING;
+        }
+
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam callOpParam = scope.add(new CallOpParam(), CallOpParam::delete);
+            callOpParam.setStatusCode(statusCode);
+            call.answer(callOpParam);
+        } catch (Exception ex) {
+            Logger.error(LOG_TAG, "Error while answering incoming call with ID " + callId, ex);
             return;
         }
 
-        // Send 486 Busy Here if there's an already ongoing call
-        int totalCalls = 0;
-        for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
+        if (statusCode == pjsip_status_code.PJSIP_SC_RINGING) {
+            service.onIncomingCallRinging(SystemClock.elapsedRealtimeNanos() - receivedAt);
         }
 
-        if (totalCalls > 1) {
-            try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
-                service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
-                call.sendBusyHereToIncomingCall();
-                Logger.debug(LOG_TAG, "Sending busy to call ID: " + prm.getCallId());
-            } catch(Exception ex) {
-                Logger.error(LOG_TAG, "Error while getting missed call info", ex);
-            }
+        // taken here, since a rejected call is deleted as soon as it's disconnected
+        final CallInfoSnapshot callInfo;
+        try {
+            callInfo = call.getInfoSnapshot();
+        } catch (Exception ex) {
+            Logger.error(LOG_TAG, "Error while getting incoming call info", ex);
             return;
         }
 
-        try {
-            // Answer with 180 Ringing
-            CallOpParam callOpParam = new CallOpParam();
-            callOpParam.setStatusCode(pjsip_status_code.PJSIP_SC_RINGING);
-            call.answer(callOpParam);
-            Logger.debug(LOG_TAG, "Sending 180 ringing");
+        notifyIncomingCall(callInfo, statusCode);
+        service.enqueueJob(() -> logIncomingCall(callId, statusCode));
+    }
 
-            String displayName, remoteUri;
-            try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
-                displayName = contactInfo.getDisplayName();
-                remoteUri = contactInfo.getRemoteUri();
-            } catch (Exception ex) {
-                Logger.error(LOG_TAG, "Error while getting caller info", ex);
-                throw ex;
-            }
+    private void notifyIncomingCall(CallInfoSnapshot callInfo, int statusCode) {
+        CallerInfo contactInfo = CallerInfo.parse(callInfo.getRemoteUri());
 
+        if (statusCode == pjsip_status_code.PJSIP_SC_RINGING) {
             // check for video in remote SDP
-            CallInfo callInfo = call.getInfo();
             boolean isVideo = (callInfo.getRemOfferer() && callInfo.getRemVideoCount() > 0);
 
-            service.getBroadcastEmitter().incomingCall(data.getIdUri(), prm.getCallId(),
-                            displayName, remoteUri, isVideo);
+            service.getBroadcastEmitter().incomingCall(data.getIdUri(), callInfo.getId(),
+                    contactInfo.getDisplayName(), contactInfo.getRemoteUri(), isVideo);
+        } else {
+            service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
+        }
+    }
 
-        } catch (Exception ex) {
-            Logger.error(LOG_TAG, "Error while getting caller info", ex);
+    private void logIncomingCall(int callId, int statusCode) {
+        logIncomingCall(callId);
+
+        if (statusCode == pjsip_status_code.PJSIP_SC_DECLINE) {
+            Logger.debug(LOG_TAG, "DND - Decline call with ID: " + callId);
+        } else if (statusCode == pjsip_status_code.PJSIP_SC_BUSY_HERE) {
+            Logger.debug(LOG_TAG, "Sending busy to call ID: " + callId);
+        } else {
+            Logger.debug(LOG_TAG, "Sending 180 ringing");
         }
     }
 }
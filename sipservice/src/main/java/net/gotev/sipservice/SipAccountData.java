@@ -256,6 +256,17 @@ public class SipAccountData implements Parcelable {
         return "sip:" + host + ":" + port;
     }
 
+    /**
+     * @return the transport actually used by the account, taking into account the legacy
+     * tcpTransport flag
+     */
+    SipAccountTransport getEffectiveTransport() {
+        if (transport == SipAccountTransport.UDP && tcpTransport) {
+            return SipAccountTransport.TCP;
+        }
+        return transport;
+    }
+
     String getTransportString() {
         switch (transport) {
             case TCP: return ";transport=tcp";
@@ -1,30 +1,31 @@
 package net.gotev.sipservice;
 
-import android.media.AudioManager;
-import android.media.ToneGenerator;
 import android.view.Surface;
 
 import org.pjsip.pjsua2.AudDevManager;
 import org.pjsip.pjsua2.AudioMedia;
 import org.pjsip.pjsua2.Call;
 import org.pjsip.pjsua2.CallInfo;
-import org.pjsip.pjsua2.CallMediaInfo;
 import org.pjsip.pjsua2.CallOpParam;
 import org.pjsip.pjsua2.CallSetting;
 import org.pjsip.pjsua2.CallVidSetStreamParam;
 import org.pjsip.pjsua2.Media;
 import org.pjsip.pjsua2.MediaFmtChangedEvent;
+import org.pjsip.pjsua2.MediaFormatVideo;
 import org.pjsip.pjsua2.OnCallMediaEventParam;
 import org.pjsip.pjsua2.OnCallMediaStateParam;
 import org.pjsip.pjsua2.OnCallStateParam;
 import org.pjsip.pjsua2.OnStreamDestroyedParam;
+import org.pjsip.pjsua2.RtcpStat;
 import org.pjsip.pjsua2.RtcpStreamStat;
 import org.pjsip.pjsua2.StreamInfo;
 import org.pjsip.pjsua2.StreamStat;
+import org.pjsip.pjsua2.VidCodecParam;
 import org.pjsip.pjsua2.VideoPreview;
 import org.pjsip.pjsua2.VideoPreviewOpParam;
 import org.pjsip.pjsua2.VideoWindow;
 import org.pjsip.pjsua2.VideoWindowHandle;
+import org.pjsip.pjsua2.VideoWindowInfo;
 import org.pjsip.pjsua2.pjmedia_dir;
 import org.pjsip.pjsua2.pjmedia_event_type;
 import org.pjsip.pjsua2.pjmedia_rtcp_fb_type;
@@ -38,6 +39,8 @@ import org.pjsip.pjsua2.pjsua_call_media_status;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 import org.pjsip.pjsua2.pjsua_vid_req_keyframe_method;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Wrapper around PJSUA2 Call object.
  * @author gotev (Aleksandar Gotev)
@@ -51,17 +54,35 @@ public class SipCall extends Call {
     private boolean localHold = false;
     private boolean localMute = false;
     private boolean localVideoMute = false;
+    private final long startTimestamp = System.currentTimeMillis();
     private long connectTimestamp = 0;
-    private ToneGenerator toneGenerator;
     private boolean videoCall = false;
     private boolean videoConference = false;
     private boolean frontCamera = true;
+    private String outgoingNumber = null;
+    private boolean outgoingTransfer = false;
 
     private VideoWindow mVideoWindow;
     private VideoPreview mVideoPreview;
 
     private StreamInfo streamInfo = null;
     private StreamStat streamStat = null;
+    private StreamInfo videoStreamInfo = null;
+    private StreamStat videoStreamStat = null;
+
+    private final AtomicInteger keyframeRequestsSent = new AtomicInteger();
+    private final AtomicInteger keyframeRequestsReceived = new AtomicInteger();
+    private final AtomicInteger resolutionChanges = new AtomicInteger();
+    private volatile int decodedWidth = 0;
+    private volatile int decodedHeight = 0;
+
+    private volatile CallInfoSnapshot infoSnapshot = null;
+    private final AtomicInteger infoRefreshes = new AtomicInteger();
+    private final AtomicInteger infoCacheHits = new AtomicInteger();
+
+    private final Object usersLock = new Object();
+    private int users = 0;
+    private boolean disconnected = false;
 
     /**
      * Incoming call constructor.
@@ -84,10 +105,101 @@ public class SipCall extends Call {
         this.account = account;
     }
 
+    SipAccount getAccount() {
+        return account;
+    }
+
+    /**
+     * Prevents the call from being deleted when it's disconnected, until {@link #release()}
+     * is invoked. Used to access the call outside of the PJSUA callbacks.
+     * @return false if the call has been disconnected and must not be accessed anymore
+     */
+    boolean acquire() {
+        synchronized (usersLock) {
+            if (disconnected) return false;
+            users++;
+            return true;
+        }
+    }
+
+    /**
+     * Releases the call acquired with {@link #acquire()}, deleting it if it has been
+     * disconnected in the meantime.
+     */
+    void release() {
+        boolean delete;
+        synchronized (usersLock) {
+            delete = --users == 0 && disconnected;
+        }
+        if (delete) delete();
+    }
+
+    /**
+     * Sets the number announced by the outgoing call event. It has to be set before making
+     * the call, since the first call state may be reported while the call is being made.
+     * @param number called number
+     * @param isTransfer true if the call is an attended transfer
+     */
+    synchronized void setOutgoingNumber(String number, boolean isTransfer) {
+        outgoingNumber = number;
+        outgoingTransfer = isTransfer;
+    }
+
+    /**
+     * Emits the outgoing call event, if it has not been emitted yet. It's emitted at the
+     * latest before the first call state, so that it always precedes it.
+     */
+    synchronized void notifyOutgoingCall() {
+        if (outgoingNumber == null) return;
+
+        account.getService().getBroadcastEmitter().outgoingCall(account.getData().getIdUri(), getId(),
+                outgoingNumber, videoCall, videoConference, outgoingTransfer);
+        outgoingNumber = null;
+    }
+
+    /**
+     * Gets the call info, without crossing JNI if it has not changed since the last
+     * call state or call media state change.
+     * @return immutable snapshot of the call info
+     * @throws Exception if the call info can't be obtained, e.g. when the call has been deleted
+     */
+    public CallInfoSnapshot getInfoSnapshot() throws Exception {
+        CallInfoSnapshot snapshot = infoSnapshot;
+        if (snapshot != null) {
+            infoCacheHits.incrementAndGet();
+            return snapshot;
+        }
+        return refreshInfoSnapshot();
+    }
+
+    private CallInfoSnapshot refreshInfoSnapshot() throws Exception {
+        try (NativeScope scope = new NativeScope()) {
+            CallInfo info = scope.add(getInfo(), CallInfo::delete);
+            infoRefreshes.incrementAndGet();
+            CallInfoSnapshot snapshot = new CallInfoSnapshot(info);
+            infoSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return number of times the call info has been obtained from the native library
+     */
+    public int getInfoRefreshes() {
+        return infoRefreshes.get();
+    }
+
+    /**
+     * @return number of times the call info has been served from the snapshot, saving
+     * a JNI round trip
+     */
+    public int getInfoCacheHits() {
+        return infoCacheHits.get();
+    }
+
     public int getCurrentState() {
         try {
-            CallInfo info = getInfo();
-            return info.getState();
+            return getInfoSnapshot().getState();
         } catch (Exception exc) {
             Logger.error(getClass().getSimpleName(), "Error while getting call Info", exc);
             return pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED;
@@ -97,7 +209,7 @@ public class SipCall extends Call {
     @Override
     public void onCallState(OnCallStateParam prm) {
         try {
-            CallInfo info = getInfo();
+            CallInfoSnapshot info = refreshInfoSnapshot();
             int callID = info.getId();
             int callState = info.getState();
             int callStatus = pjsip_status_code.PJSIP_SC_NULL;
@@ -121,18 +233,25 @@ public class SipCall extends Call {
             if (callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
                 checkAndStopLocalRingBackTone();
                 stopVideoFeeds();
+                account.getService().getCallQualitySampler().stop(this);
+                account.getService().getConference().onCallDisconnected(this);
                 account.removeCall(callID);
+                Logger.debug(LOG_TAG, "Call " + callID + " info cache: " + infoCacheHits.get()
+                        + " JNI round trips saved, " + infoRefreshes.get() + " refreshes");
                 if (connectTimestamp > 0 && streamInfo != null && streamStat != null) {
                     try {
-                        sendCallStats(callID, info.getConnectDuration().getSec(), callStatus);
+                        sendCallStats(info, callStatus);
                     } catch (Exception ex) {
                         Logger.error(LOG_TAG, "Error while sending call stats", ex);
                         throw ex;
                     }
+                } else {
+                    recordCall(info, callStatus, "", null, null);
                 }
             } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_CONFIRMED) {
                 checkAndStopLocalRingBackTone();
                 connectTimestamp = System.currentTimeMillis();
+                account.getService().getCallQualitySampler().start(this);
                 if (videoCall) {
                     setVideoMute(false);
                 }
@@ -142,21 +261,27 @@ public class SipCall extends Call {
                 int statusCode = info.getLastStatusCode();
                 // check if 180 && call is outgoing (ROLE UAC)
                 if (statusCode == pjsip_status_code.PJSIP_SC_RINGING && info.getRole() == pjsip_role_e.PJSIP_ROLE_UAC){
-                    checkAndStopLocalRingBackTone();
-                    toneGenerator = new ToneGenerator(AudioManager.STREAM_VOICE_CALL, 100);
-                    toneGenerator.startTone(ToneGenerator.TONE_SUP_RINGTONE);
+                    account.getService().getRingbackTonePlayer().start(getId());
                     // check if 183
                 } else if (statusCode == pjsip_status_code.PJSIP_SC_PROGRESS){
                     checkAndStopLocalRingBackTone();
                 }
             }
 
+            notifyOutgoingCall();
             account.getService().getBroadcastEmitter()
                     .callState(account.getData().getIdUri(), callID, callState, callStatus, connectTimestamp);
 
             if (callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
                 account.getService().setLastCallStatus(0);
-                delete();
+                releaseStreamStats();
+                boolean delete;
+                synchronized (usersLock) {
+                    disconnected = true;
+                    delete = users == 0;
+                }
+                // otherwise it's deleted by the last user
+                if (delete) delete();
             }
 
         } catch (Exception exc) {
@@ -168,17 +293,17 @@ public class SipCall extends Call {
     @Override
     public void onCallMediaState(OnCallMediaStateParam prm) {
 
-        CallInfo info;
+        CallInfoSnapshot info;
         try {
-            info = getInfo();
+            info = refreshInfoSnapshot();
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "onCallMediaState: error while getting call info", exc);
             return;
         }
 
-        for (int i = 0; i < info.getMedia().size(); i++) {
+        for (int i = 0; i < info.getMediaCount(); i++) {
             Media media = getMedia(i);
-            CallMediaInfo mediaInfo = info.getMedia().get(i);
+            CallInfoSnapshot.Media mediaInfo = info.getMedia(i);
 
             if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
                     && media != null
@@ -201,11 +326,18 @@ public class SipCall extends Call {
         switch (evType) {
             case pjmedia_event_type.PJMEDIA_EVENT_FMT_CHANGED:
                 try {
-                    CallInfo callInfo = getInfo();
-                    CallMediaInfo mediaInfo = callInfo.getMedia().get((int)prm.getMedIdx());
+                    CallInfoSnapshot.Media mediaInfo = getInfoSnapshot().getMedia((int)prm.getMedIdx());
                     if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_VIDEO &&
                             mediaInfo.getDir() == pjmedia_dir.PJMEDIA_DIR_DECODING) {
                         MediaFmtChangedEvent fmtEvent = prm.getEv().getData().getFmtChanged();
+                        int width = (int) fmtEvent.getNewWidth();
+                        int height = (int) fmtEvent.getNewHeight();
+                        // the first format is the initial resolution, not a change
+                        if (decodedWidth > 0 && (width != decodedWidth || height != decodedHeight)) {
+                            resolutionChanges.incrementAndGet();
+                        }
+                        decodedWidth = width;
+                        decodedHeight = height;
                         Logger.info(LOG_TAG, "Notify new video size");
                         account.getService().getBroadcastEmitter().videoSize(
                                 (int) fmtEvent.getNewWidth(),
@@ -222,9 +354,15 @@ public class SipCall extends Call {
                         prm.getEv().getData().getRtcpFb().getFbType() == pjmedia_rtcp_fb_type.PJMEDIA_RTCP_FB_NACK &&
                         prm.getEv().getData().getRtcpFb().getIsParamLengthZero()
                 ) {
+                    keyframeRequestsReceived.incrementAndGet();
                     Logger.info(LOG_TAG, "Sending new keyframe");
                     sendKeyFrame();
                 }
+                break;
+            case pjmedia_event_type.PJMEDIA_EVENT_KEYFRAME_MISSING:
+                // PJSUA requests a keyframe with RTCP PLI, see setReqKeyframeMethod
+                keyframeRequestsSent.incrementAndGet();
+                break;
         }
         super.onCallMediaEvent(prm);
     }
@@ -233,10 +371,15 @@ public class SipCall extends Call {
     public void onStreamDestroyed(OnStreamDestroyedParam prm) {
         long idx = prm.getStreamIdx();
         try {
-            CallInfo callInfo = getInfo();
-            if (getInfo().getMedia().get((int)idx).getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO) {
-                streamInfo = getStreamInfo(idx);
-                streamStat = getStreamStat(idx);
+            int type = getInfoSnapshot().getMedia((int)idx).getType();
+            if (type == pjmedia_type.PJMEDIA_TYPE_AUDIO) {
+                releaseAudioStreamStats();
+                streamInfo = NativeScope.track(getStreamInfo(idx));
+                streamStat = NativeScope.track(getStreamStat(idx));
+            } else if (type == pjmedia_type.PJMEDIA_TYPE_VIDEO) {
+                releaseVideoStreamStats();
+                videoStreamInfo = NativeScope.track(getStreamInfo(idx));
+                videoStreamStat = NativeScope.track(getStreamStat(idx));
             }
         } catch (Exception ex) {
             Logger.error(LOG_TAG, "onStreamDestroyed: error while getting call stats", ex);
@@ -253,14 +396,14 @@ public class SipCall extends Call {
     }
 
     public void acceptIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_OK);
-        setMediaParams(param);
-        if (!videoCall) {
-            CallSetting callSetting = param.getOpt();
-            callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA);
-        }
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_OK);
+            setMediaParams(param);
+            if (!videoCall) {
+                CallSetting callSetting = param.getOpt();
+                callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA);
+            }
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to accept incoming call", exc);
@@ -268,10 +411,9 @@ public class SipCall extends Call {
     }
 
     public void sendBusyHereToIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_BUSY_HERE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_BUSY_HERE);
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to send busy here", exc);
@@ -279,10 +421,9 @@ public class SipCall extends Call {
     }
 
     public void declineIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to decline incoming call", exc);
@@ -290,10 +431,9 @@ public class SipCall extends Call {
     }
 
     public void hangUp() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
             hangup(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to hangUp call", exc);
@@ -308,17 +448,17 @@ public class SipCall extends Call {
         // return immediately if we are not changing the current state
         if (localMute == mute) return;
 
-        CallInfo info;
+        CallInfoSnapshot info;
         try {
-            info = getInfo();
+            info = getInfoSnapshot();
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "setMute: error while getting call info", exc);
             return;
         }
 
-        for (int i = 0; i < info.getMedia().size(); i++) {
+        for (int i = 0; i < info.getMediaCount(); i++) {
             Media media = getMedia(i);
-            CallMediaInfo mediaInfo = info.getMedia().get(i);
+            CallInfoSnapshot.Media mediaInfo = info.getMedia(i);
 
             if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
                     && media != null
@@ -368,18 +508,17 @@ public class SipCall extends Call {
             }
         }
 
-        CallOpParam param = new CallOpParam();
-
-        xfer(transferString, param);
+        try (NativeScope scope = new NativeScope()) {
+            xfer(transferString, scope.add(new CallOpParam(), CallOpParam::delete));
+        }
     }
 
     public void setHold(boolean hold) {
         // return immediately if we are not changing the current state
         if (localHold == hold) return;
 
-        CallOpParam param = new CallOpParam();
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam(), CallOpParam::delete);
             if (hold) {
                 Logger.debug(LOG_TAG, "holding call with ID " + getId());
                 setHold(param);
@@ -410,11 +549,7 @@ public class SipCall extends Call {
 
     // check if Local RingBack Tone has started, if so, stop it.
     private void checkAndStopLocalRingBackTone(){
-        if (toneGenerator != null){
-            toneGenerator.stopTone();
-            toneGenerator.release();
-            toneGenerator = null;
-        }
+        account.getService().getRingbackTonePlayer().stop(getId());
     }
 
     // disable video programmatically
@@ -444,13 +579,16 @@ public class SipCall extends Call {
 
                 audioMedia.startTransmit(audDevManager.getPlaybackDevMedia());
                 audDevManager.getCaptureDevMedia().startTransmit(audioMedia);
+
+                // (re)connect the other participants if the call is in the local conference
+                account.getService().getConference().bridge(this);
             }
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Error while connecting audio media to sound device", exc);
         }
     }
 
-    private void handleVideoMedia(CallMediaInfo mediaInfo) {
+    private void handleVideoMedia(CallInfoSnapshot.Media mediaInfo) {
         if (mVideoWindow != null) {
             mVideoWindow.delete();
         }
@@ -489,13 +627,14 @@ public class SipCall extends Call {
 
     public void setIncomingVideoFeed(Surface surface) {
         if (mVideoWindow != null) {
-            VideoWindowHandle videoWindowHandle = new VideoWindowHandle();
-            videoWindowHandle.getHandle().setWindow(surface);
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                VideoWindowHandle videoWindowHandle = scope.add(new VideoWindowHandle(), VideoWindowHandle::delete);
+                videoWindowHandle.getHandle().setWindow(surface);
                 mVideoWindow.setWindow(videoWindowHandle);
+                VideoWindowInfo videoWindowInfo = scope.add(mVideoWindow.getInfo(), VideoWindowInfo::delete);
                 account.getService().getBroadcastEmitter().videoSize(
-                        (int) mVideoWindow.getInfo().getSize().getW(),
-                        (int) mVideoWindow.getInfo().getSize().getH());
+                        (int) videoWindowInfo.getSize().getW(),
+                        (int) videoWindowInfo.getSize().getH());
 
                 // start video again if not mute
                 setVideoMute(localVideoMute);
@@ -507,11 +646,11 @@ public class SipCall extends Call {
 
     public void startPreviewVideoFeed(Surface surface) {
         if (mVideoPreview != null) {
-            VideoWindowHandle videoWindowHandle = new VideoWindowHandle();
-            videoWindowHandle.getHandle().setWindow(surface);
-            VideoPreviewOpParam videoPreviewOpParam = new VideoPreviewOpParam();
-            videoPreviewOpParam.setWindow(videoWindowHandle);
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                VideoWindowHandle videoWindowHandle = scope.add(new VideoWindowHandle(), VideoWindowHandle::delete);
+                videoWindowHandle.getHandle().setWindow(surface);
+                VideoPreviewOpParam videoPreviewOpParam = scope.add(new VideoPreviewOpParam(), VideoPreviewOpParam::delete);
+                videoPreviewOpParam.setWindow(videoWindowHandle);
                 mVideoPreview.start(videoPreviewOpParam);
             } catch (Exception ex) {
                 Logger.error(LOG_TAG, "Unable to start Video Preview", ex);
@@ -562,11 +701,11 @@ public class SipCall extends Call {
     }
 
     public void setVideoMute(boolean videoMute) {
-        try {
+        try (NativeScope scope = new NativeScope()) {
             vidSetStream(videoMute
                     ? pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_STOP_TRANSMIT
                     : pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_START_TRANSMIT,
-                new CallVidSetStreamParam());
+                scope.add(new CallVidSetStreamParam(), CallVidSetStreamParam::delete));
             localVideoMute = videoMute;
             account.getService().getBroadcastEmitter().callMediaState(
                     account.getData().getIdUri(), getId(), MediaState.LOCAL_VIDEO_MUTE, localVideoMute);
@@ -588,18 +727,39 @@ public class SipCall extends Call {
     }
 
     private void sendKeyFrame() {
-        try {
-            vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_SEND_KEYFRAME, new CallVidSetStreamParam());
+        try (NativeScope scope = new NativeScope()) {
+            vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_SEND_KEYFRAME, scope.add(new CallVidSetStreamParam(), CallVidSetStreamParam::delete));
         } catch (Exception ex) {
             Logger.error(LOG_TAG, "Error sending keyframe", ex);
         }
     }
 
-    private void sendCallStats(int callID, int duration, int callStatus) {
+    private void sendCallStats(CallInfoSnapshot info, int callStatus) {
+        int callID = info.getId();
+        int duration = info.getConnectDuration();
         String audioCodec = streamInfo.getCodecName().toLowerCase()+"_"+streamInfo.getCodecClockRate();
 
-        RtcpStreamStat rxStat = streamStat.getRtcp().getRxStat();
-        RtcpStreamStat txStat = streamStat.getRtcp().getTxStat();
+        RtcpStat rtcp = streamStat.getRtcp();
+        RtcpStreamStat rxStat = rtcp.getRxStat();
+        RtcpStreamStat txStat = rtcp.getTxStat();
+        int rttUsec = rtcp.getRttUsec().getMean();
+
+        EModel rxQuality = new EModel();
+        rxQuality.setCodec(streamInfo.getCodecName());
+        rxQuality.update(
+                QualityHistory.lossPercent(rxStat.getPkt() - rxStat.getDiscard(), rxStat.getLoss() + rxStat.getDiscard()),
+                rxStat.getJitterUsec().getMean(),
+                rttUsec,
+                (int) streamStat.getJbuf().getAvgDelayMsec());
+
+        // the remote jitter buffer is unknown
+        EModel txQuality = new EModel();
+        txQuality.setCodec(streamInfo.getCodecName());
+        txQuality.update(
+                QualityHistory.lossPercent(txStat.getPkt(), txStat.getLoss()),
+                txStat.getJitterUsec().getMean(),
+                rttUsec,
+                0);
 
         Jitter rxJitter = new Jitter(
                 rxStat.getJitterUsec().getMax(),
@@ -617,7 +777,9 @@ public class SipCall extends Call {
                 (int)rxStat.getLoss(),
                 (int)rxStat.getReorder(),
                 (int)rxStat.getDup(),
-                rxJitter
+                rxJitter,
+                rxQuality.getRFactor(),
+                rxQuality.getMos()
         );
 
         RtpStreamStats tx = new RtpStreamStats(
@@ -626,11 +788,93 @@ public class SipCall extends Call {
                 (int)txStat.getLoss(),
                 (int)txStat.getReorder(),
                 (int)txStat.getDup(),
-                txJitter
+                txJitter,
+                txQuality.getRFactor(),
+                txQuality.getMos()
         );
 
-        account.getService().getBroadcastEmitter().callStats(callID, duration, audioCodec, callStatus, rx, tx);
+        String videoCodec = null;
+        VideoStreamStats rxVideo = null;
+        VideoStreamStats txVideo = null;
+        if (videoStreamInfo != null && videoStreamStat != null) {
+            videoCodec = videoStreamInfo.getCodecName().toLowerCase()+"_"+videoStreamInfo.getCodecClockRate();
+            VidCodecParam codecParam = videoStreamInfo.getVidCodecParam();
+            MediaFormatVideo decFmt = codecParam.getDecFmt();
+            MediaFormatVideo encFmt = codecParam.getEncFmt();
+            RtcpStat videoRtcp = videoStreamStat.getRtcp();
+
+            rxVideo = getVideoStreamStats(videoRtcp.getRxStat(), duration, decFmt,
+                    decodedWidth > 0 ? decodedWidth : (int) decFmt.getWidth(),
+                    decodedHeight > 0 ? decodedHeight : (int) decFmt.getHeight(),
+                    keyframeRequestsSent.get(), resolutionChanges.get());
+            txVideo = getVideoStreamStats(videoRtcp.getTxStat(), duration, encFmt,
+                    (int) encFmt.getWidth(), (int) encFmt.getHeight(),
+                    keyframeRequestsReceived.get(), 0);
+        }
+
+        account.getService().getBroadcastEmitter().callStats(callID, duration, audioCodec, callStatus, rx, tx,
+                videoCodec, rxVideo, txVideo);
+        recordCall(info, callStatus, audioCodec, rx, tx);
+        releaseStreamStats();
+    }
+
+    private void recordCall(CallInfoSnapshot info, int callStatus, String audioCodec,
+                            RtpStreamStats rx, RtpStreamStats tx) {
+        CallDetailRecord record = new CallDetailRecord(
+                account.getData().getIdUri(),
+                info.getId(),
+                info.getRole() == pjsip_role_e.PJSIP_ROLE_UAS,
+                CallerInfo.parse(info.getRemoteUri()).getRemoteUri(),
+                startTimestamp,
+                connectTimestamp,
+                System.currentTimeMillis(),
+                info.getConnectDuration(),
+                callStatus,
+                audioCodec,
+                rx,
+                tx
+        );
+        account.getService().recordCall(record);
+    }
+
+    private static VideoStreamStats getVideoStreamStats(RtcpStreamStat stat, int duration, MediaFormatVideo format,
+                                                        int width, int height, int keyframeRequests,
+                                                        int resolutionChanges) {
+        Jitter jitter = new Jitter(
+                stat.getJitterUsec().getMax(),
+                stat.getJitterUsec().getMean(),
+                stat.getJitterUsec().getMin());
+
+        return new VideoStreamStats(
+                (int)stat.getPkt(),
+                (int)stat.getDiscard(),
+                (int)stat.getLoss(),
+                jitter,
+                duration > 0 ? (int)(stat.getBytes() * 8 / 1000 / duration) : 0,
+                format.getFpsDenum() > 0 ? (float) format.getFpsNum() / format.getFpsDenum() : 0f,
+                width,
+                height,
+                keyframeRequests,
+                resolutionChanges
+        );
+    }
+
+    private void releaseStreamStats() {
+        releaseAudioStreamStats();
+        releaseVideoStreamStats();
+    }
+
+    private void releaseAudioStreamStats() {
+        NativeScope.delete(streamInfo, StreamInfo::delete);
+        NativeScope.delete(streamStat, StreamStat::delete);
         streamInfo = null;
         streamStat = null;
     }
+
+    private void releaseVideoStreamStats() {
+        NativeScope.delete(videoStreamInfo, StreamInfo::delete);
+        NativeScope.delete(videoStreamStat, StreamStat::delete);
+        videoStreamInfo = null;
+        videoStreamStat = null;
+    }
 }
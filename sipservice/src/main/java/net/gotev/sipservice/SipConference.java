@@ -0,0 +1,262 @@
+package net.gotev.sipservice;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.pjsip.pjsua2.AudioMedia;
+
+import java.util.ArrayList;
+
+/**
+ * Local audio conference, which mixes the audio of its calls through the PJSUA conference bridge.
+ */
+final class SipConference {
+
+    private static final String LOG_TAG = SipConference.class.getSimpleName();
+
+    /**
+     * Participants counts above this one are accounted together in the CPU measurements.
+     */
+    static final int MAX_MEASURED_PARTICIPANTS = 16;
+
+    private final ConcurrentIntMap<SipCall> mParticipants = new ConcurrentIntMap<>();
+
+    private final long[] mCpuMillis = new long[MAX_MEASURED_PARTICIPANTS + 1];
+    private final long[] mWallMillis = new long[MAX_MEASURED_PARTICIPANTS + 1];
+    private long mPeriodCpuStart;
+    private long mPeriodWallStart;
+
+    boolean contains(SipCall call) {
+        return mParticipants.containsKey(call.getId());
+    }
+
+    int size() {
+        return mParticipants.size();
+    }
+
+    /**
+     * Merges two calls into the conference. If one of them is already in the conference, the
+     * other one joins it.
+     * @param first first call
+     * @param second second call
+     * @return true if both calls are in the conference
+     */
+    boolean merge(SipCall first, SipCall second) {
+        if (first.getId() == second.getId()) return false;
+
+        boolean firstJoined;
+        boolean secondJoined;
+        synchronized (this) {
+            firstJoined = add(first);
+            secondJoined = add(second);
+        }
+
+        boolean success = true;
+        if (firstJoined) success &= join(first);
+        if (secondJoined) success &= join(second);
+        return success;
+    }
+
+    /**
+     * @return true if the call was not in the conference and it has been added
+     */
+    private boolean add(SipCall call) {
+        if (contains(call)) return false;
+
+        closeMeasurementPeriod(true);
+        mParticipants.put(call.getId(), call);
+        Logger.debug(LOG_TAG, "Call " + call.getId() + " joined the conference, participants: " + size());
+        return true;
+    }
+
+    private boolean join(SipCall call) {
+        notifyConferenceState(call, true);
+
+        if (call.isLocalHold()) {
+            // the call is bridged when its media becomes active again
+            call.setHold(false);
+            return true;
+        }
+        return bridge(call);
+    }
+
+    /**
+     * Connects the audio of a participant to all the other participants, e.g. when its
+     * audio media becomes active.
+     * @param call conference participant
+     * @return true if the audio has been connected
+     */
+    boolean bridge(SipCall call) {
+        ArrayList<SipCall> others;
+        synchronized (this) {
+            if (!contains(call)) return false;
+            others = getOtherParticipants(call);
+        }
+
+        try (NativeScope scope = new NativeScope()) {
+            AudioMedia media = scope.add(call.getAudioMedia(-1), AudioMedia::delete);
+            for (SipCall participant : others) {
+                try {
+                    AudioMedia participantMedia = scope.add(participant.getAudioMedia(-1), AudioMedia::delete);
+                    media.startTransmit(participantMedia);
+                    participantMedia.startTransmit(media);
+                } catch (Exception exc) {
+                    // the media of the other participant is not active yet, it's bridged later
+                    Logger.debug(LOG_TAG, "Call " + participant.getId() + " has no active audio yet");
+                }
+            }
+            return true;
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while bridging call " + call.getId(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Splits a call from the conference. The call keeps its connection with the local device.
+     * When only one participant is left, the conference ends.
+     * @param call call to split
+     * @return true if the call was in the conference
+     */
+    boolean split(SipCall call) {
+        ArrayList<SipCall> others;
+        SipCall last;
+        synchronized (this) {
+            if (!remove(call)) return false;
+            others = getOtherParticipants(call);
+            last = removeLastParticipant();
+        }
+
+        unbridge(call, others);
+        notifyConferenceState(call, false);
+        if (last != null) notifyConferenceState(last, false);
+        return true;
+    }
+
+    /**
+     * Removes a call which has been disconnected, whose media is not valid anymore.
+     * It's invoked from the PJSUA callbacks, which already hold PJSUA locks, so PJSUA and the
+     * event emitter are never invoked while holding the conference lock.
+     * @param call disconnected call
+     */
+    void onCallDisconnected(SipCall call) {
+        SipCall last;
+        synchronized (this) {
+            if (!remove(call)) return;
+            last = removeLastParticipant();
+        }
+
+        notifyConferenceState(call, false);
+        if (last != null) notifyConferenceState(last, false);
+    }
+
+    private boolean remove(SipCall call) {
+        if (!contains(call)) return false;
+
+        closeMeasurementPeriod(true);
+        mParticipants.remove(call.getId());
+        Logger.debug(LOG_TAG, "Call " + call.getId() + " left the conference, participants: " + size());
+        return true;
+    }
+
+    /**
+     * @return the last participant, if it has been removed because the conference ended
+     */
+    private SipCall removeLastParticipant() {
+        if (size() != 1) return null;
+        SipCall last = mParticipants.values().get(0);
+        remove(last);
+        return last;
+    }
+
+    private ArrayList<SipCall> getOtherParticipants(SipCall call) {
+        ArrayList<SipCall> others = mParticipants.values();
+        for (int i = others.size() - 1; i >= 0; i--) {
+            if (others.get(i).getId() == call.getId()) others.remove(i);
+        }
+        return others;
+    }
+
+    private void unbridge(SipCall call, ArrayList<SipCall> others) {
+        try (NativeScope scope = new NativeScope()) {
+            AudioMedia media = scope.add(call.getAudioMedia(-1), AudioMedia::delete);
+            for (SipCall participant : others) {
+                try {
+                    AudioMedia participantMedia = scope.add(participant.getAudioMedia(-1), AudioMedia::delete);
+                    media.stopTransmit(participantMedia);
+                    participantMedia.stopTransmit(media);
+                } catch (Exception exc) {
+                    Logger.debug(LOG_TAG, "Call " + participant.getId() + " has no active audio");
+                }
+            }
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while unbridging call " + call.getId(), exc);
+        }
+    }
+
+    /**
+     * Ends the conference without touching the media, e.g. when the stack has been destroyed.
+     */
+    synchronized void reset() {
+        closeMeasurementPeriod(false);
+        mParticipants.clear();
+        mPeriodWallStart = 0;
+    }
+
+    private void notifyConferenceState(SipCall call, boolean inConference) {
+        SipAccount account = call.getAccount();
+        account.getService().getBroadcastEmitter().callMediaState(
+                account.getData().getIdUri(), call.getId(), MediaState.CONFERENCE, inConference);
+    }
+
+    /**
+     * Accounts the CPU time spent since the last change of participants to the current number
+     * of participants.
+     */
+    private void closeMeasurementPeriod(boolean log) {
+        long cpu = Process.getElapsedCpuTime();
+        long wall = SystemClock.elapsedRealtime();
+        int participants = size();
+
+        if (participants > 1 && mPeriodWallStart > 0) {
+            int index = Math.min(participants, MAX_MEASURED_PARTICIPANTS);
+            mCpuMillis[index] += cpu - mPeriodCpuStart;
+            mWallMillis[index] += wall - mPeriodWallStart;
+            if (log) {
+                Logger.debug(LOG_TAG, "CPU load with " + participants + " participants: "
+                        + getCpuLoad(index) + "%");
+            }
+        }
+
+        mPeriodCpuStart = cpu;
+        mPeriodWallStart = wall;
+    }
+
+    private float getCpuLoad(int participants) {
+        long wall = mWallMillis[participants];
+        return wall == 0 ? 0 : mCpuMillis[participants] * 100f / wall;
+    }
+
+    /**
+     * Gets the average process CPU load measured while the conference had a given number of
+     * participants. It's the whole process load, including the codecs, the network and the
+     * app itself, so the difference between two consecutive counts only approximates the
+     * cost of adding a participant to the bridge.
+     * @return CPU load percentage, indexed by number of participants (0 if never measured)
+     */
+    synchronized float[] getCpuLoad() {
+        closeMeasurementPeriod(false);
+        float[] load = new float[MAX_MEASURED_PARTICIPANTS + 1];
+        for (int i = 2; i < load.length; i++) {
+            load[i] = getCpuLoad(i);
+        }
+        return load;
+    }
+
+    /**
+     * @return IDs of the calls in the conference
+     */
+    int[] getCallIDs() {
+        return mParticipants.keys();
+    }
+}
@@ -0,0 +1,462 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+
+/**
+ * Event emitted by the sip service and delivered in-process to the registered
+ * {@link SipEventListener}s. Each event type carries the same data of the corresponding
+ * broadcast, received by {@link BroadcastEventReceiver}.
+ */
+@SuppressWarnings("unused")
+public abstract class SipEvent {
+
+    private final BroadcastEventEmitter.BroadcastAction action;
+    private long sequence;
+    private long timestamp;
+
+    SipEvent(BroadcastEventEmitter.BroadcastAction action) {
+        this.action = action;
+    }
+
+    /**
+     * @return the type of this event, which can be used to switch over the event types
+     */
+    public BroadcastEventEmitter.BroadcastAction getAction() {
+        return action;
+    }
+
+    SipEvent stamp(long sequence, long timestamp) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    /**
+     * @return global sequence number of the event. A higher sequence number means that the
+     * event has been emitted later, so it can be used to discard stale events
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return emission time, in nanoseconds, from {@link android.os.SystemClock#elapsedRealtimeNanos()}
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public static class Registration extends SipEvent {
+        private final String accountID;
+        private final int registrationStateCode;
+
+        Registration(String accountID, int registrationStateCode) {
+            super(BroadcastEventEmitter.BroadcastAction.REGISTRATION);
+            this.accountID = accountID;
+            this.registrationStateCode = registrationStateCode;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getRegistrationStateCode() {
+            return registrationStateCode;
+        }
+    }
+
+    public static class IncomingCall extends SipEvent {
+        private final String accountID;
+        private final int callID;
+        private final String displayName;
+        private final String remoteUri;
+        private final boolean isVideo;
+
+        IncomingCall(String accountID, int callID, String displayName, String remoteUri, boolean isVideo) {
+            super(BroadcastEventEmitter.BroadcastAction.INCOMING_CALL);
+            this.accountID = accountID;
+            this.callID = callID;
+            this.displayName = displayName;
+            this.remoteUri = remoteUri;
+            this.isVideo = isVideo;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public String getRemoteUri() {
+            return remoteUri;
+        }
+
+        public boolean isVideo() {
+            return isVideo;
+        }
+    }
+
+    public static class CallState extends SipEvent {
+        private final String accountID;
+        private final int callID;
+        private final int callStateCode;
+        private final int callStatusCode;
+        private final long connectTimestamp;
+
+        CallState(String accountID, int callID, int callStateCode, int callStatusCode, long connectTimestamp) {
+            super(BroadcastEventEmitter.BroadcastAction.CALL_STATE);
+            this.accountID = accountID;
+            this.callID = callID;
+            this.callStateCode = callStateCode;
+            this.callStatusCode = callStatusCode;
+            this.connectTimestamp = connectTimestamp;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public int getCallStateCode() {
+            return callStateCode;
+        }
+
+        public int getCallStatusCode() {
+            return callStatusCode;
+        }
+
+        public long getConnectTimestamp() {
+            return connectTimestamp;
+        }
+    }
+
+    public static class CallMediaState extends SipEvent {
+        private final String accountID;
+        private final int callID;
+        private final MediaState stateType;
+        private final boolean stateValue;
+
+        CallMediaState(String accountID, int callID, MediaState stateType, boolean stateValue) {
+            super(BroadcastEventEmitter.BroadcastAction.CALL_MEDIA_STATE);
+            this.accountID = accountID;
+            this.callID = callID;
+            this.stateType = stateType;
+            this.stateValue = stateValue;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public MediaState getStateType() {
+            return stateType;
+        }
+
+        public boolean getStateValue() {
+            return stateValue;
+        }
+    }
+
+    public static class OutgoingCall extends SipEvent {
+        private final String accountID;
+        private final int callID;
+        private final String number;
+        private final boolean isVideo;
+        private final boolean isVideoConference;
+        private final boolean isTransfer;
+
+        OutgoingCall(String accountID, int callID, String number, boolean isVideo,
+                     boolean isVideoConference, boolean isTransfer) {
+            super(BroadcastEventEmitter.BroadcastAction.OUTGOING_CALL);
+            this.accountID = accountID;
+            this.callID = callID;
+            this.number = number;
+            this.isVideo = isVideo;
+            this.isVideoConference = isVideoConference;
+            this.isTransfer = isTransfer;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public boolean isVideo() {
+            return isVideo;
+        }
+
+        public boolean isVideoConference() {
+            return isVideoConference;
+        }
+
+        public boolean isTransfer() {
+            return isTransfer;
+        }
+    }
+
+    public static class StackStatus extends SipEvent {
+        private final boolean started;
+
+        StackStatus(boolean started) {
+            super(BroadcastEventEmitter.BroadcastAction.STACK_STATUS);
+            this.started = started;
+        }
+
+        public boolean isStarted() {
+            return started;
+        }
+    }
+
+    public static class CodecPriorities extends SipEvent {
+        private final ArrayList<CodecPriority> codecPriorities;
+
+        CodecPriorities(ArrayList<CodecPriority> codecPriorities) {
+            super(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES);
+            this.codecPriorities = codecPriorities;
+        }
+
+        public ArrayList<CodecPriority> getCodecPriorities() {
+            return codecPriorities;
+        }
+    }
+
+    public static class CodecPrioritiesSetStatus extends SipEvent {
+        private final boolean success;
+
+        CodecPrioritiesSetStatus(boolean success) {
+            super(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES_SET_STATUS);
+            this.success = success;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+
+    public static class MissedCall extends SipEvent {
+        private final String displayName;
+        private final String remoteUri;
+
+        MissedCall(String displayName, String remoteUri) {
+            super(BroadcastEventEmitter.BroadcastAction.MISSED_CALL);
+            this.displayName = displayName;
+            this.remoteUri = remoteUri;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public String getRemoteUri() {
+            return remoteUri;
+        }
+    }
+
+    public static class VideoSize extends SipEvent {
+        private final int width;
+        private final int height;
+
+        VideoSize(int width, int height) {
+            super(BroadcastEventEmitter.BroadcastAction.VIDEO_SIZE);
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    public static class CallStats extends SipEvent {
+        private final int callID;
+        private final int duration;
+        private final String audioCodec;
+        private final int callStatusCode;
+        private final RtpStreamStats rx;
+        private final RtpStreamStats tx;
+        private final String videoCodec;
+        private final VideoStreamStats rxVideo;
+        private final VideoStreamStats txVideo;
+
+        CallStats(int callID, int duration, String audioCodec, int callStatusCode,
+                  RtpStreamStats rx, RtpStreamStats tx,
+                  String videoCodec, VideoStreamStats rxVideo, VideoStreamStats txVideo) {
+            super(BroadcastEventEmitter.BroadcastAction.CALL_STATS);
+            this.callID = callID;
+            this.duration = duration;
+            this.audioCodec = audioCodec;
+            this.callStatusCode = callStatusCode;
+            this.rx = rx;
+            this.tx = tx;
+            this.videoCodec = videoCodec;
+            this.rxVideo = rxVideo;
+            this.txVideo = txVideo;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+
+        public String getAudioCodec() {
+            return audioCodec;
+        }
+
+        public int getCallStatusCode() {
+            return callStatusCode;
+        }
+
+        public RtpStreamStats getRx() {
+            return rx;
+        }
+
+        public RtpStreamStats getTx() {
+            return tx;
+        }
+
+        /**
+         * @return video codec, null if the call had no video stream
+         */
+        public String getVideoCodec() {
+            return videoCodec;
+        }
+
+        /**
+         * @return incoming video stream stats, null if the call had no video stream
+         */
+        public VideoStreamStats getRxVideo() {
+            return rxVideo;
+        }
+
+        /**
+         * @return outgoing video stream stats, null if the call had no video stream
+         */
+        public VideoStreamStats getTxVideo() {
+            return txVideo;
+        }
+    }
+
+    public static class CallQuality extends SipEvent {
+        private final String accountID;
+        private final int callID;
+        private final CallQualitySample sample;
+
+        CallQuality(String accountID, int callID, CallQualitySample sample) {
+            super(BroadcastEventEmitter.BroadcastAction.CALL_QUALITY);
+            this.accountID = accountID;
+            this.callID = callID;
+            this.sample = sample;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public CallQualitySample getSample() {
+            return sample;
+        }
+    }
+
+    public static class CallReconnection extends SipEvent {
+        private final CallReconnectionState state;
+
+        CallReconnection(CallReconnectionState state) {
+            super(BroadcastEventEmitter.BroadcastAction.CALL_RECONNECTION_STATE);
+            this.state = state;
+        }
+
+        public CallReconnectionState getState() {
+            return state;
+        }
+    }
+
+    public static class SilentCallStatus extends SipEvent {
+        private final boolean success;
+        private final String number;
+
+        SilentCallStatus(boolean success, String number) {
+            super(BroadcastEventEmitter.BroadcastAction.SILENT_CALL_STATUS);
+            this.success = success;
+            this.number = number;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+    }
+
+    public static class TlsVerifyStatusFailed extends SipEvent {
+        TlsVerifyStatusFailed() {
+            super(BroadcastEventEmitter.BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED);
+        }
+    }
+
+    public static class BatchResult extends SipEvent {
+        private final String batchID;
+        private final boolean success;
+        private final int size;
+        private final boolean[] results;
+
+        BatchResult(String batchID, boolean success, int size, boolean[] results) {
+            super(BroadcastEventEmitter.BroadcastAction.BATCH_RESULT);
+            this.batchID = batchID;
+            this.success = success;
+            this.size = size;
+            this.results = results;
+        }
+
+        public String getBatchID() {
+            return batchID;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return outcome of each executed command, in execution order
+         */
+        public boolean[] getResults() {
+            return results;
+        }
+    }
+}
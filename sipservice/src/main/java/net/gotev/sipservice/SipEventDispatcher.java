@@ -0,0 +1,105 @@
+package net.gotev.sipservice;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the {@link SipEvent}s to the in-process listeners.
+ * Listeners are process wide, so they can be registered before the service is started.
+ */
+final class SipEventDispatcher {
+
+    private static final String TAG = SipEventDispatcher.class.getSimpleName();
+
+    private static final class Registration {
+        private final SipEventListener listener;
+        private final Executor executor;
+
+        private Registration(SipEventListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private static final CopyOnWriteArrayList<Registration> sRegistrations = new CopyOnWriteArrayList<>();
+    private static volatile boolean sBroadcastsEnabled = true;
+
+    /**
+     * Events posted while holding the emitter lock, in emission order, waiting to be
+     * delivered once the lock has been released.
+     */
+    private static final ConcurrentLinkedQueue<SipEvent> sPosted = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean sDelivering = new AtomicBoolean(false);
+
+    private SipEventDispatcher() { }
+
+    static void addListener(SipEventListener listener, Executor executor) {
+        if (listener == null || executor == null) {
+            throw new IllegalArgumentException("listener and executor MUST not be null!");
+        }
+        removeListener(listener);
+        sRegistrations.add(new Registration(listener, executor));
+    }
+
+    static void removeListener(SipEventListener listener) {
+        for (Registration registration : sRegistrations) {
+            if (registration.listener == listener) {
+                sRegistrations.remove(registration);
+            }
+        }
+    }
+
+    static void setBroadcastsEnabled(boolean enabled) {
+        sBroadcastsEnabled = enabled;
+    }
+
+    /**
+     * @return true if the events have to be emitted also as broadcast intents
+     */
+    static boolean isBroadcastsEnabled() {
+        return sBroadcastsEnabled;
+    }
+
+    /**
+     * Used to avoid creating events when nobody is listening.
+     * @return true if there is at least one registered listener
+     */
+    static boolean hasListeners() {
+        return !sRegistrations.isEmpty();
+    }
+
+    static void post(SipEvent event) {
+        sPosted.add(event);
+    }
+
+    /**
+     * Delivers the posted events in order. It must not be called while holding the emitter
+     * lock. Only one thread at a time delivers: if another one is already delivering, or a
+     * listener invoked by a direct executor emits in turn, the events are delivered by the
+     * thread which is already delivering.
+     */
+    static void deliverPosted() {
+        while (!sPosted.isEmpty() && sDelivering.compareAndSet(false, true)) {
+            try {
+                SipEvent event;
+                while ((event = sPosted.poll()) != null) {
+                    dispatch(event);
+                }
+            } finally {
+                sDelivering.set(false);
+            }
+        }
+    }
+
+    private static void dispatch(SipEvent event) {
+        for (Registration registration : sRegistrations) {
+            try {
+                registration.executor.execute(() -> registration.listener.onEvent(event));
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while dispatching " + event.getAction(), exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.gotev.sipservice;
+
+/**
+ * Receives the events emitted by the sip service in the same process, without going through
+ * Intents. Register it with
+ * {@link SipServiceCommand#addEventListener(SipEventListener, java.util.concurrent.Executor)}.
+ */
+public interface SipEventListener {
+
+    /**
+     * Invoked on the executor specified when the listener has been registered.
+     * Switch over {@link SipEvent#getAction()} and cast the event to the corresponding
+     * {@link SipEvent} subclass to get its data.
+     * Events are handed to the executor in {@link SipEvent#getSequence()} order, so a serial
+     * executor (e.g. the main thread) receives them in emission order.
+     * @param event emitted event
+     */
+    void onEvent(SipEvent event);
+}
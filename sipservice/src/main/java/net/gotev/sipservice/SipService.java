@@ -7,6 +7,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.Process;
 import android.view.Surface;
 
 import org.pjsip.pjsua2.AudDevManager;
@@ -25,12 +26,16 @@ import org.pjsip.pjsua2.pjsip_transport_type_e;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 import org.pjsip.pjsua2.pjsua_destroy_flag;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Sip Service.
@@ -39,12 +44,14 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SipService extends BackgroundService implements SipServiceConstants {
 
     private static final String TAG = SipService.class.getSimpleName();
+    private static final String CALL_DETAIL_RECORDS_DIR = "cdr";
 
     private List<SipAccountData> mConfiguredAccounts = new ArrayList<>();
     private SipAccountData mConfiguredGuestAccount;
     private static final ConcurrentHashMap<String, SipAccount> mActiveSipAccounts = new ConcurrentHashMap<>();
     private BroadcastEventEmitter mBroadcastEmitter;
     private SipEndpoint mEndpoint;
+    private final EnumMap<SipAccountTransport, Integer> mTransports = new EnumMap<>(SipAccountTransport.class);
 
     public SharedPreferencesHelper getSharedPreferencesHelper() {
         return mSharedPreferencesHelper;
@@ -53,151 +60,317 @@ public class SipService extends BackgroundService implements SipServiceConstants
     private SharedPreferencesHelper mSharedPreferencesHelper;
     private volatile boolean mStarted;
     private int callStatus;
+    private final SipServiceCommandQueue mCommandQueue = new SipServiceCommandQueue();
+    private final SipServiceBinder mBinder = new SipServiceBinder(this);
+    private final StartupTimings mStartupTimings = new StartupTimings();
+    private final SipConference mConference = new SipConference();
+    private final RingbackTonePlayer mRingbackTonePlayer = new RingbackTonePlayer(this);
+    private final CallQualitySampler mCallQualitySampler = new CallQualitySampler(this);
+    private volatile CallDetailStore mCallDetailStore;
+    private volatile boolean mDND = false;
+
+    private final Object mIncomingCallStatsLock = new Object();
+    private long mRingingCalls = 0;
+    private long mLastTimeToRingingMicros = 0;
+    private long mTotalTimeToRingingMicros = 0;
+    private long mMaxTimeToRingingMicros = 0;
+    private boolean mPrewarmed;
+    private final Runnable mPrewarmIdleTimeout = this::handlePrewarmIdleTimeout;
+
+    private final Runnable mCommandRunner = () -> {
+        Runnable command = mCommandQueue.poll();
+        if (command == null) return;
+
+        command.run();
+
+        if (!mPrewarmed && isIdle()) {
+            Logger.debug(TAG, "No more configured accounts. Shutting down service");
+            shutDown();
+        }
+    };
 
     /***   Service Lifecycle Callbacks    ***/
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        mStartupTimings.start();
+
+        // The native libraries and the encrypted preferences do not depend on each other,
+        // so they are loaded in parallel. The libraries are awaited before any command runs.
+        final FutureTask<Void> nativeLibrariesLoader = new FutureTask<>(() -> {
+            long startedAt = StartupTimings.now();
+            loadNativeLibraries();
+            mStartupTimings.record(StartupTimings.Stage.LIBRARY_LOAD, startedAt);
+        }, null);
+        new Thread(nativeLibrariesLoader, TAG + "-NativeLoader").start();
 
         enqueueJob(() -> {
-            Logger.debug(TAG, "Creating SipService with priority: " + Thread.currentThread().getPriority());
+            Logger.debug(TAG, "Creating SipService on thread " + Thread.currentThread().getName()
+                    + " with priority: " + Process.getThreadPriority(Process.myTid()));
 
-            loadNativeLibraries();
+            long startedAt = StartupTimings.now();
             mSharedPreferencesHelper = SharedPreferencesHelper.getInstance(SipService.this);
-            mBroadcastEmitter = new BroadcastEventEmitter(SipService.this);
+            mBroadcastEmitter = new BroadcastEventEmitter(SipService.this, getWorkerLooper());
+            mDND = mSharedPreferencesHelper.isDND();
+            mCallDetailStore = new CallDetailStore(new File(getFilesDir(), CALL_DETAIL_RECORDS_DIR));
             loadConfiguredAccounts();
+            mStartupTimings.record(StartupTimings.Stage.PREFERENCES, startedAt);
+
+            awaitNativeLibraries(nativeLibrariesLoader);
             addAllConfiguredAccounts();
 
-            Logger.debug(TAG, "SipService created!");
+            Logger.debug(TAG, "SipService created! " + mStartupTimings);
         });
     }
 
     @Override
     public int onStartCommand(final Intent intent, int flags, int startId) {
-        enqueueJob(() -> {
-            if (intent == null) return;
+        if (intent == null || intent.getAction() == null) return START_NOT_STICKY;
 
-            String action = intent.getAction();
+        // the handlers default to call 0, while commands without a call target the whole account
+        int callID = intent.hasExtra(PARAM_CALL_ID) ? intent.getIntExtra(PARAM_CALL_ID, 0) : -1;
+        enqueueCommand(intent.getAction(),
+                intent.getStringExtra(PARAM_ACCOUNT_ID),
+                callID,
+                () -> handleCommand(intent));
 
-            if (action == null) return;
+        return START_NOT_STICKY;
+    }
 
-            switch(action) {
-                case ACTION_SET_ACCOUNT:
-                    handleSetAccount(intent);
-                    break;
-                case ACTION_REMOVE_ACCOUNT:
-                    handleRemoveAccount(intent);
-                    break;
-                case ACTION_RESTART_SIP_STACK:
-                    handleRestartSipStack();
-                    break;
-                case ACTION_MAKE_CALL:
-                    handleMakeCall(intent);
-                    break;
-                case ACTION_HANG_UP_CALL:
-                    handleHangUpCall(intent);
-                    break;
-                case ACTION_HANG_UP_CALLS:
-                    handleHangUpActiveCalls(intent);
-                    break;
-                case ACTION_HOLD_CALLS:
-                    handleHoldActiveCalls(intent);
-                    break;
-                case ACTION_GET_CALL_STATUS:
-                    handleGetCallStatus(intent);
-                    break;
-                case ACTION_SEND_DTMF:
-                    handleSendDTMF(intent);
-                    break;
-                case ACTION_ACCEPT_INCOMING_CALL:
-                    handleAcceptIncomingCall(intent);
-                    break;
-                case ACTION_DECLINE_INCOMING_CALL:
-                    handleDeclineIncomingCall(intent);
-                    break;
-                case ACTION_SET_HOLD:
-                    handleSetCallHold(intent);
-                    break;
-                case ACTION_TOGGLE_HOLD:
-                    handleToggleCallHold(intent);
-                    break;
-                case ACTION_SET_MUTE:
-                    handleSetCallMute(intent);
-                    break;
-                case ACTION_TOGGLE_MUTE:
-                    handleToggleCallMute(intent);
-                    break;
-                case ACTION_TRANSFER_CALL:
-                    handleTransferCall(intent);
-                    break;
-                case ACTION_ATTENDED_TRANSFER_CALL:
-                    handleAttendedTransferCall(intent);
-                    break;
-                case ACTION_GET_CODEC_PRIORITIES:
-                    handleGetCodecPriorities();
-                    break;
-                case ACTION_SET_CODEC_PRIORITIES:
-                    handleSetCodecPriorities(intent);
-                    break;
-                case ACTION_GET_REGISTRATION_STATUS:
-                    handleGetRegistrationStatus(intent);
-                    break;
-                case ACTION_REFRESH_REGISTRATION:
-                    handleRefreshRegistration(intent);
-                    break;
-                case ACTION_SET_DND:
-                    handleSetDND(intent);
-                    break;
-                case ACTION_SET_INCOMING_VIDEO:
-                    handleSetIncomingVideoFeed(intent);
-                    break;
-                case ACTION_SET_SELF_VIDEO_ORIENTATION:
-                    handleSetSelfVideoOrientation(intent);
-                    break;
-                case ACTION_SET_VIDEO_MUTE:
-                    handleSetVideoMute(intent);
-                    break;
-                case ACTION_START_VIDEO_PREVIEW:
-                    handleStartVideoPreview(intent);
-                    break;
-                case ACTION_STOP_VIDEO_PREVIEW:
-                    handleStopVideoPreview(intent);
-                    break;
-                case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
-                    handleSwitchVideoCaptureDevice(intent);
-                    break;
-                case ACTION_MAKE_DIRECT_CALL:
-                    handleMakeDirectCall(intent);
-                    break;
-                case ACTION_RECONNECT_CALL:
-                    handleReconnectCall();
-                    break;
-                case ACTION_MAKE_SILENT_CALL:
-                    handleMakeSilentCall(intent);
-                    break;
-                default: break;
+    /**
+     * Schedules a command through the command queue.
+     * @param action command action, used to prioritize and collapse commands
+     * @param accountID account targeted by the command, if any
+     * @param callID call targeted by the command, if any
+     * @param command job to execute on the service worker thread
+     */
+    void enqueueCommand(String action, String accountID, int callID, Runnable command) {
+        if (mCommandQueue.enqueue(action, accountID, callID, command)) {
+            enqueueJob(mCommandRunner);
+        }
+    }
+
+    /**
+     * Executes a command received as Intent.
+     * @param intent command intent
+     * @return true if the command has been executed successfully
+     */
+    private boolean handleCommand(Intent intent) {
+        switch(intent.getAction()) {
+            case ACTION_SET_ACCOUNT:
+                return handleSetAccount(intent);
+            case ACTION_REMOVE_ACCOUNT:
+                return handleRemoveAccount(intent);
+            case ACTION_RESTART_SIP_STACK:
+                return handleRestartSipStack();
+            case ACTION_MAKE_CALL:
+                return handleMakeCall(intent);
+            case ACTION_HANG_UP_CALL:
+                return handleHangUpCall(intent);
+            case ACTION_HANG_UP_CALLS:
+                return handleHangUpActiveCalls(intent);
+            case ACTION_HOLD_CALLS:
+                return handleHoldActiveCalls(intent);
+            case ACTION_GET_CALL_STATUS:
+                return handleGetCallStatus(intent);
+            case ACTION_SEND_DTMF:
+                return handleSendDTMF(intent);
+            case ACTION_ACCEPT_INCOMING_CALL:
+                return handleAcceptIncomingCall(intent);
+            case ACTION_DECLINE_INCOMING_CALL:
+                return handleDeclineIncomingCall(intent);
+            case ACTION_SET_HOLD:
+                return handleSetCallHold(intent);
+            case ACTION_TOGGLE_HOLD:
+                return handleToggleCallHold(intent);
+            case ACTION_SET_MUTE:
+                return handleSetCallMute(intent);
+            case ACTION_TOGGLE_MUTE:
+                return handleToggleCallMute(intent);
+            case ACTION_TRANSFER_CALL:
+                return handleTransferCall(intent);
+            case ACTION_ATTENDED_TRANSFER_CALL:
+                return handleAttendedTransferCall(intent);
+            case ACTION_MERGE_CALLS:
+                return handleMergeCalls(intent);
+            case ACTION_SPLIT_CALL:
+                return handleSplitCall(intent);
+            case ACTION_GET_CODEC_PRIORITIES:
+                return handleGetCodecPriorities() != null;
+            case ACTION_SET_CODEC_PRIORITIES:
+                return handleSetCodecPriorities(intent);
+            case ACTION_GET_REGISTRATION_STATUS:
+                return handleGetRegistrationStatus(intent);
+            case ACTION_REFRESH_REGISTRATION:
+                return handleRefreshRegistration(intent);
+            case ACTION_SET_DND:
+                return handleSetDND(intent);
+            case ACTION_SET_INCOMING_VIDEO:
+                return handleSetIncomingVideoFeed(intent);
+            case ACTION_SET_SELF_VIDEO_ORIENTATION:
+                return handleSetSelfVideoOrientation(intent);
+            case ACTION_SET_VIDEO_MUTE:
+                return handleSetVideoMute(intent);
+            case ACTION_START_VIDEO_PREVIEW:
+                return handleStartVideoPreview(intent);
+            case ACTION_STOP_VIDEO_PREVIEW:
+                return handleStopVideoPreview(intent);
+            case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
+                return handleSwitchVideoCaptureDevice(intent);
+            case ACTION_MAKE_DIRECT_CALL:
+                return handleMakeDirectCall(intent);
+            case ACTION_RECONNECT_CALL:
+                return handleReconnectCall();
+            case ACTION_MAKE_SILENT_CALL:
+                return handleMakeSilentCall(intent);
+            case ACTION_BATCH:
+                return handleBatch(intent);
+            case ACTION_PREWARM:
+                return handlePrewarm(intent);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Executes in order, within the current job, all the commands of a batch and emits a single
+     * {@link BroadcastEventEmitter.BroadcastAction#BATCH_RESULT} broadcast.
+     * Nested batches are not supported and are reported as failed.
+     * @param intent batch intent
+     * @return true if all the commands have been executed successfully
+     */
+    private boolean handleBatch(Intent intent) {
+        String batchID = intent.getStringExtra(PARAM_BATCH_ID);
+        ArrayList<Intent> commands = intent.getParcelableArrayListExtra(PARAM_BATCH_COMMANDS);
+        boolean stopOnFailure = intent.getBooleanExtra(PARAM_BATCH_STOP_ON_FAILURE, false);
+
+        if (commands == null) {
+            mBroadcastEmitter.batchResult(batchID, 0, new boolean[0]);
+            return false;
+        }
+
+        boolean[] results = new boolean[commands.size()];
+        int executed = 0;
+        boolean success = true;
+
+        for (Intent command : commands) {
+            boolean result;
+            if (command == null || command.getAction() == null || ACTION_BATCH.equals(command.getAction())) {
+                Logger.error(TAG, "Invalid command in batch " + batchID);
+                result = false;
+            } else {
+                try {
+                    result = handleCommand(command);
+                } catch (Exception exc) {
+                    Logger.error(TAG, "Error while executing " + command.getAction() + " in batch " + batchID, exc);
+                    result = false;
+                }
             }
 
-            if (mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null) {
-                Logger.debug(TAG, "No more configured accounts. Shutting down service");
-                stopSelf();
+            results[executed++] = result;
+            success &= result;
+            if (!result && stopOnFailure) break;
+        }
+
+        mBroadcastEmitter.batchResult(batchID, commands.size(),
+                executed == results.length ? results : Arrays.copyOf(results, executed));
+        return success;
+    }
+
+    private boolean handlePrewarm(Intent intent) {
+        int[] codes = intent.getIntArrayExtra(PARAM_PREWARM_TRANSPORTS);
+        SipAccountTransport[] transports;
+        if (codes == null) {
+            transports = new SipAccountTransport[0];
+        } else {
+            transports = new SipAccountTransport[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                transports[i] = SipAccountTransport.getTransportByCode(codes[i]);
             }
-        });
+        }
 
-        return START_NOT_STICKY;
+        return handlePrewarm(intent.getLongExtra(PARAM_IDLE_TIMEOUT, PREWARM_DEFAULT_IDLE_TIMEOUT), transports);
+    }
+
+    /**
+     * Starts the stack ahead of the first account or call and keeps it, and the service, alive
+     * even if there are no configured accounts until the idle timeout expires.
+     * Subsequent prewarm requests restart the idle timeout.
+     * @param idleTimeoutMillis idle time after which the stack is torn down if it's still unused
+     * @param transports transports to create along with the stack, UDP if none is specified
+     * @return true if the stack and the transports are started
+     */
+    boolean handlePrewarm(long idleTimeoutMillis, SipAccountTransport... transports) {
+        startStack();
+
+        if (!mStarted) {
+            Logger.error(TAG, "Unable to prewarm the SIP stack");
+            return false;
+        }
+
+        try {
+            if (transports.length == 0) {
+                ensureTransport(SipAccountTransport.UDP);
+            }
+            for (SipAccountTransport transport : transports) {
+                ensureTransport(transport);
+            }
+        } catch (Exception exc) {
+            Logger.error(TAG, "Unable to prewarm the SIP transports", exc);
+            return false;
+        }
+
+        mPrewarmed = true;
+        dequeueJob(mPrewarmIdleTimeout);
+        enqueueDelayedJob(mPrewarmIdleTimeout, idleTimeoutMillis);
+        Logger.debug(TAG, "SIP stack prewarmed. Idle timeout: " + idleTimeoutMillis + "ms");
+        return true;
+    }
+
+    private void handlePrewarmIdleTimeout() {
+        mPrewarmed = false;
+
+        if (isIdle()) {
+            Logger.debug(TAG, "Prewarmed SIP stack unused. Shutting down service");
+            shutDown();
+        }
+    }
+
+    private boolean isIdle() {
+        return mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null;
+    }
+
+    /**
+     * Stops the stack and the service. The stack is stopped here and not only in onDestroy,
+     * since stopSelf has no effect as long as a client is bound to the service.
+     */
+    private void shutDown() {
+        if (mStarted) {
+            stopStack();
+        }
+        stopSelf();
     }
 
     @Override
     public void onDestroy() {
+        dequeueJob(mPrewarmIdleTimeout);
         enqueueJob(() -> {
             Logger.debug(TAG, "Destroying SipService");
+            // the worker thread quits after this job, so the pending commands would never run
+            mCommandQueue.close();
             stopStack();
+            if (mBroadcastEmitter != null) {
+                mBroadcastEmitter.release();
+            }
+            if (mCallDetailStore != null) {
+                mCallDetailStore.close();
+            }
         });
         super.onDestroy();
     }
@@ -223,182 +396,245 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 callStatus, 0);
     }
 
-    private void handleGetCallStatus(Intent intent) {
+    private boolean handleGetCallStatus(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleGetCallStatus(accountID, callID) != pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED;
+    }
+
+    int handleGetCallStatus(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            int callStatusCode = callStatus;
-            try {
-                callStatusCode = sipCall.getInfo().getLastStatusCode();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+        if (sipCall == null) return pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED;
 
-            mBroadcastEmitter.callState(accountID, callID, sipCall.getCurrentState(), callStatusCode, sipCall.getConnectTimestamp());
+        int callStatusCode = callStatus;
+        try {
+            callStatusCode = sipCall.getInfoSnapshot().getLastStatusCode();
+        } catch (Exception ex) {
+            ex.printStackTrace();
         }
+
+        int callState = sipCall.getCurrentState();
+        mBroadcastEmitter.callState(accountID, callID, callState, callStatusCode, sipCall.getConnectTimestamp());
+        return callState;
     }
 
-    private void handleSendDTMF(Intent intent) {
+    private boolean handleSendDTMF(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
         String dtmf = intent.getStringExtra(PARAM_DTMF);
 
+        return handleSendDTMF(accountID, callID, dtmf);
+    }
+
+    boolean handleSendDTMF(String accountID, int callID, String dtmf) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-             try {
-                sipCall.dialDtmf(dtmf);
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while dialing dtmf: " + dtmf + ". AccountID: "
-                             + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.dialDtmf(dtmf);
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while dialing dtmf: " + dtmf + ". AccountID: "
+                         + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleAcceptIncomingCall(Intent intent) {
+    private boolean handleAcceptIncomingCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
 
+        return handleAcceptIncomingCall(accountID, callID, isVideo);
+    }
+
+    boolean handleAcceptIncomingCall(String accountID, int callID, boolean isVideo) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
-            try {
-                sipCall.setVideoParams(isVideo, false);
-                sipCall.acceptIncomingCall();
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while accepting incoming call. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.setVideoParams(isVideo, false);
+            sipCall.acceptIncomingCall();
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while accepting incoming call. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleSetCallHold(Intent intent) {
+    private boolean handleSetCallHold(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        boolean hold = intent.getBooleanExtra(PARAM_HOLD, false);
+
+        return handleSetCallHold(accountID, callID, hold);
+    }
 
+    boolean handleSetCallHold(String accountID, int callID, boolean hold) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            boolean hold = intent.getBooleanExtra(PARAM_HOLD, false);
-            try {
-                sipCall.setHold(hold);
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while setting hold. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.setHold(hold);
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while setting hold. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleToggleCallHold(Intent intent) {
+    private boolean handleToggleCallHold(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleToggleCallHold(accountID, callID);
+    }
+
+    boolean handleToggleCallHold(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            try {
-                sipCall.toggleHold();
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while toggling hold. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.toggleHold();
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while toggling hold. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleSetCallMute(Intent intent) {
+    private boolean handleSetCallMute(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        boolean mute = intent.getBooleanExtra(PARAM_MUTE, false);
+
+        return handleSetCallMute(accountID, callID, mute);
+    }
 
+    boolean handleSetCallMute(String accountID, int callID, boolean mute) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            boolean mute = intent.getBooleanExtra(PARAM_MUTE, false);
-            try {
-                sipCall.setMute(mute);
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while setting mute. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.setMute(mute);
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while setting mute. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleToggleCallMute(Intent intent) {
+    private boolean handleToggleCallMute(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleToggleCallMute(accountID, callID);
+    }
+
+    boolean handleToggleCallMute(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            try {
-                sipCall.toggleMute();
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while toggling mute. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.toggleMute();
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while toggling mute. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleDeclineIncomingCall(Intent intent) {
+    private boolean handleDeclineIncomingCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleDeclineIncomingCall(accountID, callID);
+    }
+
+    boolean handleDeclineIncomingCall(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            try {
-                sipCall.declineIncomingCall();
-            } catch (Exception exc) {
-                Logger.error(TAG, "Error while declining incoming call. AccountID: "
-                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
-            }
+        if (sipCall == null) return false;
+
+        try {
+            sipCall.declineIncomingCall();
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while declining incoming call. AccountID: "
+                    + getValue(getApplicationContext(), accountID) + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleHangUpCall(Intent intent) {
+    private boolean handleHangUpCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleHangUpCall(accountID, callID);
+    }
+
+    boolean handleHangUpCall(String accountID, int callID) {
         try {
-            hangupCall(accountID, callID);
+            return hangupCall(accountID, callID);
         } catch (Exception exc) {
             Logger.error(TAG, "Error while hanging up call", exc);
             notifyCallDisconnected(accountID, callID);
+            return false;
         }
     }
 
-    private void handleHangUpActiveCalls(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleHangUpActiveCalls(Intent intent) {
+        return handleHangUpActiveCalls(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleHangUpActiveCalls(String accountID) {
         SipAccount account = mActiveSipAccounts.get(accountID);
-        if (account == null) return;
+        if (account == null) return false;
 
-        Set<Integer> activeCallIDs = account.getCallIDs();
+        int[] activeCallIDs = account.getActiveCallIDs();
 
-        if (activeCallIDs == null || activeCallIDs.isEmpty()) return;
+        if (activeCallIDs.length == 0) return true;
 
+        boolean success = true;
         for (int callID : activeCallIDs) {
             try {
-                hangupCall(accountID, callID);
+                success &= hangupCall(accountID, callID);
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while hanging up call", exc);
                 notifyCallDisconnected(accountID, callID);
+                success = false;
             }
         }
+        return success;
     }
 
-    private void hangupCall(String accountID, int callID) {
+    private boolean hangupCall(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall != null) {
             sipCall.hangUp();
+            return true;
         }
+        return false;
     }
 
-    private void handleHoldActiveCalls(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleHoldActiveCalls(Intent intent) {
+        return handleHoldActiveCalls(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleHoldActiveCalls(String accountID) {
         SipAccount account = mActiveSipAccounts.get(accountID);
-        if (account == null) return;
+        if (account == null) return false;
 
-        Set<Integer> activeCallIDs = account.getCallIDs();
+        int[] activeCallIDs = account.getActiveCallIDs();
 
-        if (activeCallIDs == null || activeCallIDs.isEmpty()) return;
+        if (activeCallIDs.length == 0) return true;
 
+        boolean success = true;
         for (int callID : activeCallIDs) {
             try {
                 SipCall sipCall = getCall(accountID, callID);
@@ -407,69 +643,127 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 }
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while holding call", exc);
+                success = false;
             }
         }
+        return success;
     }
 
-    private void handleTransferCall(Intent intent) {
+    private boolean handleTransferCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
         String number = intent.getStringExtra(PARAM_NUMBER);
 
+        return handleTransferCall(accountID, callID, number);
+    }
+
+    boolean handleTransferCall(String accountID, int callID, String number) {
         try {
             SipCall sipCall = getCall(accountID, callID);
-            if (sipCall != null) {
-                sipCall.transferTo(number);
-            }
+            if (sipCall == null) return false;
+
+            sipCall.transferTo(number);
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while transferring call to " + getValue(getApplicationContext(), number), exc);
             notifyCallDisconnected(accountID, callID);
+            return false;
         }
     }
 
-    private void handleAttendedTransferCall(Intent intent) {
+    private boolean handleAttendedTransferCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callIdOrig = intent.getIntExtra(PARAM_CALL_ID, 0);
+        int callIdDest = intent.getIntExtra(PARAM_CALL_ID_DEST, 0);
+
+        return handleAttendedTransferCall(accountID, callIdOrig, callIdDest);
+    }
 
+    boolean handleAttendedTransferCall(String accountID, int callIdOrig, int callIdDest) {
         try {
             SipCall sipCallOrig = getCall(accountID, callIdOrig);
-            if (sipCallOrig != null) {
-                int callIdDest = intent.getIntExtra(PARAM_CALL_ID_DEST, 0);
-                SipCall sipCallDest = getCall(accountID, callIdDest);
-                sipCallOrig.xferReplaces(sipCallDest, new CallOpParam());
+            if (sipCallOrig == null) return false;
+
+            SipCall sipCallDest = getCall(accountID, callIdDest);
+            try (NativeScope scope = new NativeScope()) {
+                sipCallOrig.xferReplaces(sipCallDest, scope.add(new CallOpParam(), CallOpParam::delete));
             }
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while finalizing attended transfer", exc);
             notifyCallDisconnected(accountID, callIdOrig);
+            return false;
         }
     }
 
-    private void handleSetIncomingVideoFeed(Intent intent) {
+    private boolean handleMergeCalls(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        int otherCallID = intent.getIntExtra(PARAM_CALL_ID_DEST, 0);
+
+        return handleMergeCalls(accountID, callID, otherCallID);
+    }
 
+    boolean handleMergeCalls(String accountID, int callID, int otherCallID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            Bundle bundle = intent.getExtras();
-            if (bundle != null) {
-                Surface surface = bundle.getParcelable(PARAM_SURFACE);
-                sipCall.setIncomingVideoFeed(surface);
-            }
-        }
+        if (sipCall == null) return false;
+
+        SipCall otherSipCall = getCall(accountID, otherCallID);
+        if (otherSipCall == null) return false;
+
+        return mConference.merge(sipCall, otherSipCall);
     }
 
-    private void handleSetSelfVideoOrientation(Intent intent) {
+    private boolean handleSplitCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleSplitCall(accountID, callID);
+    }
+
+    boolean handleSplitCall(String accountID, int callID) {
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall == null) return false;
+
+        return mConference.split(sipCall);
+    }
+
+    private boolean handleSetIncomingVideoFeed(Intent intent) {
+        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+
+        Bundle bundle = intent.getExtras();
+        if (bundle == null) return false;
+
+        Surface surface = bundle.getParcelable(PARAM_SURFACE);
+        return handleSetIncomingVideoFeed(accountID, callID, surface);
+    }
+
+    boolean handleSetIncomingVideoFeed(String accountID, int callID, Surface surface) {
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall == null) return false;
+
+        sipCall.setIncomingVideoFeed(surface);
+        return true;
+    }
+
+    private boolean handleSetSelfVideoOrientation(Intent intent) {
+        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        int orientation = intent.getIntExtra(PARAM_ORIENTATION, -1);
+
+        return handleSetSelfVideoOrientation(accountID, callID, orientation);
+    }
+
+    boolean handleSetSelfVideoOrientation(String accountID, int callID, int orientation) {
         SipAccount sipAccount = mActiveSipAccounts.get(accountID);
-        if (sipAccount != null) {
-            SipCall sipCall = getCall(accountID, callID);
-            if (sipCall != null) {
-                int orientation = intent.getIntExtra(PARAM_ORIENTATION, -1);
-                setSelfVideoOrientation(sipCall, orientation);
-            }
-        }
+        if (sipAccount == null) return false;
+
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall == null) return false;
+
+        setSelfVideoOrientation(sipCall, orientation);
+        return true;
     }
 
     void setSelfVideoOrientation(SipCall sipCall, int orientation) {
@@ -506,108 +800,142 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleSetVideoMute(Intent intent) {
+    private boolean handleSetVideoMute(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        boolean mute = intent.getBooleanExtra(PARAM_VIDEO_MUTE, false);
+
+        return handleSetVideoMute(accountID, callID, mute);
+    }
 
+    boolean handleSetVideoMute(String accountID, int callID, boolean mute) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            boolean mute = intent.getBooleanExtra(PARAM_VIDEO_MUTE, false);
-            sipCall.setVideoMute(mute);
-        }
+        if (sipCall == null) return false;
+
+        sipCall.setVideoMute(mute);
+        return true;
     }
 
-    private void handleStartVideoPreview(Intent intent) {
+    private boolean handleStartVideoPreview(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        Bundle bundle = intent.getExtras();
+        if (bundle == null) return false;
+
+        Surface surface = bundle.getParcelable(PARAM_SURFACE);
+        return handleStartVideoPreview(accountID, callID, surface);
+    }
+
+    boolean handleStartVideoPreview(String accountID, int callID, Surface surface) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            Bundle bundle = intent.getExtras();
-            if (bundle != null) {
-                Surface surface = intent.getExtras().getParcelable(PARAM_SURFACE);
-                sipCall.startPreviewVideoFeed(surface);
-            }
-        }
+        if (sipCall == null) return false;
+
+        sipCall.startPreviewVideoFeed(surface);
+        return true;
     }
 
-    private void handleStopVideoPreview(Intent intent) {
+    private boolean handleStopVideoPreview(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleStopVideoPreview(accountID, callID);
+    }
+
+    boolean handleStopVideoPreview(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            sipCall.stopPreviewVideoFeed();
-        }
+        if (sipCall == null) return false;
+
+        sipCall.stopPreviewVideoFeed();
+        return true;
     }
 
     // Switch Camera
-    private void handleSwitchVideoCaptureDevice(Intent intent) {
+    private boolean handleSwitchVideoCaptureDevice(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
 
+        return handleSwitchVideoCaptureDevice(accountID, callID);
+    }
+
+    boolean handleSwitchVideoCaptureDevice(String accountID, int callID) {
         final SipCall sipCall = getCall(accountID, callID);
-        if (sipCall != null) {
-            try {
-                CallVidSetStreamParam callVidSetStreamParam = new CallVidSetStreamParam();
-                callVidSetStreamParam.setCapDev(sipCall.isFrontCamera()
-                        ? BACK_CAMERA_CAPTURE_DEVICE
-                        : FRONT_CAMERA_CAPTURE_DEVICE);
-                sipCall.setFrontCamera(!sipCall.isFrontCamera());
-                sipCall.vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_CHANGE_CAP_DEV, callVidSetStreamParam);
-            } catch (Exception ex) {
-                Logger.error(TAG, "Error while switching capture device", ex);
-            }
+        if (sipCall == null) return false;
+
+        try (NativeScope scope = new NativeScope()) {
+            CallVidSetStreamParam callVidSetStreamParam = scope.add(new CallVidSetStreamParam(), CallVidSetStreamParam::delete);
+            callVidSetStreamParam.setCapDev(sipCall.isFrontCamera()
+                    ? BACK_CAMERA_CAPTURE_DEVICE
+                    : FRONT_CAMERA_CAPTURE_DEVICE);
+            sipCall.setFrontCamera(!sipCall.isFrontCamera());
+            sipCall.vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_CHANGE_CAP_DEV, callVidSetStreamParam);
+            return true;
+        } catch (Exception ex) {
+            Logger.error(TAG, "Error while switching capture device", ex);
+            return false;
         }
     }
 
-    private void handleMakeCall(Intent intent) {
+    private boolean handleMakeCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         String number = intent.getStringExtra(PARAM_NUMBER);
         boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
-        boolean isVideoConference = false;
-        boolean isTransfer = false;
+        boolean isVideoConference = intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false);
+        boolean isTransfer = intent.getBooleanExtra(PARAM_IS_TRANSFER, false);
+
+        return handleMakeCall(accountID, number, isVideo, isVideoConference, isTransfer) >= 0;
+    }
+
+    int handleMakeCall(String accountID, String number, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
         if (isVideo) {
-            isVideoConference = intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false);
-        // do not allow attended transfer on video call for now
+            // do not allow attended transfer on video call for now
+            isTransfer = false;
         } else {
-            isTransfer = intent.getBooleanExtra(PARAM_IS_TRANSFER, false);
+            isVideoConference = false;
         }
 
         Logger.debug(TAG, "Making call to " + getValue(getApplicationContext(), number));
 
         try {
-            SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(number, isVideo, isVideoConference, isTransfer);
-            call.setVideoParams(isVideo, isVideoConference);
-            mBroadcastEmitter.outgoingCall(accountID, call.getId(), number, isVideo, isVideoConference, isTransfer);
+            SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(number, number, isVideo, isVideoConference, isTransfer);
+            call.notifyOutgoingCall();
+            return call.getId();
         } catch (Exception exc) {
             Logger.error(TAG, "Error while making outgoing call", exc);
             mBroadcastEmitter.outgoingCall(accountID, -1, number, false, false, false);
+            return -1;
         }
     }
 
-    private void handleMakeDirectCall(Intent intent) {
+    private boolean handleMakeDirectCall(Intent intent) {
         Bundle bundle = intent.getExtras();
-        if (bundle == null) return;
+        if (bundle == null) return false;
         Uri uri = bundle.getParcelable(PARAM_DIRECT_CALL_URI);
-        if (uri == null) return;
+        if (uri == null) return false;
         String sipServer = intent.getStringExtra(PARAM_DIRECT_CALL_SIP_SERVER);
         String name = intent.getStringExtra(PARAM_GUEST_NAME);
         boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
-        boolean isVideoConference = false;
-        if (isVideo) {
-            isVideoConference = intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false);
-        }
+        boolean isVideoConference = intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false);
         SipAccountTransport transport = SipAccountTransport.getTransportByCode(
                 intent.getIntExtra(PARAM_DIRECT_CALL_TRANSPORT, 0)
         );
 
+        return handleMakeDirectCall(uri, sipServer, name, isVideo, isVideoConference, transport) >= 0;
+    }
+
+    int handleMakeDirectCall(Uri uri, String sipServer, String name, boolean isVideo,
+                             boolean isVideoConference, SipAccountTransport transport) {
+        if (!isVideo) {
+            isVideoConference = false;
+        }
+
         Logger.debug(TAG, "Making call to " + getValue(getApplicationContext(), uri.getUserInfo()));
         String accountID = "sip:"+name+"@"+uri.getHost();
         String sipUri = "sip:" + uri.getUserInfo()+"@"+uri.getHost();
 
         try {
             startStack();
+            ensureTransport(transport);
             SipAccountData sipAccountData = new SipAccountData()
                     .setHost(sipServer != null ? sipServer : uri.getHost())
                     .setUsername(name)
@@ -624,41 +952,52 @@ public class SipService extends BackgroundService implements SipServiceConstants
             // Overwrite the old value if present
             mActiveSipAccounts.put(accountID, pjSipAndroidAccount);
 
-            SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(sipUri, isVideo, isVideoConference, false);
+            SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(sipUri, uri.getUserInfo(), isVideo, isVideoConference, false);
             if (call != null) {
-                call.setVideoParams(isVideo, isVideoConference);
-                mBroadcastEmitter.outgoingCall(accountID, call.getId(), uri.getUserInfo(), isVideo, isVideoConference, false);
+                call.notifyOutgoingCall();
+                return call.getId();
             } else {
                 Logger.error(TAG, "Error while making a direct call as Guest");
                 mBroadcastEmitter.outgoingCall(accountID, -1, uri.getUserInfo(), false, false, false);
+                return -1;
             }
         } catch (Exception ex) {
             Logger.error(TAG, "Error while making a direct call as Guest", ex);
             mBroadcastEmitter.outgoingCall(accountID, -1, uri.getUserInfo(), false, false, false);
+            return -1;
         }
     }
 
-    private void handleMakeSilentCall(Intent intent) {
+    private boolean handleMakeSilentCall(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         String number = intent.getStringExtra(PARAM_NUMBER);
 
+        return handleMakeSilentCall(accountID, number);
+    }
+
+    boolean handleMakeSilentCall(String accountID, String number) {
         Logger.debug(TAG, "Making silent call to " + getValue(getApplicationContext(), number));
 
         try {
-            mBroadcastEmitter.silentCallStatus(mActiveSipAccounts.get(accountID).addOutgoingCall(number) != null, number);
+            boolean success = mActiveSipAccounts.get(accountID).addOutgoingCall(number) != null;
+            mBroadcastEmitter.silentCallStatus(success, number);
+            return success;
         } catch (Exception exc) {
             mBroadcastEmitter.silentCallStatus(false, number);
             Logger.error(TAG, "Error while making silent call", exc);
+            return false;
         }
     }
 
-    private void handleReconnectCall() {
-        try {
+    boolean handleReconnectCall() {
+        try (NativeScope scope = new NativeScope()) {
             getBroadcastEmitter().callReconnectionState(CallReconnectionState.PROGRESS);
-            mEndpoint.handleIpChange(new IpChangeParam());
+            mEndpoint.handleIpChange(scope.add(new IpChangeParam(), IpChangeParam::delete));
             Logger.info(TAG, "Call reconnection started");
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while reconnecting the call", exc);
+            return false;
         }
     }
 
@@ -668,15 +1007,20 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
     /***   Sip Account Management    ***/
 
-    private void handleRefreshRegistration(Intent intent) {
+    private boolean handleRefreshRegistration(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int regExpTimeout = intent.getIntExtra(PARAM_REG_EXP_TIMEOUT, 0);
         String regContactParams = intent.getStringExtra(PARAM_REG_CONTACT_PARAMS);
+
+        return handleRefreshRegistration(accountID, regExpTimeout, regContactParams);
+    }
+
+    boolean handleRefreshRegistration(String accountID, int regExpTimeout, String regContactParams) {
         boolean refresh = true;
         if (!mActiveSipAccounts.isEmpty() && mActiveSipAccounts.containsKey(accountID)){
             try {
                 SipAccount sipAccount = mActiveSipAccounts.get(accountID);
-                if (sipAccount == null) return;
+                if (sipAccount == null) return false;
 
                 if (regExpTimeout != 0 && regExpTimeout != sipAccount.getData().getRegExpirationTimeout()) {
                     sipAccount.getData().setRegExpirationTimeout(regExpTimeout);
@@ -698,19 +1042,23 @@ public class SipService extends BackgroundService implements SipServiceConstants
                     sipAccount.modify(sipAccount.getData().getAccountConfig());
                     sipAccount.getData().setRegExpirationTimeout(100);
                 }
+                return true;
             } catch (Exception ex) {
                 Logger.error(TAG, "Error while refreshing registration");
                 ex.printStackTrace();
+                return false;
             }
         } else {
             Logger.debug(TAG, "account "+getValue(getApplicationContext(), accountID)+" not set");
+            return false;
         }
     }
 
-    private void handleRestartSipStack() {
+    boolean handleRestartSipStack() {
         Logger.debug(TAG, "Restarting SIP stack");
         stopStack();
         addAllConfiguredAccounts();
+        return mStarted;
     }
 
     private void handleResetAccounts() {
@@ -732,9 +1080,11 @@ public class SipService extends BackgroundService implements SipServiceConstants
         persistConfiguredAccounts();
     }
 
-    private void handleRemoveAccount(Intent intent) {
-        String accountIDtoRemove = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleRemoveAccount(Intent intent) {
+        return handleRemoveAccount(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleRemoveAccount(String accountIDtoRemove) {
         Logger.debug(TAG, "Removing " + getValue(getApplicationContext(), accountIDtoRemove));
 
         Iterator<SipAccountData> iterator = mConfiguredAccounts.iterator();
@@ -747,68 +1097,147 @@ public class SipService extends BackgroundService implements SipServiceConstants
                     removeAccount(accountIDtoRemove);
                     iterator.remove();
                     persistConfiguredAccounts();
+                    return true;
                 } catch (Exception exc) {
                     Logger.error(TAG, "Error while removing account " + getValue(getApplicationContext(), accountIDtoRemove), exc);
+                    return false;
                 }
-                break;
             }
         }
+        return false;
     }
 
-    private void handleSetAccount(Intent intent) {
+    private boolean handleSetAccount(Intent intent) {
         SipAccountData data = intent.getParcelableExtra(PARAM_ACCOUNT_DATA);
+        ArrayList<CodecPriority> codecPriorities = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES);
+
+        return handleSetAccount(data, codecPriorities);
+    }
 
+    boolean handleSetAccount(SipAccountData data, ArrayList<CodecPriority> codecPriorities) {
         int index = mConfiguredAccounts.indexOf(data);
         if (index == -1) {
             handleResetAccounts();
             Logger.debug(TAG, "Adding " + getValue(getApplicationContext(), data.getIdUri()));
 
             try {
-                handleSetCodecPriorities(intent);
+                handleSetCodecPriorities(codecPriorities);
                 addAccount(data);
                 mConfiguredAccounts.add(data);
                 persistConfiguredAccounts();
+                return true;
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while adding " + getValue(getApplicationContext(), data.getIdUri()), exc);
+                return false;
             }
         } else {
             Logger.debug(TAG, "Reconfiguring " + getValue(getApplicationContext(), data.getIdUri()));
 
             try {
                 //removeAccount(data.getIdUri());
-                handleSetCodecPriorities(intent);
+                handleSetCodecPriorities(codecPriorities);
                 addAccount(data);
                 mConfiguredAccounts.set(index, data);
                 persistConfiguredAccounts();
+                return true;
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while reconfiguring " + getValue(getApplicationContext(), data.getIdUri()), exc);
+                return false;
             }
         }
     }
 
-    private void handleGetRegistrationStatus(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleGetRegistrationStatus(Intent intent) {
+        return handleGetRegistrationStatus(intent.getStringExtra(PARAM_ACCOUNT_ID)) != -1;
+    }
 
+    int handleGetRegistrationStatus(String accountID) {
         if (!mStarted || mActiveSipAccounts.get(accountID) == null) {
             mBroadcastEmitter.registrationState("", 400);
-            return;
+            return 400;
         }
 
         SipAccount account = mActiveSipAccounts.get(accountID);
         try {
-            mBroadcastEmitter.registrationState(accountID, account.getInfo().getRegStatus());
+            int regStatus = account.getInfo().getRegStatus();
+            mBroadcastEmitter.registrationState(accountID, regStatus);
+            return regStatus;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while getting registration status for " + getValue(getApplicationContext(), accountID), exc);
+            return -1;
         }
     }
 
-    private void handleSetDND(Intent intent) {
-        boolean dnd = intent.getBooleanExtra(PARAM_DND, false);
+    private boolean handleSetDND(Intent intent) {
+        return handleSetDND(intent.getBooleanExtra(PARAM_DND, false));
+    }
+
+    boolean handleSetDND(boolean dnd) {
+        mDND = dnd;
         mSharedPreferencesHelper.setDND(dnd);
+        return true;
     }
 
+    /**
+     * @return true if do not disturb is enabled. Cached in memory, since it's checked
+     * before answering every incoming call
+     */
     public boolean isDND() {
-        return mSharedPreferencesHelper.isDND();
+        return mDND;
+    }
+
+    /**
+     * Records the time an incoming call took to be answered with 180 Ringing.
+     * @param nanos time from the reception of the INVITE to the 180 Ringing, in nanoseconds
+     */
+    void onIncomingCallRinging(long nanos) {
+        long micros = nanos / 1000;
+        synchronized (mIncomingCallStatsLock) {
+            mRingingCalls++;
+            mLastTimeToRingingMicros = micros;
+            mTotalTimeToRingingMicros += micros;
+            if (micros > mMaxTimeToRingingMicros) {
+                mMaxTimeToRingingMicros = micros;
+            }
+        }
+    }
+
+    /**
+     * Gets a snapshot of the time taken to answer the incoming calls with 180 Ringing.
+     * @return incoming calls metrics
+     */
+    public IncomingCallStats getIncomingCallStats() {
+        synchronized (mIncomingCallStatsLock) {
+            return new IncomingCallStats(mRingingCalls, mLastTimeToRingingMicros,
+                    mRingingCalls == 0 ? 0 : mTotalTimeToRingingMicros / mRingingCalls,
+                    mMaxTimeToRingingMicros);
+        }
+    }
+
+    /**
+     * Stores the record of a call which has been disconnected, on the worker thread.
+     * The calls disconnected while the service is being destroyed (e.g. by the stack shutdown)
+     * are recorded inline, since the worker thread is quitting and would drop the job.
+     * @param record call detail record
+     */
+    void recordCall(CallDetailRecord record) {
+        Runnable job = () -> appendCallDetailRecord(record);
+        if (!enqueueJob(job)) {
+            job.run();
+        }
+    }
+
+    private void appendCallDetailRecord(CallDetailRecord record) {
+        CallDetailStore store = mCallDetailStore;
+        if (store != null) {
+            store.append(record);
+        }
+    }
+
+    List<CallDetailRecord> getCallDetailRecords(String accountID, long fromTimestamp, long toTimestamp) {
+        CallDetailStore store = mCallDetailStore;
+        if (store == null) return new ArrayList<>();
+        return store.query(accountID, fromTimestamp, toTimestamp);
     }
 
     /***   Sip Stack Management    ***/
@@ -839,6 +1268,38 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
+    private void awaitNativeLibraries(FutureTask<Void> loader) {
+        try {
+            loader.get();
+        } catch (ExecutionException exc) {
+            // loadNativeLibraries already logged the error
+            if (exc.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exc.getCause();
+            }
+            throw new RuntimeException(exc.getCause());
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exc);
+        }
+    }
+
+    /**
+     * Gets the durations of the startup stages.
+     * @return snapshot of the startup timings
+     */
+    public StartupTimings getStartupTimings() {
+        return mStartupTimings.snapshot();
+    }
+
+    /**
+     * Called when a REGISTER gets a response, or fails without one (e.g. timeout).
+     */
+    void onRegistrationState() {
+        if (mStartupTimings.recordFirstRegister()) {
+            Logger.debug(TAG, "First REGISTER completed. Startup timings: " + mStartupTimings);
+        }
+    }
+
     /**
      * Starts PJSIP Stack.
      */
@@ -849,12 +1310,16 @@ public class SipService extends BackgroundService implements SipServiceConstants
             return;
         }
 
-        try {
+        try (NativeScope scope = new NativeScope()) {
             Logger.debug(TAG, "Starting PJSIP");
+            long startedAt = StartupTimings.now();
             mEndpoint = new SipEndpoint(this);
             mEndpoint.libCreate();
+            mStartupTimings.record(StartupTimings.Stage.LIB_CREATE, startedAt);
 
-            EpConfig epConfig = new EpConfig();
+            startedAt = StartupTimings.now();
+
+            EpConfig epConfig = scope.add(new EpConfig(), EpConfig::delete);
             epConfig.getUaConfig().setUserAgent(AGENT_NAME);
             epConfig.getMedConfig().setHasIoqueue(true);
             epConfig.getMedConfig().setClockRate(16000);
@@ -864,19 +1329,19 @@ public class SipService extends BackgroundService implements SipServiceConstants
             epConfig.getMedConfig().setThreadCnt(2);
             SipServiceUtils.setSipLogger(epConfig);
             mEndpoint.libInit(epConfig);
+            mStartupTimings.record(StartupTimings.Stage.LIB_INIT, startedAt);
 
-            TransportConfig udpTransport = new TransportConfig();
-            udpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
-            TransportConfig tcpTransport = new TransportConfig();
-            tcpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
-            TransportConfig tlsTransport = new TransportConfig();
-            tlsTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
-            SipTlsUtils.setTlsConfig(this, mSharedPreferencesHelper.isVerifySipServerCert(), tlsTransport);
-
-            mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP, udpTransport);
-            mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_TCP, tcpTransport);
-            mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_TLS, tlsTransport);
+            // only the transports used by the configured accounts are created here, the
+            // others are created when prewarming or when an account which needs them is added
+            startedAt = StartupTimings.now();
+            for (SipAccountData accountData : mConfiguredAccounts) {
+                ensureTransport(accountData.getEffectiveTransport());
+            }
+            mStartupTimings.record(StartupTimings.Stage.TRANSPORTS, startedAt);
+
+            startedAt = StartupTimings.now();
             mEndpoint.libStart();
+            mStartupTimings.record(StartupTimings.Stage.LIB_START, startedAt);
 
             ArrayList<CodecPriority> codecPriorities = getConfiguredCodecPriorities();
             SipServiceUtils.setAudioCodecPriorities(codecPriorities, mEndpoint);
@@ -917,14 +1382,21 @@ public class SipService extends BackgroundService implements SipServiceConstants
              * *************************************
              */
 
+            mRingbackTonePlayer.release();
+            NativeScope.logLiveObjects();
+
             /* Try to force GC to do its job before destroying the library
-             * since it's recommended to do that by PJSUA examples
+             * since it's recommended to do that by PJSUA examples.
+             * The temporaries created by the service are deleted by NativeScope,
+             * this takes care of the objects still waiting for their finalizers
+             * (e.g. the ones created by the app or by SWIG getters)
              */
             Runtime.getRuntime().gc();
 
             mEndpoint.libDestroy(pjsua_destroy_flag.PJSUA_DESTROY_NO_NETWORK);
             mEndpoint.delete();
             mEndpoint = null;
+            mTransports.clear();
 
             Logger.debug(TAG, "PJSIP stopped");
             mBroadcastEmitter.stackStatus(false);
@@ -935,6 +1407,43 @@ public class SipService extends BackgroundService implements SipServiceConstants
         } finally {
             mStarted = false;
             mEndpoint = null;
+            mTransports.clear();
+            CallRegistry.reset();
+            mConference.reset();
+            mCallQualitySampler.reset();
+        }
+    }
+
+    /**
+     * Creates the SIP transport of the given type, if it has not been created yet.
+     * The TLS configuration (and the CA bundle) is loaded only when a TLS transport is needed.
+     * @param transport transport needed by an account
+     * @throws Exception if the transport can't be created
+     */
+    private void ensureTransport(SipAccountTransport transport) throws Exception {
+        if (mTransports.containsKey(transport)) return;
+
+        try (NativeScope scope = new NativeScope()) {
+            TransportConfig transportConfig = scope.add(new TransportConfig(), TransportConfig::delete);
+            transportConfig.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
+
+            int type;
+            switch (transport) {
+                case TCP:
+                    type = pjsip_transport_type_e.PJSIP_TRANSPORT_TCP;
+                    break;
+                case TLS:
+                    type = pjsip_transport_type_e.PJSIP_TRANSPORT_TLS;
+                    SipTlsUtils.setTlsConfig(this, mSharedPreferencesHelper.isVerifySipServerCert(), transportConfig);
+                    break;
+                case UDP:
+                default:
+                    type = pjsip_transport_type_e.PJSIP_TRANSPORT_UDP;
+                    break;
+            }
+
+            mTransports.put(transport, mEndpoint.transportCreate(type, transportConfig));
+            Logger.debug(TAG, transport + " transport created");
         }
     }
 
@@ -947,8 +1456,8 @@ public class SipService extends BackgroundService implements SipServiceConstants
             return null;
         }
 
-        try {
-            CodecInfoVector2 codecs = mEndpoint.codecEnum2();
+        try (NativeScope scope = new NativeScope()) {
+            CodecInfoVector2 codecs = scope.add(mEndpoint.codecEnum2(), CodecInfoVector2::delete);
             if (codecs == null || codecs.size() == 0) return null;
 
             ArrayList<CodecPriority> codecPrioritiesList = new ArrayList<>(codecs.size());
@@ -962,8 +1471,6 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 codecInfo.delete();
             }
 
-            codecs.delete();
-
             Collections.sort(codecPrioritiesList);
             return codecPrioritiesList;
 
@@ -973,26 +1480,29 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleGetCodecPriorities() {
+    ArrayList<CodecPriority> handleGetCodecPriorities() {
         ArrayList<CodecPriority> codecs = getCodecPriorityList();
 
         if (codecs != null) {
             mBroadcastEmitter.codecPriorities(codecs);
         }
+        return codecs;
     }
 
-    private void handleSetCodecPriorities(Intent intent) {
-        ArrayList<CodecPriority> codecPriorities = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES);
+    private boolean handleSetCodecPriorities(Intent intent) {
+        return handleSetCodecPriorities(intent.<CodecPriority>getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES));
+    }
 
+    boolean handleSetCodecPriorities(ArrayList<CodecPriority> codecPriorities) {
         if (codecPriorities == null) {
-            return;
+            return false;
         }
 
         startStack();
 
         if (!mStarted) {
             mBroadcastEmitter.codecPrioritiesSetStatus(false);
-            return;
+            return false;
         }
 
         try {
@@ -1007,10 +1517,12 @@ public class SipService extends BackgroundService implements SipServiceConstants
             persistConfiguredCodecPriorities(codecPriorities);
             Logger.debug(TAG, log.toString());
             mBroadcastEmitter.codecPrioritiesSetStatus(true);
+            return true;
 
         } catch (Exception exc) {
             Logger.error(TAG, "Error while setting codec priorities", exc);
             mBroadcastEmitter.codecPrioritiesSetStatus(false);
+            return false;
         }
     }
 
@@ -1053,6 +1565,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 sipAccount.delete();
             }
             startStack();
+            ensureTransport(account.getEffectiveTransport());
             SipAccount pjSipAndroidAccount = new SipAccount(this, account);
             pjSipAndroidAccount.create();
             mActiveSipAccounts.put(accountString, pjSipAndroidAccount);
@@ -1094,6 +1607,22 @@ public class SipService extends BackgroundService implements SipServiceConstants
         return mSharedPreferencesHelper.retrieveConfiguredCodecPriorities();
     }
 
+    SipConference getConference() {
+        return mConference;
+    }
+
+    RingbackTonePlayer getRingbackTonePlayer() {
+        return mRingbackTonePlayer;
+    }
+
+    CallQualitySampler getCallQualitySampler() {
+        return mCallQualitySampler;
+    }
+
+    RingbackCadence getRingbackCadence() {
+        return mSharedPreferencesHelper.getRingbackCadence();
+    }
+
     protected synchronized AudDevManager getAudDevManager() {
         return mEndpoint.audDevManager();
     }
@@ -1102,6 +1631,14 @@ public class SipService extends BackgroundService implements SipServiceConstants
         return mEndpoint.vidDevManager();
     }
 
+    /**
+     * Gets a snapshot of the command queue metrics, useful to monitor the commands backlog.
+     * @return command queue metrics
+     */
+    public CommandQueueStats getCommandQueueStats() {
+        return mCommandQueue.getStats();
+    }
+
     protected BroadcastEventEmitter getBroadcastEmitter() {
         return mBroadcastEmitter;
     }
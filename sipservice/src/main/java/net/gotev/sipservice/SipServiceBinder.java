@@ -0,0 +1,530 @@
+package net.gotev.sipservice;
+
+import android.net.Uri;
+import android.os.Binder;
+import android.os.IBinder;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * In-process API of the {@link SipService}, returned when binding to the service.
+ * <p>
+ * It exposes the same operations of {@link SipServiceCommand} with typed arguments and return
+ * values, but the commands are handed directly to the service command queue, without building
+ * and delivering an Intent through the system. Commands keep the same priority and collapsing
+ * rules of the Intent based ones and emit the same broadcasts.
+ * <p>
+ * Every operation returns a {@link Future} which completes once the command has been executed on
+ * the service worker thread. Do not wait for it on the main thread. If a command is collapsed
+ * into a newer one of the same kind (see {@link SipServiceCommand}), or if the service is
+ * destroyed before executing it, its future fails with an
+ * {@link java.util.concurrent.ExecutionException} caused by a {@link CommandDiscardedException}.
+ * <p>
+ * The binder is only usable from the same process of the service, use
+ * {@link #from(IBinder)} in {@link android.content.ServiceConnection#onServiceConnected} to get it,
+ * and fallback to {@link SipServiceCommand} if it returns null.
+ */
+@SuppressWarnings("unused")
+public class SipServiceBinder extends Binder implements SipServiceConstants {
+
+    private final SipService mService;
+
+    SipServiceBinder(SipService service) {
+        mService = service;
+    }
+
+    /**
+     * Gets the in-process API from the binder received when binding to the {@link SipService}.
+     * @param binder binder received in {@link android.content.ServiceConnection#onServiceConnected}
+     * @return the in-process API or null if the service is running in another process
+     */
+    public static SipServiceBinder from(IBinder binder) {
+        return binder instanceof SipServiceBinder ? (SipServiceBinder) binder : null;
+    }
+
+    /**
+     * Adds a new SIP account, optionally changing the codec priorities.
+     * @param sipAccount sip account data
+     * @param codecPriorities list with the codec priorities to set, or null
+     * @return true if the account has been added
+     */
+    public Future<Boolean> setAccount(SipAccountData sipAccount, ArrayList<CodecPriority> codecPriorities) {
+        if (sipAccount == null) {
+            throw new IllegalArgumentException("sipAccount MUST not be null!");
+        }
+        String accountID = sipAccount.getIdUri();
+        SipServiceCommand.checkAccount(accountID);
+
+        return submit(ACTION_SET_ACCOUNT, accountID, -1,
+                () -> mService.handleSetAccount(sipAccount, codecPriorities));
+    }
+
+    /**
+     * Removes a SIP account.
+     * @param accountID account ID uri
+     * @return true if the account has been removed
+     */
+    public Future<Boolean> removeAccount(String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_REMOVE_ACCOUNT, accountID, -1,
+                () -> mService.handleRemoveAccount(accountID));
+    }
+
+    /**
+     * Starts the SIP stack and the UDP transport ahead of the first account or call.
+     * @param idleTimeoutMillis time after which the stack is torn down if there are still no
+     *                          configured accounts
+     * @return true if the stack is started
+     */
+    public Future<Boolean> prewarm(long idleTimeoutMillis) {
+        return prewarm(idleTimeoutMillis, new SipAccountTransport[0]);
+    }
+
+    /**
+     * Starts the SIP stack and the given transports ahead of the first account or call.
+     * @param idleTimeoutMillis time after which the stack is torn down if there are still no
+     *                          configured accounts
+     * @param transports transports used by the accounts which are going to be added,
+     *                   UDP if none is specified
+     * @return true if the stack and the transports are started
+     */
+    public Future<Boolean> prewarm(long idleTimeoutMillis, SipAccountTransport... transports) {
+        SipAccountTransport[] copy = transports.clone();
+        return submit(ACTION_PREWARM, null, -1, () -> mService.handlePrewarm(idleTimeoutMillis, copy));
+    }
+
+    /**
+     * Restarts the SIP stack without restarting the service.
+     * @return true if the stack is started again
+     */
+    public Future<Boolean> restartSipStack() {
+        return submit(ACTION_RESTART_SIP_STACK, null, -1, mService::handleRestartSipStack);
+    }
+
+    /**
+     * Makes a call.
+     * @param accountID account ID used to make the call
+     * @param numberToCall number to call
+     * @param isVideo whether the call has video or not
+     * @param isVideoConference whether the call is video conference or not
+     * @param isTransfer whether this (second) call will eventually be transferred to the current
+     * @return the ID of the new call, or -1 if the call could not be made
+     */
+    public Future<Integer> makeCall(String accountID, String numberToCall, boolean isVideo,
+                                    boolean isVideoConference, boolean isTransfer) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_MAKE_CALL, accountID, -1,
+                () -> mService.handleMakeCall(accountID, numberToCall, isVideo, isVideoConference, isTransfer));
+    }
+
+    /**
+     * Makes a direct call as guest, without a registered account.
+     * @param uri sip uri to call in the format: sip:number@realm:port
+     * @param sipServer sip server to use, or null to use the uri host
+     * @param name guest name
+     * @param isVideo whether the call has video or not
+     * @param isVideoConference whether the call is video conference or not
+     * @param transport transport to be configured on guest account
+     * @return the ID of the new call, or -1 if the call could not be made
+     */
+    public Future<Integer> makeDirectCall(Uri uri, String sipServer, String name, boolean isVideo,
+                                          boolean isVideoConference, SipAccountTransport transport) {
+        return submit(ACTION_MAKE_DIRECT_CALL, null, -1,
+                () -> mService.handleMakeDirectCall(uri, sipServer, name, isVideo, isVideoConference, transport));
+    }
+
+    /**
+     * Makes a silent call.
+     * @param accountID account ID used to make the call
+     * @param numberToCall number to call
+     * @return true if the call has been made
+     */
+    public Future<Boolean> makeSilentCall(String accountID, String numberToCall) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_MAKE_SILENT_CALL, accountID, -1,
+                () -> mService.handleMakeSilentCall(accountID, numberToCall));
+    }
+
+    /**
+     * Gets the state of a call, which is also sent as a broadcast.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return the call state, see {@link org.pjsip.pjsua2.pjsip_inv_state}
+     */
+    public Future<Integer> getCallStatus(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_GET_CALL_STATUS, accountID, callID,
+                () -> mService.handleGetCallStatus(accountID, callID));
+    }
+
+    /**
+     * Sends DTMF.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param dtmfTone DTMF tone to send (e.g. number from 0 to 9 or # or *)
+     * @return true if the tones have been sent
+     */
+    public Future<Boolean> sendDTMF(String accountID, int callID, String dtmfTone) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SEND_DTMF, accountID, callID,
+                () -> mService.handleSendDTMF(accountID, callID, dtmfTone));
+    }
+
+    /**
+     * Accepts an incoming call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param isVideo whether to accept the call with video or not
+     * @return true if the call has been accepted
+     */
+    public Future<Boolean> acceptIncomingCall(String accountID, int callID, boolean isVideo) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_ACCEPT_INCOMING_CALL, accountID, callID,
+                () -> mService.handleAcceptIncomingCall(accountID, callID, isVideo));
+    }
+
+    /**
+     * Declines an incoming call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the call has been declined
+     */
+    public Future<Boolean> declineIncomingCall(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_DECLINE_INCOMING_CALL, accountID, callID,
+                () -> mService.handleDeclineIncomingCall(accountID, callID));
+    }
+
+    /**
+     * Hangs up a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the call has been hung up
+     */
+    public Future<Boolean> hangUpCall(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_HANG_UP_CALL, accountID, callID,
+                () -> mService.handleHangUpCall(accountID, callID));
+    }
+
+    /**
+     * Hangs up all the active calls of an account.
+     * @param accountID account ID
+     * @return true if all the calls have been hung up
+     */
+    public Future<Boolean> hangUpActiveCalls(String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_HANG_UP_CALLS, accountID, -1,
+                () -> mService.handleHangUpActiveCalls(accountID));
+    }
+
+    /**
+     * Holds all the active calls of an account.
+     * @param accountID account ID
+     * @return true if all the calls have been put on hold
+     */
+    public Future<Boolean> holdActiveCalls(String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_HOLD_CALLS, accountID, -1,
+                () -> mService.handleHoldActiveCalls(accountID));
+    }
+
+    /**
+     * Sets hold status for a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param hold true to hold the call, false to un-hold it
+     * @return true if the hold status has been set
+     */
+    public Future<Boolean> setCallHold(String accountID, int callID, boolean hold) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SET_HOLD, accountID, callID,
+                () -> mService.handleSetCallHold(accountID, callID, hold));
+    }
+
+    /**
+     * Toggles hold status for a call. Two consecutive toggles of the same call which are both
+     * still pending cancel each other out: neither is executed and both futures fail with a
+     * {@link CommandDiscardedException}.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the hold status has been toggled
+     */
+    public Future<Boolean> toggleCallHold(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_TOGGLE_HOLD, accountID, callID,
+                () -> mService.handleToggleCallHold(accountID, callID));
+    }
+
+    /**
+     * Sets mute status for a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param mute true to mute the call, false to un-mute it
+     * @return true if the mute status has been set
+     */
+    public Future<Boolean> setCallMute(String accountID, int callID, boolean mute) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SET_MUTE, accountID, callID,
+                () -> mService.handleSetCallMute(accountID, callID, mute));
+    }
+
+    /**
+     * Toggles mute status for a call. Two consecutive toggles of the same call which are both
+     * still pending cancel each other out: neither is executed and both futures fail with a
+     * {@link CommandDiscardedException}.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the mute status has been toggled
+     */
+    public Future<Boolean> toggleCallMute(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_TOGGLE_MUTE, accountID, callID,
+                () -> mService.handleToggleCallMute(accountID, callID));
+    }
+
+    /**
+     * Transfers a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param number number to which to transfer the call
+     * @return true if the transfer has been started
+     */
+    public Future<Boolean> transferCall(String accountID, int callID, String number) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_TRANSFER_CALL, accountID, callID,
+                () -> mService.handleTransferCall(accountID, callID, number));
+    }
+
+    /**
+     * Transfers a call to another active call.
+     * @param accountID account ID
+     * @param callIdOrig call ID of the call to transfer
+     * @param callIdDest call ID of the transfer destination
+     * @return true if the transfer has been started
+     */
+    public Future<Boolean> attendedTransferCall(String accountID, int callIdOrig, int callIdDest) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_ATTENDED_TRANSFER_CALL, accountID, callIdOrig,
+                () -> mService.handleAttendedTransferCall(accountID, callIdOrig, callIdDest));
+    }
+
+    /**
+     * Merges two calls into the local audio conference.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param otherCallID call ID of the call to merge with
+     * @return true if both calls are in the conference
+     */
+    public Future<Boolean> mergeCalls(String accountID, int callID, int otherCallID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_MERGE_CALLS, accountID, callID,
+                () -> mService.handleMergeCalls(accountID, callID, otherCallID));
+    }
+
+    /**
+     * Splits a call from the local audio conference.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the call was in the conference
+     */
+    public Future<Boolean> splitCall(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SPLIT_CALL, accountID, callID,
+                () -> mService.handleSplitCall(accountID, callID));
+    }
+
+    /**
+     * Gets the codec priorities, starting the SIP stack if needed.
+     * @return the codec priorities or null if they could not be retrieved
+     */
+    public Future<ArrayList<CodecPriority>> getCodecPriorities() {
+        return submit(ACTION_GET_CODEC_PRIORITIES, null, -1, mService::handleGetCodecPriorities);
+    }
+
+    /**
+     * Sets the codec priorities, starting the SIP stack if needed.
+     * @param codecPriorities list with the codec priorities to set
+     * @return true if the priorities have been set
+     */
+    public Future<Boolean> setCodecPriorities(ArrayList<CodecPriority> codecPriorities) {
+        return submit(ACTION_SET_CODEC_PRIORITIES, null, -1,
+                () -> mService.handleSetCodecPriorities(codecPriorities));
+    }
+
+    /**
+     * Gets the registration status for an account.
+     * @param accountID account ID
+     * @return SIP registration status code
+     */
+    public Future<Integer> getRegistrationStatus(String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_GET_REGISTRATION_STATUS, accountID, -1,
+                () -> mService.handleGetRegistrationStatus(accountID));
+    }
+
+    /**
+     * Refreshes the registration of an account.
+     * @param accountID account ID
+     * @param regExpTimeout registration expiration timeout, 0 to leave it unchanged
+     * @param regContactParams registration contact params, null to leave them unchanged
+     * @return true if the registration has been refreshed
+     */
+    public Future<Boolean> refreshRegistration(String accountID, int regExpTimeout, String regContactParams) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_REFRESH_REGISTRATION, accountID, -1,
+                () -> mService.handleRefreshRegistration(accountID, regExpTimeout, regContactParams));
+    }
+
+    /**
+     * Sets the do not disturb mode.
+     * @param dnd true to enable DND, false to disable it
+     * @return true once DND has been set
+     */
+    public Future<Boolean> setDND(boolean dnd) {
+        return submit(ACTION_SET_DND, null, -1, () -> mService.handleSetDND(dnd));
+    }
+
+    /**
+     * Sets up the incoming video feed.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param surface surface on which to render the incoming video
+     * @return true if the video feed has been set up
+     */
+    public Future<Boolean> setupIncomingVideoFeed(String accountID, int callID, Surface surface) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SET_INCOMING_VIDEO, accountID, callID,
+                () -> mService.handleSetIncomingVideoFeed(accountID, callID, surface));
+    }
+
+    /**
+     * Mutes and un-mutes video for a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param mute whether to mute or un-mute the video
+     * @return true if the video mute status has been set
+     */
+    public Future<Boolean> setVideoMute(String accountID, int callID, boolean mute) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SET_VIDEO_MUTE, accountID, callID,
+                () -> mService.handleSetVideoMute(accountID, callID, mute));
+    }
+
+    /**
+     * Starts the video preview for a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param surface surface on which to render the preview
+     * @return true if the preview has been started
+     */
+    public Future<Boolean> startVideoPreview(String accountID, int callID, Surface surface) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_START_VIDEO_PREVIEW, accountID, callID,
+                () -> mService.handleStartVideoPreview(accountID, callID, surface));
+    }
+
+    /**
+     * Stops the video preview for a call.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the preview has been stopped
+     */
+    public Future<Boolean> stopVideoPreview(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_STOP_VIDEO_PREVIEW, accountID, callID,
+                () -> mService.handleStopVideoPreview(accountID, callID));
+    }
+
+    /**
+     * Rotates the transmitting video (heads up always), according to the device orientation.
+     * @param accountID account ID
+     * @param callID call ID
+     * @param orientation device orientation, one of the Surface.ROTATION_* constants
+     * @return true if the orientation has been changed
+     */
+    public Future<Boolean> changeVideoOrientation(String accountID, int callID, int orientation) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SET_SELF_VIDEO_ORIENTATION, accountID, callID,
+                () -> mService.handleSetSelfVideoOrientation(accountID, callID, orientation));
+    }
+
+    /**
+     * Switches between front and back camera.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return true if the capture device has been switched
+     */
+    public Future<Boolean> switchVideoCaptureDevice(String accountID, int callID) {
+        SipServiceCommand.checkAccount(accountID);
+        return submit(ACTION_SWITCH_VIDEO_CAPTURE_DEVICE, accountID, callID,
+                () -> mService.handleSwitchVideoCaptureDevice(accountID, callID));
+    }
+
+    /**
+     * Tries to reconnect the ongoing call after a network change.
+     * See {@link SipServiceCommand#reconnectCall(android.content.Context)}.
+     * @return true if the reconnection has been started
+     */
+    public Future<Boolean> reconnectCall() {
+        return submit(ACTION_RECONNECT_CALL, null, -1, mService::handleReconnectCall);
+    }
+
+    /**
+     * Gets a snapshot of the service command queue metrics.
+     * @return command queue metrics
+     */
+    public CommandQueueStats getCommandQueueStats() {
+        return mService.getCommandQueueStats();
+    }
+
+    /**
+     * Gets the time taken to answer the incoming calls with 180 Ringing.
+     * @return incoming calls metrics
+     */
+    public IncomingCallStats getIncomingCallStats() {
+        return mService.getIncomingCallStats();
+    }
+
+    /**
+     * Gets the durations of the service startup stages.
+     * @return startup timings
+     */
+    public StartupTimings getStartupTimings() {
+        return mService.getStartupTimings();
+    }
+
+    /**
+     * Gets the call detail records stored on the device, from the oldest to the newest.
+     * Up to the latest 4096 calls are kept. Only the matching records are read from the storage,
+     * on the service worker thread.
+     * @param accountID account IdUri, null for all the accounts
+     * @param fromTimestamp minimum call start time, inclusive, in milliseconds since the epoch
+     * @param toTimestamp maximum call start time, inclusive, in milliseconds since the epoch
+     * @return call detail records
+     */
+    public Future<List<CallDetailRecord>> getCallDetailRecords(String accountID, long fromTimestamp, long toTimestamp) {
+        return submit(ACTION_GET_CALL_DETAIL_RECORDS, accountID, -1,
+                () -> mService.getCallDetailRecords(accountID, fromTimestamp, toTimestamp));
+    }
+
+    /**
+     * Gets the average process CPU load measured while the local conference had a given number
+     * of participants. It's the whole process load, so the difference between two consecutive
+     * entries only approximates the conference bridge cost of adding a participant.
+     * @return CPU load percentage, indexed by number of participants (0 if never measured)
+     */
+    public float[] getConferenceCpuLoad() {
+        return mService.getConference().getCpuLoad();
+    }
+
+    private <T> Future<T> submit(String action, String accountID, int callID, Callable<T> command) {
+        CommandTask<T> task = new CommandTask<>(command);
+        mService.enqueueCommand(action, accountID, callID, task);
+        return task;
+    }
+}
@@ -1,7 +1,10 @@
 package net.gotev.sipservice;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.hardware.camera2.CameraManager;
 import android.net.Uri;
 import android.view.Surface;
@@ -9,6 +12,9 @@ import android.view.Surface;
 import org.pjsip.PjCameraInfo2;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
  * Triggers sip service commands.
@@ -101,6 +107,28 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(new Intent(context, SipService.class));
     }
 
+    /**
+     * Binds to the SIP service, starting it if needed. When the caller lives in the same
+     * process of the service, use {@link SipServiceBinder#from(android.os.IBinder)} in
+     * {@link ServiceConnection#onServiceConnected} to get the in-process API, which
+     * skips the Intent delivery of the other commands in this class.
+     * @param context application context
+     * @param connection connection which receives the service binder
+     * @return true if the binding succeeded
+     */
+    public static boolean bind(Context context, ServiceConnection connection) {
+        return context.bindService(new Intent(context, SipService.class), connection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Unbinds from the SIP service.
+     * @param context application context
+     * @param connection connection used in {@link #bind(Context, ServiceConnection)}
+     */
+    public static void unbind(Context context, ServiceConnection connection) {
+        context.unbindService(connection);
+    }
+
     /**
      * Stops the SIP service.
      * @param context application context
@@ -109,6 +137,51 @@ public class SipServiceCommand implements SipServiceConstants {
         context.stopService(new Intent(context, SipService.class));
     }
 
+    /**
+     * Starts the SIP stack and the UDP transport ahead of time, so the first account
+     * registration or call doesn't pay for the stack startup. If no account or call uses
+     * the stack within {@link SipServiceConstants#PREWARM_DEFAULT_IDLE_TIMEOUT}, it's torn down.
+     * @param context application context
+     */
+    public static void prewarm(Context context) {
+        prewarm(context, PREWARM_DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Starts the SIP stack and the UDP transport ahead of time, so the first account
+     * registration or call doesn't pay for the stack startup. Calling it again restarts
+     * the idle timeout.
+     * @param context application context
+     * @param idleTimeoutMillis time after which the stack is torn down if there are still no
+     *                          configured accounts
+     */
+    public static void prewarm(Context context, long idleTimeoutMillis) {
+        prewarm(context, idleTimeoutMillis, new SipAccountTransport[0]);
+    }
+
+    /**
+     * Starts the SIP stack and the given transports ahead of time, so the first account
+     * registration or call doesn't pay for the stack startup. Calling it again restarts
+     * the idle timeout.
+     * @param context application context
+     * @param idleTimeoutMillis time after which the stack is torn down if there are still no
+     *                          configured accounts
+     * @param transports transports used by the accounts which are going to be added,
+     *                   UDP if none is specified
+     */
+    public static void prewarm(Context context, long idleTimeoutMillis, SipAccountTransport... transports) {
+        int[] codes = new int[transports.length];
+        for (int i = 0; i < transports.length; i++) {
+            codes[i] = transports[i].ordinal();
+        }
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_PREWARM);
+        intent.putExtra(PARAM_IDLE_TIMEOUT, idleTimeoutMillis);
+        intent.putExtra(PARAM_PREWARM_TRANSPORTS, codes);
+        context.startService(intent);
+    }
+
     /**
      * Restarts the SIP stack without restarting the service.
      * @param context application context
@@ -380,6 +453,48 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(intent);
     }
 
+    /**
+     * Merges two calls into the local audio conference, so the remote parties can hear each
+     * other. If one of the calls is already in the conference, the other one joins it.
+     * Held calls are un-held. Each call keeps its own hold and mute status, and its membership
+     * is notified with a {@link MediaState#CONFERENCE} media state.
+     * If a call does not exist or has been terminated, a disconnected state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, int, int, long)}
+     * @param context application context
+     * @param accountID account ID
+     * @param callID call ID
+     * @param otherCallID call ID of the call to merge with
+     */
+    public static void mergeCalls(Context context, String accountID, int callID, int otherCallID) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_MERGE_CALLS);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putExtra(PARAM_CALL_ID_DEST, otherCallID);
+        context.startService(intent);
+    }
+
+    /**
+     * Splits a call from the local audio conference. The call stays connected to the local
+     * device only. When a single call is left in the conference, the conference ends.
+     * If the call does not exist or has been terminated, a disconnected state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, int, int, long)}
+     * @param context application context
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public static void splitCall(Context context, String accountID, int callID) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SPLIT_CALL);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        context.startService(intent);
+    }
+
     /**
      * Sets hold status for a call. If the call does not exist or has been terminated, a disconnected
      * state will be sent to
@@ -404,6 +519,8 @@ public class SipServiceCommand implements SipServiceConstants {
      * Toggle hold status for a call. If the call does not exist or has been terminated, a disconnected
      * state will be sent to
      * {@link BroadcastEventReceiver#onCallState(String, int, int, int, long)}
+     * Two consecutive toggles of the same call which are both still pending cancel each other
+     * out, and neither is executed.
      * @param context application context
      * @param accountID account ID
      * @param callID call ID
@@ -442,6 +559,8 @@ public class SipServiceCommand implements SipServiceConstants {
      * Toggle mute status for a call. If the call does not exist or has been terminated, a disconnected
      * state will be sent to
      * {@link BroadcastEventReceiver#onCallState(String, int, int, int, long)}
+     * Two consecutive toggles of the same call which are both still pending cancel each other
+     * out, and neither is executed.
      * @param context application context
      * @param accountID account ID
      * @param callID call ID
@@ -480,7 +599,7 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(intent);
     }
 
-    private static void checkAccount(String accountID) {
+    static void checkAccount(String accountID) {
         if (accountID == null || !accountID.startsWith("sip:")) {
             throw new IllegalArgumentException("Invalid accountID! Example: sip:user@domain");
         }
@@ -652,6 +771,102 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(intent);
     }
 
+    /**
+     * Registers a listener which receives the sip service events in the same process, without
+     * going through broadcast Intents. Registering the same listener again replaces
+     * its executor.
+     * <p>
+     * A direct executor receives the events on a service thread, e.g. the SIP stack thread,
+     * so its listener must not block nor wait for the result of a service command.
+     * @param listener events listener
+     * @param executor executor on which the listener is invoked, e.g. the main thread executor
+     *                 or a direct executor to receive the events on a service thread
+     */
+    public static void addEventListener(SipEventListener listener, Executor executor) {
+        SipEventDispatcher.addListener(listener, executor);
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #addEventListener(SipEventListener, Executor)}.
+     * @param listener events listener
+     */
+    public static void removeEventListener(SipEventListener listener) {
+        SipEventDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Enables or disables the broadcast Intents of the sip service events. When all the
+     * events consumers live in the same process of the service and use
+     * {@link #addEventListener(SipEventListener, Executor)}, the broadcasts can be disabled
+     * to avoid their cost. Enabled by default.
+     * @param enabled true to emit the events also as broadcast Intents
+     */
+    public static void setBroadcastEventsEnabled(boolean enabled) {
+        SipEventDispatcher.setBroadcastsEnabled(enabled);
+    }
+
+    /**
+     * Sets the window within which the high frequency events (call media state and video size)
+     * are coalesced. The first event is emitted immediately, while the following ones within
+     * the window are collapsed into a single event carrying the latest value, emitted at the
+     * end of the window. Call states are never coalesced.
+     * @param windowMillis coalescing window in milliseconds (default 100), 0 to disable
+     */
+    public static void setEventCoalescingWindow(long windowMillis) {
+        EventCoalescer.setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Sets the interval at which the audio quality of the confirmed calls is sampled and
+     * reported with {@link BroadcastEventReceiver#onCallQuality(String, int, CallQualitySample)}.
+     * It applies to the calls confirmed afterwards.
+     * @param intervalMillis sampling interval in milliseconds, 0 to disable (default)
+     */
+    public static void setCallQualitySamplingInterval(long intervalMillis) {
+        CallQualitySampler.setIntervalMillis(intervalMillis);
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls across all the accounts (default 1).
+     * Further incoming calls are rejected with 486 Busy Here and further outgoing calls are
+     * not made, except for the call which is going to replace a transferred one.
+     * @param maxCalls maximum number of concurrent calls, at least 1
+     */
+    public static void setMaxConcurrentCalls(int maxCalls) {
+        CallRegistry.setMaxCalls(maxCalls);
+    }
+
+    /**
+     * Enables or disables the tracking of the native (PJSUA2) objects created by the service.
+     * When enabled, the objects which have not been deleted yet are logged when the SIP stack
+     * is stopped and can be obtained with {@link #getLiveNativeObjects()}.
+     * Meant for debugging only, disabled by default.
+     * @param enabled true to enable native objects tracking
+     */
+    public static void setNativeLeakTrackingEnabled(boolean enabled) {
+        NativeScope.setLeakTracking(enabled);
+    }
+
+    /**
+     * @return number of the tracked native objects which have not been deleted yet, by type.
+     * Empty if native leak tracking is disabled
+     */
+    public static Map<String, Integer> getLiveNativeObjects() {
+        return NativeScope.getLiveObjects();
+    }
+
+    /**
+     * Creates a batch of commands, which are delivered to the SIP service with a single Intent
+     * and executed in order, one after the other, in a single service job.
+     * The outcome is reported with a single
+     * {@link BroadcastEventReceiver#onBatchResult(String, boolean, int, boolean[])} event.
+     * @param context application context
+     * @return batch builder
+     */
+    public static Batch batch(Context context) {
+        return new Batch(context);
+    }
+
     /**
      * Sets the camera manager within the PjCamera2Info class
      * it is used to enumerate the video devices without the CAMERA permission
@@ -669,4 +884,234 @@ public class SipServiceCommand implements SipServiceConstants {
     public static void setVerifySipServerCert(Context context, boolean verify) {
         SharedPreferencesHelper.getInstance(context).setVerifySipServerCert(verify);
     }
+
+    /**
+     * Sets the regional cadence of the ringback tone played locally while an outgoing call
+     * is ringing. The setting is persisted.
+     * @param context the context
+     * @param cadence ringback cadence, {@link RingbackCadence#EUROPE} by default
+     */
+    public static void setRingbackCadence(Context context, RingbackCadence cadence) {
+        if (cadence == null) {
+            throw new IllegalArgumentException("cadence MUST not be null!");
+        }
+        SharedPreferencesHelper.getInstance(context).setRingbackCadence(cadence);
+    }
+
+    /**
+     * Ordered list of commands to execute in a single service job.
+     * Each method has the same semantics of the homonymous command in {@link SipServiceCommand}.
+     */
+    public static class Batch {
+
+        private final Context mContext;
+        private final BatchRecorder mRecorder;
+        private boolean mStopOnFirstFailure;
+
+        private Batch(Context context) {
+            mContext = context;
+            mRecorder = new BatchRecorder(context);
+        }
+
+        /**
+         * If enabled, the commands following a failed one are not executed.
+         * @param stop true to stop the batch on the first failure (default false)
+         * @return this batch
+         */
+        public Batch stopOnFirstFailure(boolean stop) {
+            mStopOnFirstFailure = stop;
+            return this;
+        }
+
+        public Batch setAccount(SipAccountData sipAccount) {
+            SipServiceCommand.setAccount(mRecorder, sipAccount);
+            return this;
+        }
+
+        public Batch setAccountWithCodecs(SipAccountData sipAccount, ArrayList<CodecPriority> codecPriorities) {
+            SipServiceCommand.setAccountWithCodecs(mRecorder, sipAccount, codecPriorities);
+            return this;
+        }
+
+        public Batch removeAccount(String accountID) {
+            SipServiceCommand.removeAccount(mRecorder, accountID);
+            return this;
+        }
+
+        public Batch restartSipStack() {
+            SipServiceCommand.restartSipStack(mRecorder);
+            return this;
+        }
+
+        public Batch makeCall(String accountID, String numberToCall, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
+            SipServiceCommand.makeCall(mRecorder, accountID, numberToCall, isVideo, isVideoConference, isTransfer);
+            return this;
+        }
+
+        public Batch makeCall(String accountID, String numberToCall) {
+            SipServiceCommand.makeCall(mRecorder, accountID, numberToCall);
+            return this;
+        }
+
+        public Batch getCallStatus(String accountID, int callID) {
+            SipServiceCommand.getCallStatus(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch hangUpCall(String accountID, int callID) {
+            SipServiceCommand.hangUpCall(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch hangUpActiveCalls(String accountID) {
+            SipServiceCommand.hangUpActiveCalls(mRecorder, accountID);
+            return this;
+        }
+
+        public Batch holdActiveCalls(String accountID) {
+            SipServiceCommand.holdActiveCalls(mRecorder, accountID);
+            return this;
+        }
+
+        public Batch sendDTMF(String accountID, int callID, String dtmfTone) {
+            SipServiceCommand.sendDTMF(mRecorder, accountID, callID, dtmfTone);
+            return this;
+        }
+
+        public Batch acceptIncomingCall(String accountID, int callID, boolean isVideo) {
+            SipServiceCommand.acceptIncomingCall(mRecorder, accountID, callID, isVideo);
+            return this;
+        }
+
+        public Batch declineIncomingCall(String accountID, int callID) {
+            SipServiceCommand.declineIncomingCall(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch transferCall(String accountID, int callID, String number) {
+            SipServiceCommand.transferCall(mRecorder, accountID, callID, number);
+            return this;
+        }
+
+        public Batch attendedTransferCall(String accountID, int callIdOrig, int callIdDest) {
+            SipServiceCommand.attendedTransferCall(mRecorder, accountID, callIdOrig, callIdDest);
+            return this;
+        }
+
+        public Batch mergeCalls(String accountID, int callID, int otherCallID) {
+            SipServiceCommand.mergeCalls(mRecorder, accountID, callID, otherCallID);
+            return this;
+        }
+
+        public Batch splitCall(String accountID, int callID) {
+            SipServiceCommand.splitCall(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch setCallHold(String accountID, int callID, boolean hold) {
+            SipServiceCommand.setCallHold(mRecorder, accountID, callID, hold);
+            return this;
+        }
+
+        /**
+         * Toggles hold status for a call. The toggles of a batch are never cancelled out,
+         * since the batch commands are executed as they are.
+         */
+        public Batch toggleCallHold(String accountID, int callID) {
+            SipServiceCommand.toggleCallHold(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch setCallMute(String accountID, int callID, boolean mute) {
+            SipServiceCommand.setCallMute(mRecorder, accountID, callID, mute);
+            return this;
+        }
+
+        /**
+         * Toggles mute status for a call. The toggles of a batch are never cancelled out,
+         * since the batch commands are executed as they are.
+         */
+        public Batch toggleCallMute(String accountID, int callID) {
+            SipServiceCommand.toggleCallMute(mRecorder, accountID, callID);
+            return this;
+        }
+
+        public Batch setCodecPriorities(ArrayList<CodecPriority> codecPriorities) {
+            SipServiceCommand.setCodecPriorities(mRecorder, codecPriorities);
+            return this;
+        }
+
+        public Batch getRegistrationStatus(String accountID) {
+            SipServiceCommand.getRegistrationStatus(mRecorder, accountID);
+            return this;
+        }
+
+        public Batch refreshRegistration(String accountID, int regExpTimeout, String regContactParams) {
+            SipServiceCommand.refreshRegistration(mRecorder, accountID, regExpTimeout, regContactParams);
+            return this;
+        }
+
+        public Batch setDND(boolean dnd) {
+            SipServiceCommand.setDND(mRecorder, dnd);
+            return this;
+        }
+
+        public Batch setVideoMute(String accountID, int callID, boolean mute) {
+            SipServiceCommand.setVideoMute(mRecorder, accountID, callID, mute);
+            return this;
+        }
+
+        public Batch changeVideoOrientation(String accountID, int callID, int orientation) {
+            SipServiceCommand.changeVideoOrientation(mRecorder, accountID, callID, orientation);
+            return this;
+        }
+
+        public Batch reconnectCall() {
+            SipServiceCommand.reconnectCall(mRecorder);
+            return this;
+        }
+
+        /**
+         * @return number of commands in this batch
+         */
+        public int size() {
+            return mRecorder.mCommands.size();
+        }
+
+        /**
+         * Sends the batch to the SIP service.
+         * @return ID of the batch, reported back in
+         * {@link BroadcastEventReceiver#onBatchResult(String, boolean, int, boolean[])}
+         */
+        public String send() {
+            String batchID = UUID.randomUUID().toString();
+
+            Intent intent = new Intent(mContext, SipService.class);
+            intent.setAction(ACTION_BATCH);
+            intent.putExtra(PARAM_BATCH_ID, batchID);
+            intent.putParcelableArrayListExtra(PARAM_BATCH_COMMANDS, new ArrayList<>(mRecorder.mCommands));
+            intent.putExtra(PARAM_BATCH_STOP_ON_FAILURE, mStopOnFirstFailure);
+            mContext.startService(intent);
+
+            return batchID;
+        }
+    }
+
+    /**
+     * Collects the command intents instead of delivering them to the service.
+     */
+    private static class BatchRecorder extends ContextWrapper {
+
+        private final ArrayList<Intent> mCommands = new ArrayList<>();
+
+        private BatchRecorder(Context base) {
+            super(base);
+        }
+
+        @Override
+        public ComponentName startService(Intent service) {
+            mCommands.add(service);
+            return service.getComponent();
+        }
+    }
 }
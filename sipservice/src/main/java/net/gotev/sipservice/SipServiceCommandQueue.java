@@ -0,0 +1,290 @@
+package net.gotev.sipservice;
+
+import static net.gotev.sipservice.SipServiceConstants.*;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Schedules the commands received by the {@link SipService}, giving precedence to call control.
+ */
+class SipServiceCommandQueue {
+
+    private static final String TAG = SipServiceCommandQueue.class.getSimpleName();
+
+    /**
+     * Commands waiting more than this are logged.
+     */
+    private static final long SLOW_COMMAND_THRESHOLD_MILLIS = 200;
+
+    private enum Coalescing {
+        NONE,
+        REPLACE,
+        TOGGLE
+    }
+
+    private static final class Command {
+        private final String key;
+        private final String target;
+        private final String accountID;
+        private final int callID;
+        private final long sequence;
+        private final long enqueuedAt;
+        private Runnable job;
+        private boolean cancelled;
+
+        private Command(String key, String target, String accountID, int callID, long sequence,
+                        long enqueuedAt, Runnable job) {
+            this.key = key;
+            this.target = target;
+            this.accountID = accountID;
+            this.callID = callID;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.job = job;
+        }
+
+        /**
+         * @return true if the two commands may operate on the same call
+         */
+        private boolean sharesTarget(String otherAccountID, int otherCallID) {
+            if (accountID == null || otherAccountID == null) return true;
+            if (!accountID.equals(otherAccountID)) return false;
+            return callID < 0 || otherCallID < 0 || callID == otherCallID;
+        }
+    }
+
+    private final ArrayDeque<Command> mCallControlCommands = new ArrayDeque<>();
+    private final ArrayDeque<Command> mCommands = new ArrayDeque<>();
+    private final HashMap<String, Command> mCoalescableCommands = new HashMap<>();
+    private final HashMap<String, Long> mLastSequenceByTarget = new HashMap<>();
+
+    private long mSequence;
+    private boolean mClosed;
+    private int mDepth;
+    private int mMaxDepth;
+    private long mEnqueued;
+    private long mCoalesced;
+    private long mExecuted;
+    private long mTotalWaitMillis;
+    private long mMaxWaitMillis;
+
+    /**
+     * Enqueues a command.
+     * <p>
+     * Call control commands (accept, decline, hang up, hold, mute, merge and split) are executed
+     * before any other pending command, unless an earlier pending command targets the same
+     * account or call: in that case they keep their FIFO order, so e.g. a hang up is never
+     * executed before the pending call it targets has been made. Commands without an account
+     * (e.g. batches) and commands without a call (e.g. make call) target all the calls of their
+     * account.
+     * <p>
+     * Redundant queries and "set" commands are collapsed into the last pending command for the
+     * same target (latest value wins), and two consecutive toggles cancel each other out.
+     * Collapsed {@link CommandTask}s fail with a {@link CommandDiscardedException}.
+     * @param action command action
+     * @param accountID account targeted by the command, if any
+     * @param callID call targeted by the command, if any
+     * @param job the job which executes the command
+     * @return true if a new entry has been added to the queue and a {@link #poll()} has to be
+     * scheduled, false if the command has been collapsed with an already pending one
+     */
+    synchronized boolean enqueue(String action, String accountID, int callID, Runnable job) {
+        if (mClosed) {
+            discard(job, "The service has been destroyed");
+            return false;
+        }
+
+        mEnqueued++;
+        String target = accountID + "/" + callID;
+        String key = action + "@" + target;
+        Coalescing coalescing = getCoalescing(action);
+
+        if (coalescing != Coalescing.NONE) {
+            Command pending = mCoalescableCommands.get(key);
+            Long lastSequence = mLastSequenceByTarget.get(target);
+
+            if (pending != null && lastSequence != null && lastSequence == pending.sequence) {
+                mCoalesced++;
+                if (coalescing == Coalescing.REPLACE) {
+                    discard(pending.job, "Replaced by a newer " + action);
+                    pending.job = job;
+                } else {
+                    // two consecutive toggles are a no-op
+                    discard(pending.job, "Cancelled out by a following " + action);
+                    discard(job, "Cancelled out by a preceding " + action);
+                    pending.cancelled = true;
+                    mCoalescableCommands.remove(key);
+                    mLastSequenceByTarget.remove(target);
+                    mDepth--;
+                }
+                return false;
+            }
+        }
+
+        // merge involves a second call of the account
+        int targetCallID = ACTION_MERGE_CALLS.equals(action) ? -1 : callID;
+        Command command = new Command(key, target, accountID, targetCallID, ++mSequence, now(), job);
+        if (isCallControl(action) && !hasPendingCommandFor(accountID, targetCallID)) {
+            mCallControlCommands.addLast(command);
+        } else {
+            mCommands.addLast(command);
+        }
+
+        if (coalescing != Coalescing.NONE) {
+            mCoalescableCommands.put(key, command);
+        }
+        mLastSequenceByTarget.put(target, command.sequence);
+
+        mDepth++;
+        if (mDepth > mMaxDepth) {
+            mMaxDepth = mDepth;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the next command to execute, giving precedence to call control commands.
+     * @return the job to execute or null if there are no pending commands
+     */
+    Runnable poll() {
+        Command command;
+        long waitMillis;
+
+        synchronized (this) {
+            command = pollCommand(mCallControlCommands);
+            if (command == null) {
+                command = pollCommand(mCommands);
+            }
+            if (command == null) return null;
+
+            if (mCoalescableCommands.get(command.key) == command) {
+                mCoalescableCommands.remove(command.key);
+            }
+            Long lastSequence = mLastSequenceByTarget.get(command.target);
+            if (lastSequence != null && lastSequence == command.sequence) {
+                mLastSequenceByTarget.remove(command.target);
+            }
+
+            waitMillis = now() - command.enqueuedAt;
+            mDepth--;
+            mExecuted++;
+            mTotalWaitMillis += waitMillis;
+            if (waitMillis > mMaxWaitMillis) {
+                mMaxWaitMillis = waitMillis;
+            }
+        }
+
+        if (waitMillis > SLOW_COMMAND_THRESHOLD_MILLIS) {
+            Logger.debug(TAG, "Command " + command.key + " waited " + waitMillis + "ms. " + getStats());
+        }
+
+        return command.job;
+    }
+
+    /**
+     * Discards all the pending commands and the ones enqueued afterwards. It has to be called
+     * when the service is destroyed, since no more commands are going to be executed.
+     */
+    synchronized void close() {
+        mClosed = true;
+        discardAll(mCallControlCommands);
+        discardAll(mCommands);
+        mCoalescableCommands.clear();
+        mLastSequenceByTarget.clear();
+        mDepth = 0;
+    }
+
+    private static void discardAll(ArrayDeque<Command> commands) {
+        Command command;
+        while ((command = commands.pollFirst()) != null) {
+            if (!command.cancelled) {
+                discard(command.job, "The service has been destroyed");
+            }
+        }
+    }
+
+    synchronized CommandQueueStats getStats() {
+        return new CommandQueueStats(mDepth, mMaxDepth, mEnqueued, mCoalesced, mExecuted,
+                mExecuted == 0 ? 0 : mTotalWaitMillis / mExecuted, mMaxWaitMillis);
+    }
+
+    /**
+     * Fails a job which is not going to be executed, so whoever is waiting for its result
+     * (e.g. a {@link SipServiceBinder} caller) does not wait forever.
+     */
+    private static void discard(Runnable job, String reason) {
+        if (job instanceof CommandTask) {
+            ((CommandTask<?>) job).discard(reason);
+        } else if (job instanceof Future) {
+            ((Future<?>) job).cancel(false);
+        }
+    }
+
+    /**
+     * Current time, overridden by the tests.
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if a command which is not executed with precedence targets the same
+     * account or call
+     */
+    private boolean hasPendingCommandFor(String accountID, int callID) {
+        for (Command pending : mCommands) {
+            if (!pending.cancelled && pending.sharesTarget(accountID, callID)) return true;
+        }
+        return false;
+    }
+
+    private Command pollCommand(ArrayDeque<Command> commands) {
+        Command command;
+        do {
+            command = commands.pollFirst();
+        } while (command != null && command.cancelled);
+        return command;
+    }
+
+    private static boolean isCallControl(String action) {
+        switch (action) {
+            case ACTION_ACCEPT_INCOMING_CALL:
+            case ACTION_DECLINE_INCOMING_CALL:
+            case ACTION_HANG_UP_CALL:
+            case ACTION_HANG_UP_CALLS:
+            case ACTION_HOLD_CALLS:
+            case ACTION_SET_HOLD:
+            case ACTION_TOGGLE_HOLD:
+            case ACTION_SET_MUTE:
+            case ACTION_TOGGLE_MUTE:
+            case ACTION_MERGE_CALLS:
+            case ACTION_SPLIT_CALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Coalescing getCoalescing(String action) {
+        switch (action) {
+            case ACTION_GET_CALL_STATUS:
+            case ACTION_GET_REGISTRATION_STATUS:
+            case ACTION_GET_CODEC_PRIORITIES:
+            case ACTION_SET_SELF_VIDEO_ORIENTATION:
+            case ACTION_SET_HOLD:
+            case ACTION_SET_MUTE:
+            case ACTION_SET_VIDEO_MUTE:
+            case ACTION_SET_DND:
+                return Coalescing.REPLACE;
+            case ACTION_TOGGLE_HOLD:
+            case ACTION_TOGGLE_MUTE:
+                return Coalescing.TOGGLE;
+            default:
+                return Coalescing.NONE;
+        }
+    }
+}
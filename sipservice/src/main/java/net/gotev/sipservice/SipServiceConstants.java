@@ -36,6 +36,12 @@ public interface SipServiceConstants {
     String ACTION_MAKE_DIRECT_CALL = "makeDirectCall";
     String ACTION_RECONNECT_CALL = "reconnectCall";
     String ACTION_MAKE_SILENT_CALL = "makeSilentCall";
+    String ACTION_BATCH = "batch";
+    String ACTION_PREWARM = "prewarm";
+    String ACTION_MERGE_CALLS = "mergeCalls";
+    String ACTION_SPLIT_CALL = "splitCall";
+    // only submitted through SipServiceBinder
+    String ACTION_GET_CALL_DETAIL_RECORDS = "getCallDetailRecords";
 
     /*
      * Generic Parameters
@@ -61,6 +67,11 @@ public interface SipServiceConstants {
     String PARAM_DIRECT_CALL_SIP_SERVER = "sipServer";
     String PARAM_DIRECT_CALL_TRANSPORT = "directTransport";
     String PARAM_IS_TRANSFER = "isTransfer";
+    String PARAM_BATCH_ID = "batchId";
+    String PARAM_BATCH_COMMANDS = "batchCommands";
+    String PARAM_BATCH_STOP_ON_FAILURE = "batchStopOnFailure";
+    String PARAM_IDLE_TIMEOUT = "idleTimeout";
+    String PARAM_PREWARM_TRANSPORTS = "prewarmTransports";
 
     /**
      * Specific Parameters passed in the broadcast intents.
@@ -81,6 +92,11 @@ public interface SipServiceConstants {
     String PARAM_INCOMING_VIDEO_HEIGHT = "incomingVideoHeight";
     String PARAM_CALL_RECONNECTION_STATE = "callReconnectionState";
     String PARAM_SILENT_CALL_STATUS = "silentCallStatus";
+    String PARAM_BATCH_RESULTS = "batchResults";
+    String PARAM_BATCH_SIZE = "batchSize";
+    String PARAM_EVENT_EPOCH = "eventEpoch";
+    String PARAM_EVENT_SEQUENCE = "eventSequence";
+    String PARAM_EVENT_TIMESTAMP = "eventTimestamp";
 
     /**
      * Specific Parameters passed in the broadcast intents for call stats.
@@ -90,6 +106,10 @@ public interface SipServiceConstants {
     String PARAM_CALL_STATS_CALL_STATUS = "callStatsCallStatus";
     String PARAM_CALL_STATS_RX_STREAM = "callStatsRxStream";
     String PARAM_CALL_STATS_TX_STREAM = "callStatsTxStream";
+    String PARAM_CALL_STATS_VIDEO_CODEC = "callStatsVideoCodec";
+    String PARAM_CALL_STATS_RX_VIDEO_STREAM = "callStatsRxVideoStream";
+    String PARAM_CALL_STATS_TX_VIDEO_STREAM = "callStatsTxVideoStream";
+    String PARAM_CALL_QUALITY_SAMPLE = "callQualitySample";
 
     /**
      * Video Configuration Params
@@ -116,6 +136,7 @@ public interface SipServiceConstants {
      * Generic Constants
      */
     int DELAYED_JOB_DEFAULT_DELAY = 5000;
+    long PREWARM_DEFAULT_IDLE_TIMEOUT = 60000;
 
     /**
      * SIP DEFAULT PORTS
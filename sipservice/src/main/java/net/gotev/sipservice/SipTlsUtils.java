@@ -5,8 +5,12 @@ import android.content.Context;
 import org.pjsip.pjsua2.TlsConfig;
 import org.pjsip.pjsua2.TransportConfig;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
 /**
@@ -19,37 +23,81 @@ public class SipTlsUtils {
 
     public static final String TAG = "Endpoint";
     private static final String CA_FILE_NAME = "ca-bundle.crt";
+    private static final int CA_BUNDLE_BUFFER_SIZE = 16 * 1024;
+    private static final String IDN_PREFIX = "xn--";
 
     public static boolean isWildcardValid(ArrayList<String> certNames, String host) {
         Logger.info(TAG, "Trying to verify if wildcard certificate is valid");
 
-        for (String name: certNames) {
-            Logger.debug(TAG, "Validating host: "+host+" against cert name: "+name );
-            if (SipTlsUtils.isWildCardCertValid(name, host.split("\\."))) return true;
+        int hostLength = trimmedLength(host);
+        int hostLabelEnd = host.indexOf('.');
+        if (hostLabelEnd >= hostLength) hostLabelEnd = -1;
+        // the host must have a non empty left-most label
+        if (hostLength == 0 || hostLabelEnd == 0) return false;
+
+        for (int i = 0, size = certNames.size(); i < size; i++) {
+            String name = certNames.get(i);
+            if (name != null && matchesHost(name, host, hostLength, hostLabelEnd)) return true;
         }
         return false;
     }
 
-    private static boolean isWildCardCertValid(String certName, String[] tokens) {
-        boolean match = false;
-
-        String[] certTokens = certName.split("\\.");
-        if (certTokens.length == tokens.length) {
-            for (int i = tokens.length -1; i >= 0; i--) {
-                String certToken = certTokens[i];
-                if (certToken.contains("*")) {
-                    certToken = certToken.replace("*", ".*");
-                }
-                if (tokens[i].equals(certToken) || tokens[i].matches(certToken)) {
-                    match = true;
-                } else {
-                    Logger.debug(TAG, certName + " is not valid");
-                    match = false;
-                    break;
-                }
-            }
+    /**
+     * Matches a certificate name against a host as described in RFC 6125 section 6.4.3:
+     * the comparison is case insensitive, the wildcard is allowed only once and only in the
+     * left-most label, where it matches a (possibly partial) single label, and wildcards
+     * covering a top level domain (e.g. *.com) or a partial IDN A-label are rejected.
+     * It doesn't allocate, since it runs on PJSIP's thread for each TLS connection.
+     * @param certName certificate name (DNS SAN or CN)
+     * @param host host to verify
+     * @param hostLength length of the host without the trailing dot
+     * @param hostLabelEnd index of the first dot in the host, or -1
+     * @return true if the name matches the host
+     */
+    private static boolean matchesHost(String certName, String host, int hostLength, int hostLabelEnd) {
+        int certLength = trimmedLength(certName);
+        if (certLength == 0) return false;
+
+        int wildcard = certName.indexOf('*');
+        if (wildcard < 0 || wildcard >= certLength) {
+            return certLength == hostLength && certName.regionMatches(true, 0, host, 0, hostLength);
+        }
+
+        int certLabelEnd = certName.indexOf('.');
+        if (certLabelEnd < 0 || wildcard > certLabelEnd || hostLabelEnd < 0) return false;
+        if (certName.indexOf('*', wildcard + 1) >= 0) return false;
+
+        // at least two labels after the wildcard one, so *.com is not accepted
+        int secondLabelEnd = certName.indexOf('.', certLabelEnd + 1);
+        if (secondLabelEnd < 0 || secondLabelEnd >= certLength - 1) return false;
+
+        // all the labels after the left-most must match exactly
+        int suffixLength = certLength - certLabelEnd;
+        if (suffixLength != hostLength - hostLabelEnd
+                || !certName.regionMatches(true, certLabelEnd, host, hostLabelEnd, suffixLength)) {
+            return false;
+        }
+
+        int labelPrefixLength = wildcard;
+        int labelSuffixLength = certLabelEnd - wildcard - 1;
+        if (labelPrefixLength + labelSuffixLength > hostLabelEnd) return false;
+
+        if ((labelPrefixLength > 0 || labelSuffixLength > 0)
+                && host.regionMatches(true, 0, IDN_PREFIX, 0, IDN_PREFIX.length())) {
+            return false;
         }
-        return match;
+
+        return host.regionMatches(true, 0, certName, 0, labelPrefixLength)
+                && host.regionMatches(true, hostLabelEnd - labelSuffixLength,
+                                      certName, wildcard + 1, labelSuffixLength);
+    }
+
+    /**
+     * @return length of the name, ignoring the trailing dot of a fully qualified name
+     */
+    private static int trimmedLength(String name) {
+        int length = name.length();
+        return length > 0 && name.charAt(length - 1) == '.' ? length - 1 : length;
     }
 
     public static void setTlsConfig(
@@ -57,40 +105,95 @@ public class SipTlsUtils {
             boolean verifyEnabled,
             TransportConfig tlsTransport
     ) {
-        if (verifyEnabled && caFileExists(context)) {
-            try {
-                Logger.info(TAG, "Setting sip ca verification");
-                InputStream inputStream = context.getAssets().open(CA_FILE_NAME);
-                int size = inputStream.available();
-                byte[] buffer = new byte[size];
-                inputStream.read(buffer);
-                TlsConfig tlsConfig = tlsTransport.getTlsConfig();
-                tlsConfig.setCaBuf(new String(buffer));
-                /*
-                 * The server verification check is disabled
-                 * since we need to perform the check internally to validate wildcard
-                 * see {@link SipEndpoint#onTransportState(OnTransportStateParam)}
-                 * and https://github.com/pjsip/pjproject/pull/2328#issuecomment-595004025
-                 *
-                 * tlsConfig.setVerifyServer(true);
-                 */
-                tlsTransport.setTlsConfig(tlsConfig);
+        if (!verifyEnabled) return;
+
+        CaBundle caBundle = getCaBundle(context);
+        if (caBundle == null) return;
+
+        Logger.info(TAG, "Setting sip ca verification");
+        TlsConfig tlsConfig = tlsTransport.getTlsConfig();
+        tlsConfig.setCaBuf(caBundle.content);
+        /*
+         * The server verification check is disabled
+         * since we need to perform the check internally to validate wildcard
+         * see {@link SipEndpoint#onTransportState(OnTransportStateParam)}
+         * and https://github.com/pjsip/pjproject/pull/2328#issuecomment-595004025
+         *
+         * tlsConfig.setVerifyServer(true);
+         */
+        tlsTransport.setTlsConfig(tlsConfig);
+    }
+
+    /**
+     * CA bundle read from the assets, identified by its SHA-256 digest.
+     */
+    static final class CaBundle {
+        final String digest;
+        final String content;
+
+        CaBundle(String digest, String content) {
+            this.digest = digest;
+            this.content = content;
+        }
+    }
+
+    private static final Object CA_BUNDLE_LOCK = new Object();
+    private static volatile boolean sCaBundleLoaded;
+    private static volatile CaBundle sCaBundle;
+
+    /**
+     * Gets the CA bundle shipped in the assets. The assets can't change while the process is
+     * alive, so the bundle is read once and cached for all the following stack (re)starts.
+     * @return the CA bundle or null if there isn't any
+     */
+    private static CaBundle getCaBundle(Context context) {
+        if (sCaBundleLoaded) return sCaBundle;
+
+        synchronized (CA_BUNDLE_LOCK) {
+            if (sCaBundleLoaded) return sCaBundle;
+
+            try (InputStream inputStream = context.getAssets().open(CA_FILE_NAME)) {
+                sCaBundle = readCaBundle(inputStream);
+                Logger.debug(TAG, "CA bundle loaded. SHA-256: " + sCaBundle.digest);
+            } catch (FileNotFoundException e) {
+                Logger.debug(TAG, "No CA bundle in the assets");
+                sCaBundle = null;
             } catch (IOException e) {
-                Logger.error(TAG, "Unable to set server tls verification", e);
+                // not cached, so it will be retried on the next stack start
+                Logger.error(TAG, "Unable to read the CA bundle", e);
+                return null;
             }
+
+            sCaBundleLoaded = true;
+            return sCaBundle;
         }
     }
 
-    private static boolean caFileExists(Context context) {
+    /**
+     * Reads the whole stream, without relying on {@link InputStream#available()}, which is
+     * only an estimate, and computes its digest on the fly.
+     */
+    static CaBundle readCaBundle(InputStream inputStream) throws IOException {
+        MessageDigest digest;
         try {
-            String[] list = context.getAssets().list("");
-            for (String file: list) {
-                if (file.equals(CA_FILE_NAME))
-                    return true;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
         }
-        return false;
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream(CA_BUNDLE_BUFFER_SIZE);
+        byte[] buffer = new byte[CA_BUNDLE_BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            content.write(buffer, 0, read);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return new CaBundle(hex.toString(), content.toString("UTF-8"));
     }
 }
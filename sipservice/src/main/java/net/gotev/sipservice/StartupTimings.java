@@ -0,0 +1,110 @@
+package net.gotev.sipservice;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Durations of the {@link SipService} startup stages, used to measure cold start regressions.
+ * <p>
+ * The stack stages are recorded again each time the stack is restarted, while
+ * {@link Stage#FIRST_REGISTER} is recorded only once per service instance.
+ */
+@SuppressWarnings("unused")
+public class StartupTimings {
+
+    public enum Stage {
+        /**
+         * Loading of the native libraries. It runs in parallel with {@link #PREFERENCES}.
+         */
+        LIBRARY_LOAD,
+        /**
+         * Decryption of the shared preferences and loading of the configured accounts.
+         */
+        PREFERENCES,
+        LIB_CREATE,
+        LIB_INIT,
+        TRANSPORTS,
+        LIB_START,
+        /**
+         * Time elapsed from the service creation to the completion of the first REGISTER,
+         * i.e. its first final response, or its failure if no response has been received.
+         */
+        FIRST_REGISTER
+    }
+
+    private static final long NOT_RECORDED = -1;
+
+    private final long[] mDurations = new long[Stage.values().length];
+    private long mCreatedAt;
+
+    StartupTimings() {
+        Arrays.fill(mDurations, NOT_RECORDED);
+    }
+
+    private StartupTimings(StartupTimings other) {
+        System.arraycopy(other.mDurations, 0, mDurations, 0, mDurations.length);
+        mCreatedAt = other.mCreatedAt;
+    }
+
+    /**
+     * @return current timestamp to pass to {@link #record(Stage, long)}
+     */
+    static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    synchronized void start() {
+        mCreatedAt = now();
+    }
+
+    /**
+     * Records the duration of a stage.
+     * @param stage completed stage
+     * @param startedAt timestamp obtained from {@link #now()} when the stage started
+     */
+    synchronized void record(Stage stage, long startedAt) {
+        mDurations[stage.ordinal()] = now() - startedAt;
+    }
+
+    /**
+     * Records the completion of the first REGISTER, if not already recorded.
+     * @return true if this was the first REGISTER
+     */
+    synchronized boolean recordFirstRegister() {
+        if (mDurations[Stage.FIRST_REGISTER.ordinal()] != NOT_RECORDED) return false;
+        record(Stage.FIRST_REGISTER, mCreatedAt);
+        return true;
+    }
+
+    synchronized StartupTimings snapshot() {
+        return new StartupTimings(this);
+    }
+
+    /**
+     * @param stage startup stage
+     * @return duration of the stage in milliseconds or -1 if the stage has not been completed
+     */
+    public synchronized long getDurationMillis(Stage stage) {
+        return mDurations[stage.ordinal()];
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (builder.length() > 0) builder.append(" ");
+            builder.append(stage).append(": ");
+            long duration = mDurations[stage.ordinal()];
+            if (duration == NOT_RECORDED) {
+                builder.append("n/a");
+            } else {
+                builder.append(duration).append("ms");
+            }
+        }
+        return builder.toString();
+    }
+}
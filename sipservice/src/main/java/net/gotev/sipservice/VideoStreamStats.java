@@ -0,0 +1,159 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Statistics of a direction of the video stream of a call, reported along with the audio
+ * ones in {@link BroadcastEventReceiver#onCallVideoStats(int, String, VideoStreamStats, VideoStreamStats)}.
+ */
+@SuppressWarnings("unused")
+public class VideoStreamStats implements Parcelable {
+
+    private final int pkt;
+    private final int discard;
+    private final int loss;
+    private final Jitter jitter;
+    private final int bitrateKbps;
+    private final float negotiatedFrameRate;
+    private final int width;
+    private final int height;
+    private final int keyframeRequests;
+    private final int resolutionChanges;
+
+    VideoStreamStats(int pkt, int discard, int loss, Jitter jitter, int bitrateKbps, float negotiatedFrameRate,
+                     int width, int height, int keyframeRequests, int resolutionChanges) {
+        this.pkt = pkt;
+        this.discard = discard;
+        this.loss = loss;
+        this.jitter = jitter;
+        this.bitrateKbps = bitrateKbps;
+        this.negotiatedFrameRate = negotiatedFrameRate;
+        this.width = width;
+        this.height = height;
+        this.keyframeRequests = keyframeRequests;
+        this.resolutionChanges = resolutionChanges;
+    }
+
+    public static final Parcelable.Creator<VideoStreamStats> CREATOR =
+            new Parcelable.Creator<VideoStreamStats>() {
+                @Override
+                public VideoStreamStats createFromParcel(final Parcel in) {
+                    return new VideoStreamStats(in);
+                }
+
+                @Override
+                public VideoStreamStats[] newArray(final int size) {
+                    return new VideoStreamStats[size];
+                }
+            };
+
+    private VideoStreamStats(Parcel in) {
+        this.pkt = in.readInt();
+        this.discard = in.readInt();
+        this.loss = in.readInt();
+        this.jitter = in.readParcelable(Jitter.class.getClassLoader());
+        this.bitrateKbps = in.readInt();
+        this.negotiatedFrameRate = in.readFloat();
+        this.width = in.readInt();
+        this.height = in.readInt();
+        this.keyframeRequests = in.readInt();
+        this.resolutionChanges = in.readInt();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeInt(pkt);
+        parcel.writeInt(discard);
+        parcel.writeInt(loss);
+        parcel.writeParcelable(jitter, 0);
+        parcel.writeInt(bitrateKbps);
+        parcel.writeFloat(negotiatedFrameRate);
+        parcel.writeInt(width);
+        parcel.writeInt(height);
+        parcel.writeInt(keyframeRequests);
+        parcel.writeInt(resolutionChanges);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Packets: "+pkt+"\n"
+                +"Discard: "+discard+"\n"
+                +"Loss: "+loss+"\n"
+                +"Jitter: "+jitter.toString()+"\n"
+                +"Bitrate: "+bitrateKbps+"kbps\n"
+                +"Negotiated frame rate: "+negotiatedFrameRate+"fps\n"
+                +"Resolution: "+width+"x"+height+"\n"
+                +"Keyframe requests: "+keyframeRequests+"\n"
+                +"Resolution changes: "+resolutionChanges+"\n";
+    }
+
+    public int getPackets() {
+        return pkt;
+    }
+
+    public int getDiscard() {
+        return discard;
+    }
+
+    public int getLoss() {
+        return loss;
+    }
+
+    public Jitter getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return average bitrate over the whole call, in kbps
+     */
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    /**
+     * @return frame rate negotiated for the stream, not the measured one
+     */
+    public float getNegotiatedFrameRate() {
+        return negotiatedFrameRate;
+    }
+
+    /**
+     * @return last decoded resolution width for the incoming stream,
+     * encoding resolution width for the outgoing one
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return last decoded resolution height for the incoming stream,
+     * encoding resolution height for the outgoing one
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return keyframe requests sent to the remote party for the incoming stream,
+     * keyframe requests received from the remote party for the outgoing one
+     */
+    public int getKeyframeRequests() {
+        return keyframeRequests;
+    }
+
+    /**
+     * @return number of times the decoded resolution has changed after the first decoded
+     * frame for the incoming stream, always 0 for the outgoing one
+     */
+    public int getResolutionChanges() {
+        return resolutionChanges;
+    }
+}
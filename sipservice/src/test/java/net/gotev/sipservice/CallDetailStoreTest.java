@@ -0,0 +1,137 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class CallDetailStoreTest {
+
+    private static final String ALICE = "sip:alice@example.com";
+    private static final String BOB = "sip:bob@example.com";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cdr").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static CallDetailRecord record(String accountID, int callID, long start) {
+        return new CallDetailRecord(accountID, callID, callID % 2 == 0, "100@example.com",
+                start, start + 2000, start + 62000, 60, 200, "opus_48000", null, null);
+    }
+
+    @Test
+    public void testAppendAndQuery() {
+        CallDetailStore store = new CallDetailStore(directory, 16, 2);
+        store.append(record(ALICE, 2, 1000));
+        store.append(new CallDetailRecord(BOB, 3, false, "200@example.com",
+                2000, 0, 5000, 0, 486, "", null, null));
+
+        List<CallDetailRecord> records = store.query(null, 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+
+        CallDetailRecord alice = records.get(0);
+        assertEquals(ALICE, alice.getAccountID());
+        assertEquals(2, alice.getCallID());
+        assertTrue(alice.isIncoming());
+        assertEquals("100@example.com", alice.getRemoteUri());
+        assertEquals(1000, alice.getStartTimestamp());
+        assertEquals(3000, alice.getConnectTimestamp());
+        assertEquals(63000, alice.getEndTimestamp());
+        assertEquals(60, alice.getDuration());
+        assertEquals(200, alice.getStatusCode());
+        assertEquals("opus_48000", alice.getAudioCodec());
+
+        CallDetailRecord bob = records.get(1);
+        assertFalse(bob.isIncoming());
+        assertEquals(486, bob.getStatusCode());
+        assertEquals("", bob.getAudioCodec());
+    }
+
+    @Test
+    public void testFilters() {
+        CallDetailStore store = new CallDetailStore(directory, 4, 8);
+        for (int i = 0; i < 20; i++) {
+            store.append(record(i % 2 == 0 ? ALICE : BOB, i, i * 1000L));
+        }
+
+        assertEquals(10, store.query(ALICE, 0, Long.MAX_VALUE).size());
+        assertEquals(0, store.query("sip:carol@example.com", 0, Long.MAX_VALUE).size());
+
+        List<CallDetailRecord> records = store.query(BOB, 5000, 12000);
+        assertEquals(4, records.size());
+        assertEquals(5, records.get(0).getCallID());
+        assertEquals(11, records.get(3).getCallID());
+
+        assertEquals(8, store.query(null, 5000, 12000).size());
+    }
+
+    @Test
+    public void testRotation() {
+        CallDetailStore store = new CallDetailStore(directory, 4, 2);
+        for (int i = 0; i < 10; i++) {
+            store.append(record(ALICE, i, i * 1000L));
+        }
+
+        // 3 files have been created, the oldest has been deleted
+        assertEquals(2, directory.list().length);
+        List<CallDetailRecord> records = store.query(null, 0, Long.MAX_VALUE);
+        assertEquals(6, records.size());
+        assertEquals(4, records.get(0).getCallID());
+        assertEquals(9, records.get(5).getCallID());
+    }
+
+    @Test
+    public void testReopen() {
+        CallDetailStore store = new CallDetailStore(directory, 4, 4);
+        for (int i = 0; i < 6; i++) {
+            store.append(record(ALICE, i, i * 1000L));
+        }
+        store.close();
+
+        CallDetailStore reopened = new CallDetailStore(directory, 4, 4);
+        assertEquals(6, reopened.query(ALICE, 0, Long.MAX_VALUE).size());
+        reopened.append(record(ALICE, 6, 6000));
+        assertEquals(7, reopened.query(ALICE, 0, Long.MAX_VALUE).size());
+        assertEquals(2, directory.list().length);
+    }
+
+    @Test
+    public void testLongStrings() {
+        StringBuilder account = new StringBuilder("sip:");
+        for (int i = 0; i < 200; i++) {
+            account.append('è');
+        }
+        account.append("@example.com");
+
+        CallDetailStore store = new CallDetailStore(directory, 4, 4);
+        store.append(record(account.toString(), 1, 1000));
+
+        List<CallDetailRecord> records = store.query(account.toString(), 0, Long.MAX_VALUE);
+        assertEquals(1, records.size());
+        String stored = records.get(0).getAccountID();
+        assertTrue(account.toString().startsWith(stored));
+        assertFalse(stored.endsWith("�"));
+    }
+}
@@ -0,0 +1,154 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CallerInfoTest {
+
+    private static void assertCaller(String remoteInfo, String displayName, String remoteUri) {
+        CallerInfo callerInfo = CallerInfo.parse(remoteInfo);
+        assertEquals(displayName, callerInfo.getDisplayName());
+        assertEquals(remoteUri, callerInfo.getRemoteUri());
+    }
+
+    @Test
+    public void testQuotedDisplayName() {
+        assertCaller("\"Alice Smith\" <sip:alice@example.com>", "Alice Smith", "alice@example.com");
+        assertCaller("\"Bob \\\"The Builder\\\"\" <sip:bob@example.com>", "Bob \"The Builder\"", "bob@example.com");
+        assertCaller("\"\" <sip:100@example.com>", "100@example.com", "100@example.com");
+    }
+
+    @Test
+    public void testUnquotedDisplayName() {
+        assertCaller("Alice <sip:alice@example.com>", "Alice", "alice@example.com");
+        assertCaller("<sip:200@example.com>", "200@example.com", "200@example.com");
+    }
+
+    @Test
+    public void testSchemes() {
+        assertCaller("\"Secure\" <sips:secure@example.com>", "Secure", "secure@example.com");
+        assertCaller("<tel:+390123456789>", "+390123456789", "+390123456789");
+        assertCaller("<SIP:300@example.com>", "300@example.com", "300@example.com");
+        assertCaller("sip:400@example.com", "400@example.com", "400@example.com");
+        assertCaller("<mailto:alice@example.com>", "Unknown", "Unknown");
+    }
+
+    @Test
+    public void testParameters() {
+        assertCaller("\"Alice\" <sip:alice@example.com;transport=tls>", "Alice", "alice@example.com");
+        assertCaller("<sip:alice@example.com?subject=hi>", "alice@example.com", "alice@example.com");
+        assertCaller("<tel:+1234;phone-context=example.com>", "+1234", "+1234");
+        assertCaller("\"Alice\" <sip:alice@example.com>;tag=1234", "Alice", "alice@example.com");
+        assertCaller("sip:alice@example.com;tag=1234", "alice@example.com", "alice@example.com");
+    }
+
+    @Test
+    public void testInvalid() {
+        assertCaller(null, "Unknown", "Unknown");
+        assertCaller("", "Unknown", "Unknown");
+        assertCaller("\"Unterminated <sip:alice@example.com>", "Unknown", "Unknown");
+        assertCaller("\"Alice\" <sip:alice@example.com", "Unknown", "Unknown");
+        assertCaller("<sip:>", "Unknown", "Unknown");
+    }
+
+    @Test
+    public void testCache() {
+        String remoteInfo = "\"Cached\" <sip:cached@example.com>";
+        assertSame(CallerInfo.parse(remoteInfo), CallerInfo.parse(new String(remoteInfo)));
+    }
+
+    @Test
+    public void testLegacyCompatibility() {
+        String[] remoteInfos = {
+                "\"Alice Smith\" <sip:alice@example.com>",
+                "<sip:200@example.com>",
+                "\"Alice\" <sip:alice@example.com:5060>",
+        };
+        for (String remoteInfo : remoteInfos) {
+            String[] legacy = legacyParse(remoteInfo);
+            assertCaller(remoteInfo, legacy[0], legacy[1]);
+        }
+    }
+
+    @Test
+    public void testMoreCallersThanCache() {
+        String[] remoteInfos = new String[256];
+        for (int i = 0; i < remoteInfos.length; i++) {
+            remoteInfos[i] = "\"Caller " + i + "\" <sip:" + (1000 + i) + "@pbx.example.com;transport=tls>";
+        }
+
+        // the second round parses again the callers evicted from the cache
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < remoteInfos.length; i++) {
+                assertCaller(remoteInfos[i], "Caller " + i, (1000 + i) + "@pbx.example.com");
+            }
+        }
+    }
+
+    /**
+     * Opt-in, run with -Dbenchmarks=true.
+     */
+    @Test
+    public void benchmarkParser() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+
+        String[] remoteInfos = new String[256];
+        for (int i = 0; i < remoteInfos.length; i++) {
+            remoteInfos[i] = "\"Caller " + i + "\" <sip:" + (1000 + i) + "@pbx.example.com;transport=tls>";
+        }
+        int iterations = 200_000;
+
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            legacyParse(remoteInfos[i & 0xff]);
+            CallerInfo.parse(remoteInfos[i & 0xff]);
+        }
+
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            legacyParse(remoteInfos[i & 0xff]);
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+
+        // a different caller for each call, bigger than the cache, to measure the parser itself
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            CallerInfo.parse(remoteInfos[i & 0xff]);
+        }
+        long nanos = System.nanoTime() - start;
+
+        // the same caller calling again
+        long cachedStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            CallerInfo.parse(remoteInfos[0]);
+        }
+        long cachedNanos = System.nanoTime() - cachedStart;
+
+        System.out.println("Caller info parser: legacy " + legacyNanos / iterations + "ns/op, "
+                + "current " + nanos / iterations + "ns/op, cached " + cachedNanos / iterations + "ns/op");
+    }
+
+    /**
+     * Previous implementation, kept as reference and benchmark baseline.
+     */
+    private static String[] legacyParse(String temp) {
+        Pattern displayNameAndRemoteUriPattern = Pattern.compile("^\"([^\"]+).*?sip:(.*?)>$");
+        Matcher completeInfo = displayNameAndRemoteUriPattern.matcher(temp);
+        if (completeInfo.matches()) {
+            return new String[] {completeInfo.group(1), completeInfo.group(2)};
+        }
+
+        Pattern remoteUriPattern = Pattern.compile("^.*?sip:(.*?)>$");
+        Matcher remoteUriInfo = remoteUriPattern.matcher(temp);
+        if (remoteUriInfo.matches()) {
+            return new String[] {remoteUriInfo.group(1), remoteUriInfo.group(1)};
+        }
+        return new String[] {"Unknown", "Unknown"};
+    }
+}
@@ -0,0 +1,157 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentIntMapTest {
+
+    /**
+     * Mimics the calls bookkeeping of a {@link SipAccount}, which can't be instantiated
+     * without the native library.
+     */
+    private static class FakeAccount {
+        private final ConcurrentIntMap<String> activeCalls = new ConcurrentIntMap<>();
+
+        void addCall(int callID) {
+            activeCalls.put(callID, "call-" + callID);
+        }
+
+        void removeCall(int callID) {
+            activeCalls.remove(callID);
+        }
+
+        String getCall(int callID) {
+            return activeCalls.get(callID);
+        }
+
+        int[] getActiveCallIDs() {
+            return activeCalls.keys();
+        }
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        assertTrue(map.isEmpty());
+
+        assertNull(map.put(3, "c"));
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(2, "b"));
+        assertEquals("c", map.put(3, "C"));
+
+        assertEquals(3, map.size());
+        assertEquals("a", map.get(1));
+        assertEquals("C", map.get(3));
+        assertNull(map.get(4));
+        assertEquals(1, map.keys()[0]);
+        assertEquals(3, map.keys()[2]);
+
+        assertEquals("b", map.remove(2));
+        assertNull(map.remove(2));
+        assertEquals(2, map.size());
+        assertEquals("C", map.values().get(1));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByModifications() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        int[] keys = map.keys();
+        keys[0] = 10;
+        map.remove(1);
+        map.put(5, "e");
+
+        assertEquals(2, keys.length);
+        assertEquals(2, map.keys()[0]);
+        assertEquals(5, map.keys()[1]);
+    }
+
+    @Test
+    public void stressConcurrentAddRemoveIterate() throws Exception {
+        final FakeAccount account = new FakeAccount();
+        final int writers = 4;
+        final int readers = 4;
+        final int iterations = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] threads = new Thread[writers + readers];
+
+        for (int w = 0; w < writers; w++) {
+            final int base = w * iterations;
+            threads[w] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        int callID = base + i;
+                        account.addCall(callID);
+                        if (!("call-" + callID).equals(account.getCall(callID))) {
+                            throw new AssertionError("call " + callID + " not found after add");
+                        }
+                        // keep a few calls alive, like a real account would
+                        if (i >= 4) {
+                            account.removeCall(callID - 4);
+                        }
+                    }
+                } catch (Throwable exc) {
+                    failure.compareAndSet(null, exc);
+                } finally {
+                    writersDone.countDown();
+                }
+            });
+        }
+
+        for (int r = 0; r < readers; r++) {
+            threads[writers + r] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (writersDone.getCount() > 0) {
+                        int previous = Integer.MIN_VALUE;
+                        for (int callID : account.getActiveCallIDs()) {
+                            if (callID <= previous) {
+                                throw new AssertionError("snapshot not sorted");
+                            }
+                            previous = callID;
+                            // the call may have been removed meanwhile, but never replaced
+                            String call = account.getCall(callID);
+                            if (call != null && !call.equals("call-" + callID)) {
+                                throw new AssertionError("wrong call for " + callID);
+                            }
+                        }
+                    }
+                } catch (Throwable exc) {
+                    failure.compareAndSet(null, exc);
+                }
+            });
+        }
+
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        int[] remaining = account.getActiveCallIDs();
+        assertEquals(writers * 4, remaining.length);
+        for (int w = 0; w < writers; w++) {
+            for (int i = iterations - 4; i < iterations; i++) {
+                int callID = w * iterations + i;
+                assertEquals("call-" + callID, account.getCall(callID));
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EModelTest {
+
+    private static EModel estimate(String codec, float lossPercent, int jitterUsec, int rttUsec, int jbufDelayMillis) {
+        EModel eModel = new EModel();
+        eModel.setCodec(codec);
+        eModel.update(lossPercent, jitterUsec, rttUsec, jbufDelayMillis);
+        return eModel;
+    }
+
+    @Test
+    public void testNoImpairments() {
+        EModel eModel = estimate("PCMU", 0f, 0, 0, 0);
+        assertEquals(92.72f, eModel.getRFactor(), 0.01f);
+        assertEquals(4.40f, eModel.getMos(), 0.01f);
+    }
+
+    @Test
+    public void testCodecImpairment() {
+        assertEquals(81.6f, estimate("G729", 0f, 0, 0, 0).getRFactor(), 0.01f);
+        assertEquals(81.6f, estimate("unknown", 0f, 0, 0, 0).getRFactor(), 0.01f);
+        assertEquals(81.6f, estimate(null, 0f, 0, 0, 0).getRFactor(), 0.01f);
+        assertTrue(estimate("opus", 0f, 0, 0, 0).getRFactor() > estimate("GSM", 0f, 0, 0, 0).getRFactor());
+    }
+
+    @Test
+    public void testLoss() {
+        assertEquals(92.72f - 95f * 5f / 30.1f, estimate("PCMA", 5f, 0, 0, 0).getRFactor(), 0.01f);
+        assertEquals(81.6f - 84f * 100f / 119f, estimate("G729", 100f, 0, 0, 0).getRFactor(), 0.01f);
+        assertTrue(estimate("G729", 100f, 0, 0, 0).getMos() < 1.1f);
+    }
+
+    @Test
+    public void testDelay() {
+        // 200ms one way network delay + 20ms codec delay
+        float delay = 220f;
+        float expected = 93.2f - 0.024f * delay - 0.11f * (delay - 177.3f);
+        assertEquals(expected, estimate("PCMU", 0f, 0, 400_000, 0).getRFactor(), 0.01f);
+
+        // jitter buffer delay is twice the jitter, if unknown
+        assertEquals(estimate("PCMU", 0f, 0, 0, 60).getRFactor(),
+                estimate("PCMU", 0f, 30_000, 0, 0).getRFactor(), 0.001f);
+    }
+
+    @Test
+    public void testMos() {
+        assertEquals(1f, EModel.toMos(-10f), 0f);
+        assertEquals(4.5f, EModel.toMos(120f), 0f);
+        assertEquals(3.6f, EModel.toMos(70f), 0.01f);
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        EModel eModel = new EModel();
+        eModel.setCodec("opus");
+        eModel.update(10f, 40_000, 300_000, 0);
+        float degraded = eModel.getRFactor();
+        eModel.update(0f, 0, 0, 0);
+        assertTrue(eModel.getRFactor() > degraded);
+    }
+}
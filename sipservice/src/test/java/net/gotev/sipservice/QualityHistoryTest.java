@@ -0,0 +1,65 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class QualityHistoryTest {
+
+    @Test
+    public void testDeltas() {
+        QualityHistory history = new QualityHistory();
+        history.add(50, 0, 1, 2000, 0);
+        history.add(140, 10, 1, 3000, 40000);
+
+        assertEquals(2, history.size());
+        assertEquals(90, history.getRxPackets(0));
+        assertEquals(10, history.getRxLost(0));
+        assertEquals(0, history.getRxDiscarded(0));
+        assertEquals(3000, history.getJitterUsec(0));
+        assertEquals(40000, history.getRttUsec(0));
+        assertEquals(50, history.getRxPackets(1));
+        assertEquals(1, history.getRxDiscarded(1));
+
+        assertEquals(10f, history.getLossPercent(1), 0.001f);
+        assertEquals(10f * 100f / 150f, history.getLossPercent(QualityHistory.CAPACITY), 0.001f);
+        assertEquals(3000, history.getMaxJitterUsec(QualityHistory.CAPACITY));
+    }
+
+    @Test
+    public void testRestartedCounters() {
+        QualityHistory history = new QualityHistory();
+        history.add(500, 5, 0, 0, 0);
+        history.add(20, 1, 0, 0, 0);
+
+        assertEquals(20, history.getRxPackets(0));
+        assertEquals(1, history.getRxLost(0));
+    }
+
+    @Test
+    public void testWrapAround() {
+        QualityHistory history = new QualityHistory();
+        int samples = QualityHistory.CAPACITY + 5;
+        for (int i = 1; i <= samples; i++) {
+            history.add(i * 100L, 0, 0, i, 0);
+        }
+
+        assertEquals(QualityHistory.CAPACITY, history.size());
+        assertEquals(samples, history.getJitterUsec(0));
+        assertEquals(samples - QualityHistory.CAPACITY + 1, history.getJitterUsec(QualityHistory.CAPACITY - 1));
+        assertEquals(samples, history.getMaxJitterUsec(QualityHistory.CAPACITY));
+        assertEquals(0f, history.getLossPercent(QualityHistory.CAPACITY), 0f);
+
+        history.reset();
+        assertEquals(0, history.size());
+        history.add(10, 0, 0, 0, 0);
+        assertEquals(10, history.getRxPackets(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testMissingSample() {
+        QualityHistory history = new QualityHistory();
+        history.add(10, 0, 0, 0, 0);
+        history.getRxPackets(1);
+    }
+}
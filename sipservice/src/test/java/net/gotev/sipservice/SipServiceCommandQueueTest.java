@@ -0,0 +1,176 @@
+package net.gotev.sipservice;
+
+import static net.gotev.sipservice.SipServiceConstants.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+public class SipServiceCommandQueueTest {
+
+    private static final String ALICE = "sip:alice@example.com";
+    private static final String BOB = "sip:bob@example.com";
+
+    private final SipServiceCommandQueue queue = new SipServiceCommandQueue() {
+        @Override
+        long now() {
+            return 0;
+        }
+    };
+    private final List<String> executed = new ArrayList<>();
+
+    private boolean enqueue(String name, String action, String accountID, int callID) {
+        return queue.enqueue(action, accountID, callID, () -> executed.add(name));
+    }
+
+    private List<String> drain() {
+        Runnable job;
+        while ((job = queue.poll()) != null) {
+            job.run();
+        }
+        return executed;
+    }
+
+    @Test
+    public void testCallControlWaitsForAccountlessCommands() {
+        enqueue("codecs", ACTION_GET_CODEC_PRIORITIES, null, -1);
+        enqueue("status", ACTION_GET_REGISTRATION_STATUS, BOB, -1);
+        enqueue("hangUp", ACTION_HANG_UP_CALL, ALICE, 1);
+
+        // the pending batch-like command without an account shares every target
+        assertEquals(Arrays.asList("codecs", "status", "hangUp"), drain());
+    }
+
+    @Test
+    public void testCallControlOnOtherAccountIsPromoted() {
+        enqueue("status", ACTION_GET_REGISTRATION_STATUS, BOB, -1);
+        enqueue("videoMute", ACTION_SET_VIDEO_MUTE, BOB, 2);
+        enqueue("hangUp", ACTION_HANG_UP_CALL, ALICE, 1);
+
+        assertEquals(Arrays.asList("hangUp", "status", "videoMute"), drain());
+    }
+
+    @Test
+    public void testCallControlOnOtherCallIsPromoted() {
+        enqueue("videoMute", ACTION_SET_VIDEO_MUTE, ALICE, 2);
+        enqueue("hold", ACTION_SET_HOLD, ALICE, 1);
+
+        assertEquals(Arrays.asList("hold", "videoMute"), drain());
+    }
+
+    @Test
+    public void testCallControlKeepsOrderOnSameTarget() {
+        enqueue("makeCall", ACTION_MAKE_CALL, ALICE, -1);
+        enqueue("hangUpCalls", ACTION_HANG_UP_CALLS, ALICE, -1);
+        enqueue("videoMute", ACTION_SET_VIDEO_MUTE, BOB, 3);
+        enqueue("hold", ACTION_SET_HOLD, BOB, 3);
+        enqueue("mute", ACTION_SET_MUTE, BOB, 4);
+
+        assertEquals(Arrays.asList("mute", "makeCall", "hangUpCalls", "videoMute", "hold"), drain());
+    }
+
+    @Test
+    public void testLaterCallControlKeepsOrderWithDeferredOne() {
+        enqueue("makeCall", ACTION_MAKE_CALL, ALICE, -1);
+        enqueue("hangUpCalls", ACTION_HANG_UP_CALLS, ALICE, -1);
+        enqueue("hangUp", ACTION_HANG_UP_CALL, ALICE, 1);
+
+        assertEquals(Arrays.asList("makeCall", "hangUpCalls", "hangUp"), drain());
+    }
+
+    @Test
+    public void testMergeTargetsTheWholeAccount() {
+        enqueue("videoMute", ACTION_SET_VIDEO_MUTE, ALICE, 2);
+        enqueue("merge", ACTION_MERGE_CALLS, ALICE, 1);
+
+        assertEquals(Arrays.asList("videoMute", "merge"), drain());
+    }
+
+    @Test
+    public void testReplace() {
+        assertTrue(enqueue("hold1", ACTION_SET_HOLD, ALICE, 1));
+        assertFalse(enqueue("hold2", ACTION_SET_HOLD, ALICE, 1));
+
+        assertEquals(Arrays.asList("hold2"), drain());
+        assertEquals(1, queue.getStats().getCoalesced());
+    }
+
+    @Test
+    public void testReplaceOnlyLastCommandForTarget() {
+        enqueue("hold1", ACTION_SET_HOLD, ALICE, 1);
+        enqueue("hangUp", ACTION_HANG_UP_CALL, ALICE, 1);
+        assertTrue(enqueue("hold2", ACTION_SET_HOLD, ALICE, 1));
+
+        assertEquals(Arrays.asList("hold1", "hangUp", "hold2"), drain());
+    }
+
+    @Test
+    public void testToggles() throws Exception {
+        FutureTask<Boolean> first = new FutureTask<>(() -> true);
+        FutureTask<Boolean> second = new FutureTask<>(() -> true);
+        assertTrue(queue.enqueue(ACTION_TOGGLE_MUTE, ALICE, 1, first));
+        assertFalse(queue.enqueue(ACTION_TOGGLE_MUTE, ALICE, 1, second));
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertEquals(0, drain().size());
+        assertEquals(0, queue.getStats().getDepth());
+    }
+
+    private static void assertDiscarded(Future<?> future) throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("Discarded command completed successfully");
+        } catch (ExecutionException exc) {
+            assertTrue(exc.getCause() instanceof CommandDiscardedException);
+        }
+    }
+
+    @Test
+    public void testDiscardedTasksFail() throws Exception {
+        CommandTask<Boolean> replaced = new CommandTask<>(() -> true);
+        CommandTask<Boolean> replacing = new CommandTask<>(() -> true);
+        queue.enqueue(ACTION_SET_MUTE, ALICE, 1, replaced);
+        queue.enqueue(ACTION_SET_MUTE, ALICE, 1, replacing);
+
+        CommandTask<Boolean> first = new CommandTask<>(() -> true);
+        CommandTask<Boolean> second = new CommandTask<>(() -> true);
+        queue.enqueue(ACTION_TOGGLE_HOLD, ALICE, 2, first);
+        queue.enqueue(ACTION_TOGGLE_HOLD, ALICE, 2, second);
+
+        assertDiscarded(replaced);
+        assertDiscarded(first);
+        assertDiscarded(second);
+
+        queue.poll().run();
+        assertTrue(replacing.get());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CommandTask<Boolean> pending = new CommandTask<>(() -> true);
+        CommandTask<Boolean> callControl = new CommandTask<>(() -> true);
+        queue.enqueue(ACTION_GET_REGISTRATION_STATUS, ALICE, -1, pending);
+        queue.enqueue(ACTION_HANG_UP_CALL, BOB, 1, callControl);
+
+        queue.close();
+        assertDiscarded(pending);
+        assertDiscarded(callControl);
+        assertEquals(0, queue.getStats().getDepth());
+
+        CommandTask<Boolean> late = new CommandTask<>(() -> true);
+        assertFalse(queue.enqueue(ACTION_MAKE_CALL, ALICE, -1, late));
+        assertDiscarded(late);
+        assertEquals(null, queue.poll());
+    }
+}
@@ -1,10 +1,17 @@
 package net.gotev.sipservice;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * connect
@@ -79,4 +86,163 @@ public class SipTlsUtilsTest {
         certNames.add("first.c*.test.com");
         assertFalse(SipTlsUtils.isWildcardValid(certNames, host));
     }
+
+    @Test
+    public void testWildCardCertValidCaseInsensitive() {
+        assertTrue(SipTlsUtils.isWildcardValid(names("*.TEST.com"), "Cert.Test.COM"));
+        assertTrue(SipTlsUtils.isWildcardValid(names("CERT.test.com"), host));
+    }
+
+    @Test
+    public void testWildCardCertValidTrailingDot() {
+        assertTrue(SipTlsUtils.isWildcardValid(names("*.test.com."), host));
+        assertTrue(SipTlsUtils.isWildcardValid(names("cert.test.com"), "cert.test.com."));
+    }
+
+    @Test
+    public void testWildCardCertInvalidMultipleLabels() {
+        assertFalse(SipTlsUtils.isWildcardValid(names("*.com"), host));
+        assertFalse(SipTlsUtils.isWildcardValid(names("*.test.com"), "a.cert.test.com"));
+        assertFalse(SipTlsUtils.isWildcardValid(names("*.test.com"), "test.com"));
+    }
+
+    @Test
+    public void testWildCardCertInvalidTopLevelDomain() {
+        assertFalse(SipTlsUtils.isWildcardValid(names("*.com"), "test.com"));
+        assertFalse(SipTlsUtils.isWildcardValid(names("*.com."), "test.com"));
+    }
+
+    @Test
+    public void testWildCardCertInvalidNotLeftMost() {
+        assertFalse(SipTlsUtils.isWildcardValid(names("cert.*.com"), host));
+        assertFalse(SipTlsUtils.isWildcardValid(names("**.test.com"), host));
+        assertFalse(SipTlsUtils.isWildcardValid(names("c*r*.test.com"), host));
+    }
+
+    @Test
+    public void testWildCardCertPartialIdn() {
+        assertFalse(SipTlsUtils.isWildcardValid(names("xn*.test.com"), "xn--caf-dma.test.com"));
+        assertTrue(SipTlsUtils.isWildcardValid(names("*.test.com"), "xn--caf-dma.test.com"));
+    }
+
+    @Test
+    public void testWildCardCertPartialLabelTooShort() {
+        assertFalse(SipTlsUtils.isWildcardValid(names("cer*ert.test.com"), host));
+        assertTrue(SipTlsUtils.isWildcardValid(names("cer*t.test.com"), host));
+    }
+
+    /**
+     * Checks that the matcher agrees with the previous regex based implementation
+     * on the names which both of them support.
+     */
+    @Test
+    public void testWildcardMatcherMatchesLegacy() {
+        ArrayList<String> certNames = names("*.voismart.it", "sip.example.org", "*.example.net",
+                "www.test.com", "mail.test.com", "*pp.test.com", "c*.test.com");
+        String[] hosts = {host, "app.test.com", "www.test.com", "web.test.com", "pbx.voismart.it",
+                "voismart.it", "sip.example.org", "sip.example.com", "a.b.example.net", "test.com"};
+
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        try {
+            for (String hostName : hosts) {
+                assertEquals(hostName, legacyIsWildcardValid(certNames, hostName.split("\\.")),
+                        SipTlsUtils.isWildcardValid(certNames, hostName));
+            }
+        } finally {
+            Logger.setLogLevel(Logger.LogLevel.DEBUG);
+        }
+    }
+
+    /**
+     * Opt-in, run with -Dbenchmarks=true.
+     */
+    @Test
+    public void benchmarkWildcardMatcher() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+
+        ArrayList<String> certNames = names("*.voismart.it", "sip.example.org", "*.example.net",
+                "www.test.com", "mail.test.com", "*pp.test.com", "c*.test.com");
+        int iterations = 100_000;
+
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        try {
+            // warm up
+            for (int i = 0; i < iterations; i++) {
+                legacyIsWildcardValid(certNames, host.split("\\."));
+                SipTlsUtils.isWildcardValid(certNames, host);
+            }
+
+            long legacyStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                assertTrue(legacyIsWildcardValid(certNames, host.split("\\.")));
+            }
+            long legacyNanos = System.nanoTime() - legacyStart;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                assertTrue(SipTlsUtils.isWildcardValid(certNames, host));
+            }
+            long nanos = System.nanoTime() - start;
+
+            System.out.println("Wildcard matcher: legacy " + legacyNanos / iterations + "ns/op, "
+                    + "current " + nanos / iterations + "ns/op");
+        } finally {
+            Logger.setLogLevel(Logger.LogLevel.DEBUG);
+        }
+    }
+
+    private static ArrayList<String> names(String... names) {
+        return new ArrayList<>(Arrays.asList(names));
+    }
+
+    /**
+     * Previous implementation, kept as reference and benchmark baseline.
+     */
+    private static boolean legacyIsWildcardValid(ArrayList<String> certNames, String[] tokens) {
+        for (String certName : certNames) {
+            boolean match = false;
+            String[] certTokens = certName.split("\\.");
+            if (certTokens.length == tokens.length) {
+                for (int i = tokens.length - 1; i >= 0; i--) {
+                    String certToken = certTokens[i];
+                    if (certToken.contains("*")) {
+                        certToken = certToken.replace("*", ".*");
+                    }
+                    if (tokens[i].equals(certToken) || tokens[i].matches(certToken)) {
+                        match = true;
+                    } else {
+                        match = false;
+                        break;
+                    }
+                }
+            }
+            if (match) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testReadCaBundleDoesNotRelyOnAvailable() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            content.append("-----BEGIN CERTIFICATE-----\n");
+        }
+
+        InputStream inputStream = new ByteArrayInputStream(content.toString().getBytes("UTF-8")) {
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+        };
+
+        SipTlsUtils.CaBundle caBundle = SipTlsUtils.readCaBundle(inputStream);
+        assertEquals(content.toString(), caBundle.content);
+        assertEquals(64, caBundle.digest.length());
+    }
+
+    @Test
+    public void testReadCaBundleDigest() throws IOException {
+        SipTlsUtils.CaBundle caBundle = SipTlsUtils.readCaBundle(new ByteArrayInputStream("abc".getBytes("UTF-8")));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", caBundle.digest);
+    }
 }